@@ -0,0 +1,424 @@
+/*
+ * BulkLoader.java
+ *
+ * Loads SQL dumps such as data.sql using multi-row INSERT statements.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+// Imports
+import java.io.*;
+import java.util.*;
+import java.sql.*;
+
+/**
+ * Loads a SQL dump much faster than replaying it one statement at a time.
+ * Rows are grouped by table into multi-row INSERT statements that stay under the
+ * server's packet limit, and are committed in chunks.  Rows per second are
+ * reported for each table.
+ * <p>
+ * Usage: java BulkLoader [--chunk rows] [--packet bytes] [--mapped] [file [username [password]]]
+ * <p>
+ * With --mapped the dump is read through MappedDumpParser instead of a Reader,
+ * which avoids building a String for every row of a large dump.
+ *
+ * @author Austin Cathey
+ */
+public class BulkLoader
+{
+	// Default number of rows per transaction.
+	public static final int DEFAULT_CHUNK_ROWS = 5000;
+
+	// Default statement size when the server's packet limit can't be read.
+	public static final int DEFAULT_PACKET_BYTES = 1 << 20;
+
+	// Room left in each packet for protocol overhead.
+	private static final int PACKET_MARGIN_BYTES = 1024;
+
+	// The dump to load unless told otherwise.
+	public static final String DEFAULT_DUMP_FILE = "data.sql";
+
+	// The connection to load through.
+	private final Connection connection;
+
+	// The number of rows per transaction.
+	private final int chunkRows;
+
+	// The largest statement to send.
+	private final int maxStatementBytes;
+
+	// Pending rows for each INSERT head, in the order the tables were first seen.
+	private final Map<String, TableBatch> batches = new LinkedHashMap<String, TableBatch>();
+
+	// Rows sent since the last commit.
+	private int uncommittedRows;
+
+	// Used to run the statements.
+	private Statement statement;
+
+	/**
+	 * Pending rows and statistics for one table.
+	 */
+	static class TableBatch
+	{
+		final String table;
+		final String head;
+		final StringBuilder sql = new StringBuilder();
+		int pendingRows;
+		long rows;
+		long statements;
+		long nanos;
+
+		TableBatch(String table, String head)
+		{
+			this.table = table;
+			this.head = head;
+		}
+
+		/**
+		 * Gets the table's load rate.
+		 */
+		double rowsPerSecond()
+		{
+			return nanos == 0 ? 0.0 : rows * 1e9 / nanos;
+		}
+	}
+
+	/**
+	 * Constructor for the bulk loader.
+	 *
+	 * @param connection The DBMS connection.
+	 * @param chunkRows The number of rows per transaction.
+	 * @param packetBytes The largest statement to send, or zero to ask the server.
+	 */
+	public BulkLoader(Connection connection, int chunkRows, int packetBytes) throws SQLException
+	{
+		if (chunkRows < 1)
+		{
+			throw new IllegalArgumentException("The chunk size must be positive.");
+		}
+
+		this.connection = connection;
+		this.chunkRows = chunkRows;
+		this.maxStatementBytes = Math.max(PACKET_MARGIN_BYTES, (packetBytes > 0 ? packetBytes : serverPacketBytes()) - PACKET_MARGIN_BYTES);
+	}
+
+	/**
+	 * Entry point.
+	 *
+	 * @param args [--chunk rows] [--packet bytes] [--mapped] [file [username [password]]]
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		int chunkRows = BulkLoader.DEFAULT_CHUNK_ROWS;
+		int packetBytes = 0;
+		boolean mapped = false;
+		List<String> rest = new ArrayList<String>();
+
+		for (int index = 0; index < args.length; index++)
+		{
+			if (args[index].equals("--chunk") && index + 1 < args.length)
+			{
+				chunkRows = Integer.parseInt(args[++index]);
+			}
+			else if (args[index].equals("--packet") && index + 1 < args.length)
+			{
+				packetBytes = Integer.parseInt(args[++index]);
+			}
+			else if (args[index].equals("--mapped"))
+			{
+				mapped = true;
+			}
+			else
+			{
+				rest.add(args[index]);
+			}
+		}
+
+		String fileName = rest.isEmpty() ? BulkLoader.DEFAULT_DUMP_FILE : rest.remove(0);
+		String[] userPass = JdbcWrapper.getUsernameAndPassword(rest.toArray(new String[rest.size()]));
+		Connection connection = JdbcWrapper.getConnection(userPass[0], userPass[1]);
+
+		try
+		{
+			BulkLoader loader = new BulkLoader(connection, chunkRows, packetBytes);
+			if (mapped)
+			{
+				loader.load(new MappedDumpParser(new File(fileName)));
+			}
+			else
+			{
+				Reader in = new InputStreamReader(new FileInputStream(fileName), "UTF-8");
+				loader.load(new SqlDumpReader(in));
+			}
+			loader.printReport(System.out);
+		}
+		finally
+		{
+			JdbcWrapper.closeConnection(connection);
+			JdbcWrapper.closeAllPools();
+		}
+	}
+
+	/**
+	 * Loads every row and statement from a dump.  Statements that aren't INSERTs are run as they are.
+	 *
+	 * @param reader The dump to load.
+	 */
+	public void load(SqlDumpReader reader) throws SQLException, IOException
+	{
+		begin();
+		try
+		{
+			while (reader.next())
+			{
+				if (reader.isRow())
+				{
+					addRow(reader.getTable(), reader.getHead(), reader.getRow());
+				}
+				else
+				{
+					flushAll();
+					statement.execute(reader.getStatement());
+				}
+			}
+			finish();
+		}
+		catch (SQLException ex)
+		{
+			abort();
+			throw ex;
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	/**
+	 * Loads every row and statement from a memory-mapped dump.  Statements that aren't INSERTs are run as they are.
+	 * Rows are appended to their table's statement straight from the mapped bytes.
+	 *
+	 * @param parser The dump to load.
+	 */
+	public void load(MappedDumpParser parser) throws SQLException, IOException
+	{
+		begin();
+		try
+		{
+			parser.parse(new MappedDumpParser.RowSink()
+			{
+				// The last head seen, so that a String is only made when the table changes.
+				private String head;
+				private String table;
+
+				@Override
+				public void row(MappedDumpParser.DumpRow row) throws SQLException
+				{
+					if (head == null || !row.getHead().contentEquals(head))
+					{
+						head = row.getHead().toString();
+						table = row.getTable().toString();
+					}
+					addRow(table, head, row.getSQL());
+				}
+
+				@Override
+				public void statement(CharSequence sql) throws SQLException
+				{
+					flushAll();
+					statement.execute(sql.toString());
+				}
+			});
+			finish();
+		}
+		catch (SQLException ex)
+		{
+			abort();
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Starts a load.  Rows can be added with addRow() until finish() is called.
+	 */
+	void begin() throws SQLException
+	{
+		connection.setAutoCommit(false);
+		statement = connection.createStatement();
+		uncommittedRows = 0;
+	}
+
+	/**
+	 * Adds a row, sending the table's statement first if the row wouldn't fit.
+	 *
+	 * @param table The table the row goes in.
+	 * @param head The INSERT statement up to the VALUES keyword.
+	 * @param row The row as SQL, including its parentheses.
+	 */
+	void addRow(String table, String head, CharSequence row) throws SQLException
+	{
+		TableBatch batch = batches.get(head);
+		if (batch == null)
+		{
+			batch = new TableBatch(table, head);
+			batches.put(head, batch);
+		}
+
+		// Characters are counted as bytes, so leave room for multi-byte text.
+		if (batch.pendingRows > 0 && (batch.sql.length() + row.length() + 1) * 3 / 2 > maxStatementBytes)
+		{
+			flush(batch);
+		}
+
+		if (batch.pendingRows == 0)
+		{
+			batch.sql.setLength(0);
+			batch.sql.append(head).append(" VALUES ");
+		}
+		else
+		{
+			batch.sql.append(',');
+		}
+		batch.sql.append(row);
+		batch.pendingRows++;
+	}
+
+	/**
+	 * Sends every table's pending rows and commits.
+	 */
+	void finish() throws SQLException
+	{
+		try
+		{
+			flushAll();
+			connection.commit();
+		}
+		finally
+		{
+			end();
+		}
+	}
+
+	/**
+	 * Rolls back anything that hasn't been committed.
+	 */
+	void abort()
+	{
+		try
+		{
+			connection.rollback();
+		}
+		catch (SQLException ex)
+		{
+			System.out.println("Error rolling back: " + ex.getMessage());
+		}
+		end();
+	}
+
+	private void end()
+	{
+		JdbcWrapper.closeStatement(statement);
+		statement = null;
+		try
+		{
+			connection.setAutoCommit(true);
+		}
+		catch (SQLException ex)
+		{
+			System.out.println("Error restoring auto-commit: " + ex.getMessage());
+		}
+	}
+
+	private void flushAll() throws SQLException
+	{
+		for (TableBatch batch : batches.values())
+		{
+			flush(batch);
+		}
+	}
+
+	/**
+	 * Sends a table's pending rows as one statement, committing once a chunk's worth has been sent.
+	 *
+	 * @param batch The table's pending rows.
+	 */
+	private void flush(TableBatch batch) throws SQLException
+	{
+		if (batch.pendingRows == 0)
+		{
+			return;
+		}
+
+		long start = System.nanoTime();
+		statement.executeUpdate(batch.sql.toString());
+		uncommittedRows += batch.pendingRows;
+		if (uncommittedRows >= chunkRows)
+		{
+			connection.commit();
+			uncommittedRows = 0;
+		}
+		batch.nanos += System.nanoTime() - start;
+
+		batch.rows += batch.pendingRows;
+		batch.statements++;
+		batch.pendingRows = 0;
+		batch.sql.setLength(0);
+	}
+
+	/**
+	 * Gets the statistics for each table loaded so far.
+	 */
+	Collection<TableBatch> getBatches()
+	{
+		return batches.values();
+	}
+
+	/**
+	 * Prints rows, statements and rows per second for each table.
+	 *
+	 * @param out Where to print the report.
+	 */
+	public void printReport(PrintStream out)
+	{
+		long totalRows = 0, totalNanos = 0;
+
+		out.printf("%-20s %10s %10s %12s%n", "Table", "Rows", "Statements", "Rows/sec");
+		for (TableBatch batch : batches.values())
+		{
+			out.printf("%-20s %10d %10d %12.0f%n", batch.table, batch.rows, batch.statements, batch.rowsPerSecond());
+			totalRows += batch.rows;
+			totalNanos += batch.nanos;
+		}
+		out.printf("%-20s %10d %10s %12.0f%n", "Total", totalRows, "", totalNanos == 0 ? 0.0 : totalRows * 1e9 / totalNanos);
+	}
+
+	/**
+	 * Asks the server for its packet limit.
+	 */
+	private int serverPacketBytes()
+	{
+		Statement stmt = null;
+		ResultSet rs = null;
+
+		try
+		{
+			stmt = connection.createStatement();
+			rs = stmt.executeQuery("SELECT @@max_allowed_packet");
+			if (rs.next())
+			{
+				return (int)Math.min(Integer.MAX_VALUE, rs.getLong(1));
+			}
+		}
+		catch (SQLException ex)
+		{
+			System.out.println("Could not read the server's packet limit, using " + BulkLoader.DEFAULT_PACKET_BYTES + " bytes.");
+		}
+		finally
+		{
+			JdbcWrapper.closeResultSet(rs);
+			JdbcWrapper.closeStatement(stmt);
+		}
+		return BulkLoader.DEFAULT_PACKET_BYTES;
+	}
+}
@@ -0,0 +1,411 @@
+/*
+ * ConnectionPool.java
+ *
+ * A small pool of DBMS connections for a single user.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+// Imports
+import java.util.*;
+import java.sql.*;
+
+/**
+ * A pool of connections to one database for one user.
+ * Connections are validated with isValid() before being handed out, idle connections
+ * beyond the minimum size are closed after a timeout, and only a bounded number of
+ * callers may wait for a connection when the pool is exhausted.
+ *
+ * @author Austin Cathey
+ */
+public class ConnectionPool
+{
+	// Defaults for pools created by JdbcWrapper.
+	public static final int DEFAULT_MIN_SIZE = 1;
+	public static final int DEFAULT_MAX_SIZE = 8;
+	public static final int DEFAULT_MAX_WAITERS = 16;
+	public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 5 * 60 * 1000;
+	public static final long DEFAULT_BORROW_TIMEOUT_MILLIS = 30 * 1000;
+
+	// How many seconds isValid() may take when validating a connection.
+	private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+	// Timer shared by all pools to evict idle connections.
+	private static final Timer evictionTimer = new Timer("ConnectionPool-evictor", true);
+
+	// Connection settings.
+	private final String url;
+	private final String username;
+	private final String password;
+
+	// Pool settings.
+	private final int minSize;
+	private final int maxSize;
+	private final int maxWaiters;
+	private final long idleTimeoutMillis;
+	private final long borrowTimeoutMillis;
+
+	// Idle connections, most recently used first.
+	private final ArrayDeque<IdleConnection> idle = new ArrayDeque<IdleConnection>();
+
+	// Connections that are currently handed out.
+	private final Set<Connection> borrowed = Collections.newSetFromMap(new IdentityHashMap<Connection, Boolean>());
+
+	// Connections being opened, validated or reset outside of the lock.
+	private int pending;
+
+	// Callers currently waiting for a connection.
+	private int waiters;
+
+	// The eviction task for this pool.
+	private final TimerTask evictionTask;
+
+	private boolean closed;
+
+	/**
+	 * An idle connection and the time it was returned to the pool.
+	 */
+	private static class IdleConnection
+	{
+		final Connection connection;
+		final long idleSince;
+
+		IdleConnection(Connection connection, long idleSince)
+		{
+			this.connection = connection;
+			this.idleSince = idleSince;
+		}
+	}
+
+	/**
+	 * Constructor for a connection pool.
+	 *
+	 * @param url The database URL.
+	 * @param username The DBMS username.
+	 * @param password The DBMS password.
+	 * @param minSize The number of connections to keep open even when idle.
+	 * @param maxSize The maximum number of open connections.
+	 * @param maxWaiters The maximum number of callers that may wait for a connection.
+	 * @param idleTimeoutMillis How long a connection may sit idle before it is closed.
+	 * @param borrowTimeoutMillis How long a caller waits for a connection before giving up.
+	 */
+	public ConnectionPool(String url, String username, String password,
+			int minSize, int maxSize, int maxWaiters, long idleTimeoutMillis, long borrowTimeoutMillis)
+	{
+		if (minSize < 0 || maxSize < 1 || minSize > maxSize || maxWaiters < 0)
+		{
+			throw new IllegalArgumentException("Invalid connection pool size.");
+		}
+
+		this.url = url;
+		this.username = username;
+		this.password = password;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.maxWaiters = maxWaiters;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.borrowTimeoutMillis = borrowTimeoutMillis;
+
+		// Check for idle connections a few times per timeout period.
+		long period = Math.max(1000, idleTimeoutMillis / 4);
+		evictionTask = new TimerTask()
+		{
+			@Override
+			public void run()
+			{
+				evictIdleConnections();
+			}
+		};
+		evictionTimer.schedule(evictionTask, period, period);
+	}
+
+	/**
+	 * Gets a connection from the pool, opening a new one if needed.
+	 *
+	 * @return A valid connection.  Hand it back with release().
+	 * @throws SQLException If a connection couldn't be opened, the pool is closed,
+	 *                      too many callers are waiting, or the wait timed out.
+	 */
+	public Connection borrow() throws SQLException
+	{
+		long deadline = System.currentTimeMillis() + borrowTimeoutMillis;
+
+		while (true)
+		{
+			IdleConnection candidate = null;
+			boolean create = false;
+
+			// Decide what to do while holding the lock, but do the slow work outside of it.
+			synchronized (this)
+			{
+				while (candidate == null && !create)
+				{
+					if (closed)
+					{
+						throw new SQLException("The connection pool for " + username + " has been closed.");
+					}
+
+					if (!idle.isEmpty())
+					{
+						candidate = idle.pollFirst();
+					}
+					else if (totalSize() < maxSize)
+					{
+						create = true;
+					}
+					else
+					{
+						awaitConnection(deadline);
+					}
+				}
+				pending++;
+			}
+
+			Connection connection = null;
+			try
+			{
+				if (create)
+				{
+					connection = DriverManager.getConnection(url, username, password);
+				}
+				else if (isUsable(candidate.connection))
+				{
+					connection = candidate.connection;
+				}
+				else
+				{
+					JdbcWrapper.closeConnection(candidate.connection);
+				}
+			}
+			finally
+			{
+				synchronized (this)
+				{
+					pending--;
+					if (connection != null)
+					{
+						borrowed.add(connection);
+					}
+					notifyAll();
+				}
+			}
+
+			// A stale connection was thrown out, so try again.
+			if (connection != null)
+			{
+				return connection;
+			}
+		}
+	}
+
+	/**
+	 * Waits for a connection to be returned to the pool.  Must be called while holding the lock.
+	 *
+	 * @param deadline The time at which to give up waiting.
+	 */
+	private void awaitConnection(long deadline) throws SQLException
+	{
+		long remaining = deadline - System.currentTimeMillis();
+		if (remaining <= 0)
+		{
+			throw new SQLTimeoutException("Timed out waiting for a connection for " + username + ".");
+		}
+		else if (waiters >= maxWaiters)
+		{
+			throw new SQLException("Too many callers are waiting for a connection for " + username + ".");
+		}
+
+		waiters++;
+		try
+		{
+			wait(remaining);
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a connection.", ex);
+		}
+		finally
+		{
+			waiters--;
+		}
+	}
+
+	/**
+	 * Hands a connection back to the pool.
+	 *
+	 * @param connection The connection obtained from borrow().
+	 * @return True if the connection belonged to this pool, false otherwise.
+	 */
+	public boolean release(Connection connection)
+	{
+		// The connection counts as pending until it's back in the pool or closed,
+		// so that borrow() can't open one past the maximum size in the meantime.
+		synchronized (this)
+		{
+			if (!borrowed.remove(connection))
+			{
+				return false;
+			}
+			pending++;
+		}
+
+		try
+		{
+			// Undo anything the borrower may have changed before someone else gets it.
+			boolean reusable;
+			try
+			{
+				if (!connection.getAutoCommit())
+				{
+					connection.rollback();
+					connection.setAutoCommit(true);
+				}
+				connection.clearWarnings();
+				reusable = !connection.isClosed();
+			}
+			catch (SQLException ex)
+			{
+				reusable = false;
+			}
+
+			synchronized (this)
+			{
+				if (reusable && !closed)
+				{
+					idle.addFirst(new IdleConnection(connection, System.currentTimeMillis()));
+					connection = null;
+				}
+			}
+
+			// Close the connection if it couldn't go back in the pool.
+			JdbcWrapper.closeConnection(connection);
+		}
+		finally
+		{
+			synchronized (this)
+			{
+				pending--;
+				notifyAll();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks whether a connection is still alive.
+	 *
+	 * @param connection The connection to check.
+	 * @return True if the connection can be handed out, false otherwise.
+	 */
+	private boolean isUsable(Connection connection)
+	{
+		try
+		{
+			return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+		}
+		catch (SQLException ex)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Closes connections that have been idle for too long, keeping at least the minimum size open.
+	 */
+	public void evictIdleConnections()
+	{
+		List<Connection> expired = new ArrayList<Connection>();
+		long cutoff = System.currentTimeMillis() - idleTimeoutMillis;
+
+		synchronized (this)
+		{
+			// The oldest idle connections are at the end of the deque.
+			while (!idle.isEmpty() && totalSize() > minSize && idle.peekLast().idleSince < cutoff)
+			{
+				expired.add(idle.pollLast().connection);
+			}
+		}
+
+		for (Connection connection : expired)
+		{
+			JdbcWrapper.closeConnection(connection);
+		}
+	}
+
+	/**
+	 * Closes every idle connection and stops handing out new ones.
+	 * Borrowed connections are closed when they are released.
+	 */
+	public void close()
+	{
+		List<Connection> toClose = new ArrayList<Connection>();
+
+		synchronized (this)
+		{
+			if (closed)
+			{
+				return;
+			}
+			closed = true;
+			evictionTask.cancel();
+			for (IdleConnection ic : idle)
+			{
+				toClose.add(ic.connection);
+			}
+			idle.clear();
+			notifyAll();
+		}
+
+		for (Connection connection : toClose)
+		{
+			JdbcWrapper.closeConnection(connection);
+		}
+	}
+
+	/**
+	 * Gets the number of open connections, including ones being opened.  Must be called while holding the lock.
+	 */
+	private int totalSize()
+	{
+		return idle.size() + borrowed.size() + pending;
+	}
+
+	public String getUsername()
+	{
+		return username;
+	}
+
+	/**
+	 * Checks whether the given password is the one this pool connects with.
+	 *
+	 * @param password The password to check.
+	 * @return True if the passwords match, false otherwise.
+	 */
+	public boolean hasPassword(String password)
+	{
+		return this.password == null ? password == null : this.password.equals(password);
+	}
+
+	public synchronized boolean isClosed()
+	{
+		return closed;
+	}
+
+	public synchronized int getIdleCount()
+	{
+		return idle.size();
+	}
+
+	public synchronized int getBorrowedCount()
+	{
+		return borrowed.size();
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return String.format("Connection pool for %s: %d borrowed, %d idle, %d waiting (max %d)",
+				username, borrowed.size(), idle.size(), waiters, maxSize);
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * CsvReader.java
+ *
+ * Streaming reader for comma separated value files.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+// Imports
+import java.io.*;
+import java.util.*;
+
+/**
+ * Reads CSV records one at a time.  Fields may be quoted with double quotes, in which
+ * case they can contain commas, line breaks and doubled quotes.
+ *
+ * @author Austin Cathey
+ */
+public class CsvReader implements Closeable
+{
+	// Where the records come from.
+	private final Reader in;
+
+	// The field being read.
+	private final StringBuilder field = new StringBuilder();
+
+	// A character that was read ahead and still needs processing.
+	private int pushback = -1;
+
+	// The line the current record started on, starting at 1.
+	private int recordLine;
+
+	// The line being read.
+	private int line = 1;
+
+	/**
+	 * Constructor for the CSV reader.
+	 *
+	 * @param in Where to read records from.
+	 */
+	public CsvReader(Reader in)
+	{
+		this.in = (in instanceof BufferedReader) ? in : new BufferedReader(in, 1 << 16);
+	}
+
+	/**
+	 * Reads the next record.  Blank lines are skipped.
+	 *
+	 * @return The record's fields, or null at the end of the input.
+	 */
+	public String[] readRecord() throws IOException
+	{
+		List<String> fields = new ArrayList<String>();
+		boolean quoted = false, sawAnything = false;
+		int c;
+
+		field.setLength(0);
+		recordLine = line;
+		while ((c = read()) >= 0)
+		{
+			if (quoted)
+			{
+				if (c == '"')
+				{
+					if (peek() == '"')
+					{
+						field.append('"');
+						read();
+					}
+					else
+					{
+						quoted = false;
+					}
+				}
+				else
+				{
+					if (c == '\n')
+					{
+						line++;
+					}
+					field.append((char)c);
+				}
+			}
+			else if (c == '"')
+			{
+				quoted = true;
+				sawAnything = true;
+			}
+			else if (c == ',')
+			{
+				fields.add(field.toString());
+				field.setLength(0);
+				sawAnything = true;
+			}
+			else if (c == '\r' || c == '\n')
+			{
+				if (c == '\r' && peek() == '\n')
+				{
+					read();
+				}
+				line++;
+
+				if (sawAnything || field.length() > 0)
+				{
+					fields.add(field.toString());
+					return fields.toArray(new String[fields.size()]);
+				}
+
+				// Skip blank lines.
+				recordLine = line;
+			}
+			else
+			{
+				field.append((char)c);
+				sawAnything = true;
+			}
+		}
+
+		if (sawAnything || field.length() > 0)
+		{
+			fields.add(field.toString());
+			return fields.toArray(new String[fields.size()]);
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the line number the last record started on, starting at 1.
+	 */
+	public int getRecordLine()
+	{
+		return recordLine;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		in.close();
+	}
+
+	private int read() throws IOException
+	{
+		if (pushback >= 0)
+		{
+			int c = pushback;
+			pushback = -1;
+			return c;
+		}
+		return in.read();
+	}
+
+	private int peek() throws IOException
+	{
+		if (pushback < 0)
+		{
+			pushback = in.read();
+		}
+		return pushback;
+	}
+}
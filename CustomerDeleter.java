@@ -0,0 +1,254 @@
+/*
+ * CustomerDeleter.java
+ *
+ * Deletes customers and their sales in small transactions.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+// Imports
+import java.util.*;
+import java.sql.*;
+
+/**
+ * Deletes customers along with their sales, a bounded chunk of customer IDs at a time.
+ * Each chunk is its own transaction, so locks are only held briefly, and the deleter
+ * can pause between chunks to let other work through.  Rows can optionally be copied
+ * to customers_archive and sales_archive before they are deleted.
+ *
+ * @author Austin Cathey
+ */
+public class CustomerDeleter
+{
+	// Default number of customers per chunk.
+	public static final int DEFAULT_CHUNK_SIZE = 500;
+
+	// The connection to delete through.
+	private final Connection connection;
+
+	// The number of customers per chunk.
+	private final int chunkSize;
+
+	// How long to wait between chunks.
+	private final long pauseMillis;
+
+	// True to copy rows to the archive tables first.
+	private final boolean archive;
+
+	// Whether the archive tables are known to exist.
+	private boolean archiveReady;
+
+	// Running totals.
+	private long customersDeleted;
+	private long salesDeleted;
+	private int chunks;
+
+	/**
+	 * Constructor for the customer deleter.
+	 *
+	 * @param connection The DBMS connection.
+	 * @param chunkSize The number of customers per chunk.
+	 * @param pauseMillis How long to wait between chunks.
+	 * @param archive True to copy rows to the archive tables before deleting them.
+	 */
+	public CustomerDeleter(Connection connection, int chunkSize, long pauseMillis, boolean archive)
+	{
+		if (chunkSize < 1)
+		{
+			throw new IllegalArgumentException("The chunk size must be positive.");
+		}
+		this.connection = connection;
+		this.chunkSize = chunkSize;
+		this.pauseMillis = Math.max(0, pauseMillis);
+		this.archive = archive;
+	}
+
+	/**
+	 * Deletes the customers with the given IDs.
+	 *
+	 * @param ids The customer IDs.
+	 */
+	public void deleteByIds(Collection<Integer> ids) throws SQLException
+	{
+		List<Integer> sorted = new ArrayList<Integer>(new TreeSet<Integer>(ids));
+
+		for (int start = 0; start < sorted.size(); start += chunkSize)
+		{
+			if (start > 0)
+			{
+				pause();
+			}
+			deleteChunk(sorted.subList(start, Math.min(sorted.size(), start + chunkSize)));
+		}
+	}
+
+	/**
+	 * Deletes the customers matching a condition, walking them in primary key order.
+	 *
+	 * @param predicate A condition on the customers table, as it would appear after WHERE.
+	 */
+	public void deleteWhere(String predicate) throws SQLException
+	{
+		String query = "SELECT id FROM customers WHERE (" + predicate + ") AND id > ? ORDER BY id LIMIT ?";
+		int lastId = Integer.MIN_VALUE;
+
+		while (true)
+		{
+			List<Integer> ids = new ArrayList<Integer>();
+			PreparedStatement pstmt = null;
+			ResultSet rs = null;
+
+			try
+			{
+				pstmt = connection.prepareStatement(query);
+				pstmt.setInt(1, lastId);
+				pstmt.setInt(2, chunkSize);
+				rs = pstmt.executeQuery();
+				while (rs.next())
+				{
+					ids.add(rs.getInt(1));
+				}
+			}
+			finally
+			{
+				JdbcWrapper.closeResultSet(rs);
+				JdbcWrapper.closeStatement(pstmt);
+			}
+
+			if (ids.isEmpty())
+			{
+				return;
+			}
+			if (chunks > 0)
+			{
+				pause();
+			}
+
+			deleteChunk(ids);
+			lastId = ids.get(ids.size() - 1);
+		}
+	}
+
+	/**
+	 * Deletes one chunk of customers and their sales in a single transaction.
+	 *
+	 * @param ids The customer IDs.
+	 */
+	private void deleteChunk(List<Integer> ids) throws SQLException
+	{
+		String in = placeholders(ids.size());
+		int sales, customers;
+
+		connection.setAutoCommit(false);
+		try
+		{
+			if (archive)
+			{
+				createArchiveTables();
+				execute("INSERT INTO sales_archive SELECT * FROM sales WHERE customer_id IN " + in, ids);
+				execute("INSERT INTO customers_archive SELECT * FROM customers WHERE id IN " + in, ids);
+			}
+
+			sales = execute("DELETE FROM sales WHERE customer_id IN " + in, ids);
+			customers = execute("DELETE FROM customers WHERE id IN " + in, ids);
+			connection.commit();
+		}
+		catch (SQLException ex)
+		{
+			connection.rollback();
+			throw ex;
+		}
+		finally
+		{
+			connection.setAutoCommit(true);
+		}
+
+		chunks++;
+		salesDeleted += sales;
+		customersDeleted += customers;
+		System.out.printf("Chunk %d: %d customers and %d sales deleted (%d customers, %d sales so far).%n",
+				chunks, customers, sales, customersDeleted, salesDeleted);
+	}
+
+	/**
+	 * Makes sure the archive tables exist.
+	 */
+	private void createArchiveTables() throws SQLException
+	{
+		if (archiveReady)
+		{
+			return;
+		}
+
+		Statement statement = null;
+		try
+		{
+			statement = connection.createStatement();
+			statement.executeUpdate("CREATE TABLE IF NOT EXISTS customers_archive LIKE customers");
+			statement.executeUpdate("CREATE TABLE IF NOT EXISTS sales_archive LIKE sales");
+			archiveReady = true;
+		}
+		finally
+		{
+			JdbcWrapper.closeStatement(statement);
+		}
+	}
+
+	/**
+	 * Runs an update with the IDs bound to its placeholders.
+	 *
+	 * @return The number of rows affected.
+	 */
+	private int execute(String sql, List<Integer> ids) throws SQLException
+	{
+		PreparedStatement pstmt = null;
+		try
+		{
+			pstmt = connection.prepareStatement(sql);
+			for (int index = 0; index < ids.size(); index++)
+			{
+				pstmt.setInt(index + 1, ids.get(index));
+			}
+			return pstmt.executeUpdate();
+		}
+		finally
+		{
+			JdbcWrapper.closeStatement(pstmt);
+		}
+	}
+
+	private void pause()
+	{
+		if (pauseMillis > 0)
+		{
+			try
+			{
+				Thread.sleep(pauseMillis);
+			}
+			catch (InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static String placeholders(int count)
+	{
+		StringBuilder sb = new StringBuilder("(");
+		for (int index = 0; index < count; index++)
+		{
+			sb.append(index == 0 ? "?" : ", ?");
+		}
+		return sb.append(")").toString();
+	}
+
+	public long getCustomersDeleted()
+	{
+		return customersDeleted;
+	}
+
+	public long getSalesDeleted()
+	{
+		return salesDeleted;
+	}
+}
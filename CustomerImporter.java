@@ -0,0 +1,289 @@
+/*
+ * CustomerImporter.java
+ *
+ * Imports customers in bulk from a CSV file.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+// Imports
+import java.io.*;
+import java.util.*;
+import java.sql.*;
+
+/**
+ * Imports customers from a CSV file of first_name,last_name,cc_id,address,email,password records.
+ * Every credit card ID is loaded up front, so records with a missing field or an unknown
+ * credit card are rejected without a round trip.  Valid records are inserted in JDBC
+ * batches, which the connection sends as multi-row INSERTs, and committed in chunks.
+ * Rejected records are written to a report of input line number and reason.  A header
+ * record starting with "first_name" is skipped.
+ * <p>
+ * Usage: java CustomerImporter [--batch n] [--chunk rows] [--rejects file] csvfile [username [password]]
+ *
+ * @author Austin Cathey
+ */
+public class CustomerImporter
+{
+	// The default number of customers per batch.
+	public static final int DEFAULT_BATCH_SIZE = 500;
+
+	// The default number of customers per transaction.
+	public static final int DEFAULT_CHUNK_ROWS = 5000;
+
+	// The connection to import through.
+	private final Connection connection;
+
+	// The number of customers per batch.
+	private final int batchSize;
+
+	// The number of customers per transaction.
+	private final int chunkRows;
+
+	// The parameters for the customer being bound, reused for every row.
+	private final ParameterFrame row = new ParameterFrame(6);
+
+	// Every credit card ID in the database.
+	private Set<String> creditCards;
+
+	// Statistics.
+	private long imported;
+	private long rejected;
+	private long nanos;
+
+	/**
+	 * Constructor for the customer importer.
+	 *
+	 * @param connection The DBMS connection.
+	 * @param batchSize The number of customers per batch.
+	 * @param chunkRows The number of customers per transaction.
+	 */
+	public CustomerImporter(Connection connection, int batchSize, int chunkRows)
+	{
+		if (batchSize < 1 || chunkRows < 1)
+		{
+			throw new IllegalArgumentException("The batch and chunk sizes must be positive.");
+		}
+		this.connection = connection;
+		this.batchSize = batchSize;
+		this.chunkRows = chunkRows;
+	}
+
+	/**
+	 * Entry point.
+	 *
+	 * @param args [--batch n] [--chunk rows] [--rejects file] csvfile [username [password]]
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		int batchSize = CustomerImporter.DEFAULT_BATCH_SIZE;
+		int chunkRows = CustomerImporter.DEFAULT_CHUNK_ROWS;
+		String rejectFile = null;
+		List<String> rest = new ArrayList<String>();
+
+		for (int index = 0; index < args.length; index++)
+		{
+			if (args[index].equals("--batch") && index + 1 < args.length)
+			{
+				batchSize = Integer.parseInt(args[++index]);
+			}
+			else if (args[index].equals("--chunk") && index + 1 < args.length)
+			{
+				chunkRows = Integer.parseInt(args[++index]);
+			}
+			else if (args[index].equals("--rejects") && index + 1 < args.length)
+			{
+				rejectFile = args[++index];
+			}
+			else
+			{
+				rest.add(args[index]);
+			}
+		}
+
+		if (rest.isEmpty())
+		{
+			System.out.println("Usage: java CustomerImporter [--batch n] [--chunk rows] [--rejects file] csvfile [username [password]]");
+			return;
+		}
+
+		String csvFile = rest.remove(0);
+		if (rejectFile == null)
+		{
+			rejectFile = csvFile + ".rejects";
+		}
+
+		String[] userPass = JdbcWrapper.getUsernameAndPassword(rest.toArray(new String[rest.size()]));
+		Connection connection = JdbcWrapper.getBatchConnection(userPass[0], userPass[1]);
+		CsvReader in = new CsvReader(new InputStreamReader(new FileInputStream(csvFile), "UTF-8"));
+		PrintWriter rejects = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(rejectFile), "UTF-8")));
+
+		try
+		{
+			CustomerImporter importer = new CustomerImporter(connection, batchSize, chunkRows);
+			importer.importCustomers(in, rejects);
+			importer.printReport(System.out);
+			System.out.println("Wrote rejected records to " + rejectFile);
+		}
+		finally
+		{
+			in.close();
+			rejects.close();
+			JdbcWrapper.closeConnection(connection);
+			JdbcWrapper.closeAllPools();
+		}
+	}
+
+	/**
+	 * Imports every valid customer in a CSV file.
+	 *
+	 * @param in The CSV records.
+	 * @param rejects Where to write "line,reason" for each rejected record.
+	 */
+	public void importCustomers(CsvReader in, PrintWriter rejects) throws SQLException, IOException
+	{
+		PreparedStatement pstmt = null;
+		int pending = 0, uncommitted = 0;
+		boolean first = true;
+		long start = System.nanoTime();
+
+		creditCards = loadCreditCards();
+		connection.setAutoCommit(false);
+		try
+		{
+			pstmt = connection.prepareStatement(DBHandler.SQL_INSERT_CUSTOMER);
+
+			String[] record;
+			while ((record = in.readRecord()) != null)
+			{
+				// Skip a header record.
+				if (first && record[0].trim().equalsIgnoreCase("first_name"))
+				{
+					first = false;
+					continue;
+				}
+				first = false;
+
+				String reason = bindCustomer(pstmt, record);
+				if (reason != null)
+				{
+					rejects.println(in.getRecordLine() + "," + reason);
+					rejected++;
+					continue;
+				}
+
+				pstmt.addBatch();
+				if (++pending == batchSize)
+				{
+					pstmt.executeBatch();
+					uncommitted += pending;
+					pending = 0;
+				}
+				if (uncommitted >= chunkRows)
+				{
+					connection.commit();
+					imported += uncommitted;
+					uncommitted = 0;
+				}
+			}
+
+			if (pending > 0)
+			{
+				pstmt.executeBatch();
+				uncommitted += pending;
+			}
+			connection.commit();
+			imported += uncommitted;
+		}
+		catch (SQLException ex)
+		{
+			connection.rollback();
+			throw ex;
+		}
+		finally
+		{
+			JdbcWrapper.closeStatement(pstmt);
+			connection.setAutoCommit(true);
+			nanos += System.nanoTime() - start;
+		}
+	}
+
+	/**
+	 * Checks one CSV record and binds it to the insert statement.
+	 *
+	 * @return Null if the record is valid, otherwise the reason it was rejected.
+	 */
+	private String bindCustomer(PreparedStatement pstmt, String[] record) throws SQLException
+	{
+		String firstName = field(record, 0);
+		String lastName = field(record, 1);
+		String creditCardId = field(record, 2);
+		String address = field(record, 3);
+		String email = field(record, 4);
+		String password = field(record, 5);
+
+		if (StringUtilities.nullOrEmptyExists(firstName, lastName, creditCardId, address, email, password))
+		{
+			return "missing field";
+		}
+
+		creditCardId = StringUtilities.truncate(creditCardId, 20);
+		if (!creditCards.contains(creditCardId))
+		{
+			return "unknown credit card " + creditCardId;
+		}
+
+		row.clear()
+				.setString(1, StringUtilities.truncate(firstName, 50))
+				.setString(2, StringUtilities.truncate(lastName, 50))
+				.setString(3, creditCardId)
+				.setString(4, StringUtilities.truncate(address, 200))
+				.setString(5, StringUtilities.truncate(email, 50))
+				.setString(6, StringUtilities.truncate(password, 20))
+				.bind(pstmt);
+		return null;
+	}
+
+	/**
+	 * Loads every credit card ID.
+	 */
+	private Set<String> loadCreditCards() throws SQLException
+	{
+		Set<String> ids = new HashSet<String>();
+		Statement statement = null;
+		ResultSet rs = null;
+
+		try
+		{
+			statement = connection.createStatement();
+			rs = statement.executeQuery("SELECT id FROM creditcards");
+			while (rs.next())
+			{
+				ids.add(rs.getString(1));
+			}
+		}
+		finally
+		{
+			JdbcWrapper.closeResultSet(rs);
+			JdbcWrapper.closeStatement(statement);
+		}
+		return ids;
+	}
+
+	/**
+	 * Prints how many customers were imported and rejected, and how fast.
+	 *
+	 * @param out Where to print the report.
+	 */
+	public void printReport(PrintStream out)
+	{
+		double seconds = nanos / 1e9;
+		out.printf("Imported %d customers (%d rejected) in %.3f s, %.0f customers/sec%n",
+				imported, rejected, seconds, seconds == 0 ? 0.0 : imported / seconds);
+	}
+
+	private static String field(String[] record, int index)
+	{
+		return index < record.length ? record[index].trim() : "";
+	}
+}
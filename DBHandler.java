@@ -7,7 +7,9 @@
  */
 
 // Imports
+import java.io.*;
 import java.util.*;
+import java.util.regex.*;
 import java.sql.*;
 
 public class DBHandler implements MenuHandler
@@ -15,18 +17,132 @@ public class DBHandler implements MenuHandler
 	// The connection associated with this handler.
 	private Connection dbConnection;
 	
+	// The number of statements this handler has sent to the DBMS.
+	private int roundTrips;
+	
+	// Prepared statements for this handler's connection.
+	private StatementCache statementCache;
+	
+	// Where reads go when there are read replicas.  The read connection is borrowed on the
+	// first read, and swapped for another when its replica leaves rotation.
+	private RoutingDataSource router;
+	private Connection readConnection;
+	private StatementCache readStatementCache;
+	
+	// The default number of movies and stars to keep in memory.
+	public static final int DEFAULT_ENTITY_CACHE_SIZE = 1000;
+	
+	// Movies and stars that have already been loaded, keyed by ID.
+	private EntityCache<Integer, Movie> movieCache;
+	private EntityCache<Integer, MovieStar> starCache;
+	
+	// Build movies, stars and customers from rows by column position, rather than by label.
+	private final RowMapper<Movie> movieMapper = new RowMapper<Movie>("id", "title", "year", "director", "banner_url", "trailer_url")
+	{
+		@Override
+		public Movie map(ResultSet rs, int[] positions) throws SQLException
+		{
+			return new Movie(rs, positions);
+		}
+	};
+	private final RowMapper<MovieStar> starMapper = new RowMapper<MovieStar>("id", "first_name", "last_name", "dob", "photo_url")
+	{
+		@Override
+		public MovieStar map(ResultSet rs, int[] positions) throws SQLException
+		{
+			return new MovieStar(rs, positions);
+		}
+	};
+	private final RowMapper<Customer> customerMapper = new RowMapper<Customer>("id", "first_name", "last_name", "cc_id", "address", "email", "password")
+	{
+		@Override
+		public Customer map(ResultSet rs, int[] positions) throws SQLException
+		{
+			return new Customer(rs, positions);
+		}
+	};
+	
+	// The statements this handler issues.  IndexAdvisor runs EXPLAIN against the queries.
+	static final String SQL_STAR_IDS_BY_NAME = "SELECT id FROM stars WHERE first_name = ? AND last_name = ?";
+	static final String SQL_STAR_IDS_BY_FIRST_NAME = "SELECT id FROM stars WHERE first_name = ?";
+	static final String SQL_STAR_IDS_BY_LAST_NAME = "SELECT id FROM stars WHERE last_name = ?";
+	static final String SQL_STAR_BY_ID = "SELECT id, first_name, last_name, dob, photo_url FROM stars WHERE id = ?";
+	static final String SQL_STARS_BY_IDS = "SELECT id, first_name, last_name, dob, photo_url FROM stars WHERE id IN ";
+	static final String SQL_MOVIE_BY_ID = "SELECT id, title, year, director, banner_url, trailer_url FROM movies WHERE id = ?";
+	static final String SQL_MOVIES_BY_STAR =
+			"SELECT m.id, m.title, m.year, m.director, m.banner_url, m.trailer_url " +
+			"FROM stars_in_movies sim JOIN movies m ON m.id = sim.movie_id " +
+			"WHERE sim.star_id = ?";
+	static final String SQL_INSERT_STAR = "INSERT INTO stars (id, first_name, last_name, dob, photo_url) VALUES (NULL, ?, ?, ?, ?)";
+	static final String SQL_CUSTOMER_BY_ID = "SELECT id, first_name, last_name, cc_id, address, email, password FROM customers WHERE id = ?";
+	static final String SQL_INSERT_CUSTOMER =
+			"INSERT INTO customers (id, first_name, last_name, cc_id, address, email, password) " +
+			"VALUES (null, ?, ?, ?, ?, ?, ?)";
+	
+	// Time budgets for each kind of statement.
+	static final long LOOKUP_TIMEOUT_MILLIS = 5000;
+	static final long FILMOGRAPHY_TIMEOUT_MILLIS = 10000;
+	static final long INSERT_TIMEOUT_MILLIS = 10000;
+	
+	// The widest a column is printed when showing query results.
+	private static final int MAX_COLUMN_WIDTH = 30;
+	
+	// The maximum number of close matches to offer when a name isn't found.
+	private static final int MAX_NAME_SUGGESTIONS = 20;
+	
+	// In-memory index of star names.  Null until loadStarNameIndex() is called.
+	private StarNameIndex starNameIndex;
+	
+	// Set when a statement may have changed the stars table.  The index is
+	// reloaded the next time it's searched, rather than after every statement.
+	private boolean starNameIndexStale;
+	
+	// Matches a statement that names the stars table, but not stars_in_movies.
+	private static final Pattern STARS_TABLE = Pattern.compile("\\bstars\\b", Pattern.CASE_INSENSITIVE);
+	
+	// Whether a database error the handler can't recover from ends the program, as it
+	// does at the console, or only fails the current call, as it does for QueryServer.
+	private boolean exitOnError = true;
+	
 	/**
 	 * Constructor for database handler.
 	 * 
 	 * @param connection The DBMS connection object for this handler.
 	 */
 	public DBHandler(Connection connection)
+	{
+		this(connection, DBHandler.DEFAULT_ENTITY_CACHE_SIZE);
+	}
+	
+	/**
+	 * Constructor for database handler.
+	 * 
+	 * @param connection The DBMS connection object for this handler.
+	 * @param entityCacheSize The number of movies, and the number of stars, to keep in memory.
+	 */
+	public DBHandler(Connection connection, int entityCacheSize)
+	{
+		this(connection, null, entityCacheSize);
+	}
+	
+	/**
+	 * Constructor for database handler.
+	 * 
+	 * @param connection The DBMS connection object for this handler, which writes go to.
+	 * @param router Where reads go, or null to read from the handler's own connection.
+	 * @param entityCacheSize The number of movies, and the number of stars, to keep in memory.
+	 */
+	public DBHandler(Connection connection, RoutingDataSource router, int entityCacheSize)
 	{
 		if (connection == null)
 		{
 			throw new IllegalArgumentException("DBMS connection reference cannot be null.");
 		}
 		dbConnection = connection;
+		statementCache = new StatementCache(connection, StatementCache.DEFAULT_CAPACITY);
+		this.router = router;
+		movieCache = new EntityCache<Integer, Movie>(entityCacheSize);
+		starCache = new EntityCache<Integer, MovieStar>(entityCacheSize);
 	}
 	
 	/**
@@ -43,6 +159,281 @@ public class DBHandler implements MenuHandler
 		return dbConnection;
 	}
 	
+	/**
+	 * Gets the connection that reads go to.  Without read replicas, that's the handler's own
+	 * connection.  With them, it's a replica's connection, which is handed back and replaced
+	 * once its replica leaves rotation for being down or too far behind.
+	 * 
+	 * @return The connection for reads.
+	 */
+	public Connection getReadConnection() throws SQLException
+	{
+		Connection connection = getConnection();
+		if (router == null || !router.hasReplicas())
+		{
+			return connection;
+		}
+		
+		if (readConnection != null && !router.isCurrent(readConnection))
+		{
+			closeReadConnection();
+		}
+		if (readConnection == null)
+		{
+			readConnection = router.getReadConnection();
+			readStatementCache = new StatementCache(readConnection, StatementCache.DEFAULT_CAPACITY);
+		}
+		return readConnection;
+	}
+	
+	/**
+	 * Hands the read connection back, along with its prepared statements.
+	 */
+	private void closeReadConnection()
+	{
+		if (readConnection != null)
+		{
+			readStatementCache.clear();
+			JdbcWrapper.closeConnection(readConnection);
+			readConnection = null;
+			readStatementCache = null;
+		}
+	}
+	
+	/**
+	 * Takes the read connection's replica out of rotation if a read failed because the
+	 * connection was lost, so that the next read goes to another replica.
+	 * 
+	 * @param ex The exception the read threw.
+	 * @return True if a replica was taken out of rotation, false otherwise.
+	 */
+	private boolean reportReadFailure(SQLException ex)
+	{
+		if (readConnection != null && RoutingDataSource.isConnectionFailure(ex) && router.reportFailure(readConnection, ex))
+		{
+			System.out.println("Lost the connection to a read replica.  The next read will go elsewhere.");
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Gets the number of statements this handler has executed against the DBMS.
+	 * 
+	 * @return The number of round trips made so far.
+	 */
+	public int getRoundTripCount()
+	{
+		return roundTrips;
+	}
+	
+	/**
+	 * Gets the prepared statement cache for this handler's connection.
+	 * 
+	 * @return The statement cache, which reports its hit and miss counts.
+	 */
+	public StatementCache getStatementCache()
+	{
+		return statementCache;
+	}
+	
+	/**
+	 * Gets the cache of movies this handler has loaded.
+	 * 
+	 * @return The movie cache, which reports its hit rate.
+	 */
+	public EntityCache<Integer, ?> getMovieCache()
+	{
+		return movieCache;
+	}
+	
+	/**
+	 * Gets the cache of stars this handler has loaded.
+	 * 
+	 * @return The star cache, which reports its hit rate.
+	 */
+	public EntityCache<Integer, ?> getStarCache()
+	{
+		return starCache;
+	}
+	
+	/**
+	 * Loads the in-memory star name index.  Once it's loaded, a star search with no
+	 * exact matches in the database offers the names that start with what was typed.
+	 * 
+	 * @return True if the index was loaded, false otherwise.
+	 */
+	public boolean loadStarNameIndex()
+	{
+		try
+		{
+			roundTrips++;
+			starNameIndex = StarNameIndex.load(getReadConnection());
+			return true;
+		}
+		catch (SQLException ex)
+		{
+			System.out.println("Could not load the star name index: " + ex.getMessage());
+			starNameIndex = null;
+			return false;
+		}
+	}
+	
+	/**
+	 * Empties the movie and star caches after a statement that may have changed them.
+	 * If the statement names the stars table, the star name index is marked stale too.
+	 * 
+	 * @param sql The statement.
+	 */
+	private void invalidateEntities(String sql)
+	{
+		movieCache.clear();
+		starCache.clear();
+		if (starNameIndex != null && STARS_TABLE.matcher(sql).find())
+		{
+			starNameIndexStale = true;
+		}
+	}
+	
+	/**
+	 * Gets the star name index, reloading it first if a statement has changed the stars table since.
+	 * 
+	 * @return The index, or null if it isn't loaded.
+	 */
+	private StarNameIndex getStarNameIndex()
+	{
+		if (starNameIndexStale && starNameIndex != null)
+		{
+			starNameIndexStale = false;
+			loadStarNameIndex();
+		}
+		return starNameIndex;
+	}
+	
+	/**
+	 * Shares another handler's star name index, so that it's only loaded once and the stars
+	 * either handler adds are suggested by both.  The index is thread safe, but the handlers still aren't.
+	 * 
+	 * @param other The handler whose index to use.
+	 */
+	public void shareStarNameIndex(DBHandler other)
+	{
+		starNameIndex = other.starNameIndex;
+	}
+	
+	/**
+	 * Prepares the statements behind the menu options ahead of time, so that the first
+	 * search or insert doesn't have to.
+	 * 
+	 * @return True if every statement was prepared, false otherwise.
+	 */
+	public boolean warmUpStatements()
+	{
+		String[] reads = {
+			DBHandler.SQL_STAR_IDS_BY_NAME,
+			DBHandler.SQL_STAR_IDS_BY_FIRST_NAME,
+			DBHandler.SQL_STAR_IDS_BY_LAST_NAME,
+			DBHandler.SQL_STAR_BY_ID,
+			DBHandler.SQL_MOVIE_BY_ID,
+			DBHandler.SQL_MOVIES_BY_STAR
+		};
+		String[] inserts = {DBHandler.SQL_INSERT_STAR, DBHandler.SQL_INSERT_CUSTOMER};
+		
+		try
+		{
+			for (String sql : reads)
+			{
+				releaseReadStatement(prepareReadStatement(sql));
+			}
+			for (String sql : inserts)
+			{
+				releaseStatement(prepareStatement(sql, new String[] {"id"}));
+			}
+			return true;
+		}
+		catch (SQLException ex)
+		{
+			System.out.println("Could not prepare statements: " + ex.getMessage());
+			return false;
+		}
+	}
+	
+	/**
+	 * Gets a star by ID, loading it from the database only if it isn't cached.
+	 * 
+	 * @param id The star's ID.
+	 * @return The star, or null if there's no longer a star with that ID or loading it timed out.
+	 */
+	private MovieStar loadMovieStar(int id)
+	{
+		MovieStar star = starCache.get(id);
+		if (star == null)
+		{
+			try
+			{
+				star = starCache.intern(id, new MovieStar(id));
+			}
+			
+			// The star was deleted after its ID was looked up.
+			catch (IllegalArgumentException ex)
+			{
+				return null;
+			}
+			catch (IllegalStateException ex)
+			{
+				System.out.println(ex.getMessage());
+				return null;
+			}
+		}
+		return star;
+	}
+	
+	/**
+	 * Gets a prepared statement that returns generated keys from this handler's statement cache.
+	 * 
+	 * @param sql The SQL text.
+	 * @param keyColumns The generated key columns.
+	 * @return The prepared statement.  Hand it back with releaseStatement() rather than closing it.
+	 */
+	private PreparedStatement prepareStatement(String sql, String[] keyColumns) throws SQLException
+	{
+		// Make sure this handler hasn't been invalidated.
+		getConnection();
+		return statementCache.prepare(sql, keyColumns);
+	}
+	
+	/**
+	 * Hands a prepared statement back to this handler's statement cache.
+	 * 
+	 * @param pstmt The statement to release.  Null is ignored.
+	 */
+	private void releaseStatement(PreparedStatement pstmt)
+	{
+		statementCache.release(pstmt);
+	}
+	
+	/**
+	 * Gets a prepared statement for a read, on the read connection.
+	 * 
+	 * @param sql The SQL text.
+	 * @return The prepared statement.  Hand it back with releaseReadStatement() rather than closing it.
+	 */
+	private PreparedStatement prepareReadStatement(String sql) throws SQLException
+	{
+		getReadConnection();
+		return (readStatementCache != null ? readStatementCache : statementCache).prepare(sql);
+	}
+	
+	/**
+	 * Hands a prepared statement from prepareReadStatement() back.
+	 * 
+	 * @param pstmt The statement to release.  Null is ignored.
+	 */
+	private void releaseReadStatement(PreparedStatement pstmt)
+	{
+		(readStatementCache != null ? readStatementCache : statementCache).release(pstmt);
+	}
+	
 	/**
 	 * Gets the movies featuring a given star.
 	 */
@@ -70,15 +461,36 @@ public class DBHandler implements MenuHandler
 			return;
 		}
 		
+		// If nothing matched exactly, offer names that start with what was typed.
+		StarNameIndex names = ids.isEmpty() ? getStarNameIndex() : null;
+		if (names != null)
+		{
+			ids = names.search(fname, lname, DBHandler.MAX_NAME_SUGGESTIONS);
+			if (!ids.isEmpty())
+			{
+				System.out.println("No exact matches.  Showing stars whose names start with that instead.\n");
+			}
+		}
+		
 		// Leave if there are no records found.
-		else if (ids.isEmpty())
+		if (ids.isEmpty())
 		{
 			System.out.println("No records with that name were found!");
 			return;
 		}
 		
 		MovieStar star = this.getSingleMovieStar(ids);
+		if (star == null)
+		{
+			System.out.println("No records with that name were found!");
+			return;
+		}
 		ArrayList<Movie> movies = star.getMovies();
+		if (movies == null)
+		{
+			System.out.println("Could not load the movies featuring " + star.getNameFirstLast() + ".");
+			return;
+		}
 		
 		String s = "Movies featuring " + star.getNameFirstLast();
 		System.out.println(s);
@@ -103,20 +515,121 @@ public class DBHandler implements MenuHandler
 		
 		else if (ids.size() < 2)
 		{
-			return new MovieStar(ids.get(0));
+			return loadMovieStar(ids.get(0));
+		}
+		
+		// Load every candidate at once, so that we don't have to query for the chosen one again.
+		Map<Integer, MovieStar> stars = getMovieStars(ids);
+		if (stars == null || stars.isEmpty())
+		{
+			return null;
 		}
 		
 		System.out.println("Multiple search results found:\n");
-		for (int id : ids)
+		for (MovieStar star : stars.values())
 		{
-			System.out.println(new MovieStar(id).toShortString());
+			System.out.println(star.toShortString());
 		}
 		System.out.println();
 		
-		String id = Input.getTextOption(false, "Enter the appropriate numeric ID: ", null, ids.toArray());
+		String id = Input.getTextOption(false, "Enter the appropriate numeric ID: ", null, stars.keySet().toArray());
 		System.out.println();
 		
-		return new MovieStar(Integer.parseInt(id));
+		return stars.get(Integer.parseInt(id));
+	}
+	
+	/**
+	 * Loads several stars in a single query.
+	 * 
+	 * @param ids The IDs of the stars to load.
+	 * 
+	 * @return A map from ID to star, in the same order as the IDs that were passed.
+	 *         IDs with no matching star are left out.  Returns null on error.
+	 */
+	private Map<Integer, MovieStar> getMovieStars(List<Integer> ids)
+	{
+		PreparedStatement pstmt = null;
+		ResultSet rs = null;
+		Map<Integer, MovieStar> stars = new LinkedHashMap<Integer, MovieStar>();
+		Map<Integer, MovieStar> found = new HashMap<Integer, MovieStar>();
+		List<Integer> missing = new ArrayList<Integer>();
+		
+		if (ids == null || ids.isEmpty())
+		{
+			return stars;
+		}
+		
+		// Only go to the database for stars that aren't cached.
+		for (int id : ids)
+		{
+			MovieStar star = starCache.get(id);
+			if (star == null)
+			{
+				missing.add(id);
+			}
+			else
+			{
+				found.put(id, star);
+			}
+		}
+		
+		// Build one placeholder per ID.
+		StringBuilder query = new StringBuilder(DBHandler.SQL_STARS_BY_IDS).append("(");
+		for (int index = 0; index < missing.size(); index++)
+		{
+			query.append(index == 0 ? "?" : ", ?");
+		}
+		query.append(")");
+		
+		// The text changes with the number of IDs, so the metrics are kept under one label.
+		TimedStatement timed = new TimedStatement(query.toString(), DBHandler.SQL_STARS_BY_IDS + "(...)");
+		try
+		{
+			if (!missing.isEmpty())
+			{
+				pstmt = prepareReadStatement(query.toString());
+				for (int index = 0; index < missing.size(); index++)
+				{
+					pstmt.setInt(index + 1, missing.get(index));
+				}
+				rs = timed.executeQuery(pstmt, DBHandler.LOOKUP_TIMEOUT_MILLIS);
+				
+				// The DBMS doesn't return the rows in any particular order, so hold on to them by ID first.
+				int rows = 0;
+				int[] columns = starMapper.getPositions(query.toString(), rs);
+				while (rs.next())
+				{
+					MovieStar star = starMapper.map(rs, columns);
+					found.put(star.getId(), starCache.intern(star.getId(), star));
+					rows++;
+				}
+				timed.finish(rows, missing.toArray());
+			}
+			
+			for (int id : ids)
+			{
+				MovieStar star = found.get(id);
+				if (star != null)
+				{
+					stars.put(id, star);
+				}
+			}
+			return stars;
+		}
+		catch (SQLException ex)
+		{
+			System.out.println(timed.isTimeout(ex) ?
+					"Loading the matching stars timed out after " + DBHandler.LOOKUP_TIMEOUT_MILLIS + " ms." :
+					ex.getMessage());
+			reportReadFailure(ex);
+			return null;
+		}
+		finally
+		{
+			timed.disarm();
+			JdbcWrapper.closeResultSet(rs);
+			releaseReadStatement(pstmt);
+		}
 	}
 	
 	/**
@@ -127,106 +640,521 @@ public class DBHandler implements MenuHandler
 	 * 
 	 * @return An ArrayList of Integers consisting of all the IDs associated with it.
 	 */
-	private ArrayList<Integer> getStarIDs(String fname, String lname)
+	private ArrayList<Integer> getStarIDs(String fname, String lname)
+	{
+		PreparedStatement statement = null;
+		ResultSet rs = null;
+		ArrayList<Integer> ids = new ArrayList<Integer>();
+		String query;
+		Object[] parameters;
+		
+		// Return null if there is no first or last name.
+		if (fname.length() < 1 && lname.length() < 1)
+		{
+			return null;
+		}
+		
+		// Both first and last name
+		if (fname.length() > 0 && lname.length() > 0)
+		{
+			query = DBHandler.SQL_STAR_IDS_BY_NAME;
+			parameters = new Object[] {fname, lname};
+		}
+		
+		// First name only
+		else if (fname.length() > 0)
+		{
+			query = DBHandler.SQL_STAR_IDS_BY_FIRST_NAME;
+			parameters = new Object[] {fname};
+		}
+		
+		// Last name only
+		else
+		{
+			query = DBHandler.SQL_STAR_IDS_BY_LAST_NAME;
+			parameters = new Object[] {lname};
+		}
+		
+		// Look for the ID.
+		TimedStatement timed = new TimedStatement(query);
+		try
+		{
+			statement = prepareReadStatement(query);
+			for (int index = 0; index < parameters.length; index++)
+			{
+				statement.setString(index + 1, (String)parameters[index]);
+			}
+			
+			// Execute the query.
+			rs = timed.executeQuery(statement, DBHandler.LOOKUP_TIMEOUT_MILLIS);
+			
+			// Get the IDs and return them.  The queries only select the ID.
+			while (rs.next())
+			{
+				ids.add(rs.getInt(1));
+			}
+			timed.finish(ids.size(), parameters);
+			return ids;
+		}
+		
+		// Bitch and complain if anything went wrong. :D
+		catch (SQLException ex)
+		{
+			System.out.println(timed.isTimeout(ex) ?
+					"The star lookup timed out after " + DBHandler.LOOKUP_TIMEOUT_MILLIS + " ms." :
+					ex.getMessage());
+			reportReadFailure(ex);
+			return null;
+		}
+		
+		// Ensure that we close our Statement object.
+		finally
+		{
+			timed.disarm();
+			JdbcWrapper.closeResultSet(rs);
+			releaseReadStatement(statement);
+		}
+	}
+	
+	private void insertNewStar()
+	{
+		MovieStar star = insertMovieStarFromConsole();
+		
+		if (star != null)
+		{
+			System.out.println(star.getNameFirstLast() + " added successfully:");
+			System.out.println(star);
+		}
+	}
+	
+	private void insertNewCustomer()
+	{
+		Customer cust = insertCustomerFromConsole();
+		
+		if (cust != null)
+		{
+			System.out.println("Customer added successfully.");
+		}
+	}
+	
+	/**
+	 * Deletes customers, and their sales, by ID or by condition.
+	 */
+	private void deleteCustomer()
+	{
+		System.out.println("Enter the customer IDs to delete, separated by commas or spaces,");
+		System.out.println("or a condition on the customers table starting with WHERE.");
+		System.out.println("Leave it blank to cancel.\n");
+		
+		String which = Input.getString("Customers to delete: ").trim();
+		if (which.length() < 1)
+		{
+			System.out.println("Deletion canceled.");
+			return;
+		}
+		
+		// Parse the IDs, unless a condition was given.
+		List<Integer> ids = null;
+		String predicate = null;
+		if (which.regionMatches(true, 0, "WHERE ", 0, 6))
+		{
+			predicate = which.substring(6).trim();
+		}
+		else
+		{
+			ids = new ArrayList<Integer>();
+			try
+			{
+				for (String id : which.split("[,\\s]+"))
+				{
+					if (id.length() > 0)
+					{
+						ids.add(Integer.parseInt(id));
+					}
+				}
+			}
+			catch (NumberFormatException ex)
+			{
+				System.out.println("Invalid customer ID.");
+				return;
+			}
+		}
+		
+		int chunkSize = Input.getInt("Customers per transaction (default: " + CustomerDeleter.DEFAULT_CHUNK_SIZE + "): ", CustomerDeleter.DEFAULT_CHUNK_SIZE);
+		int pauseMillis = Input.getInt("Pause between transactions in ms (default: 0): ", 0);
+		boolean archive = Input.getTextOption(false, "Archive rows before deleting them? (y/n): ", "n", "y", "n").equalsIgnoreCase("y");
+		System.out.println();
+		
+		try
+		{
+			CustomerDeleter deleter = new CustomerDeleter(getConnection(), Math.max(1, chunkSize), pauseMillis, archive);
+			if (ids != null)
+			{
+				deleter.deleteByIds(ids);
+			}
+			else
+			{
+				deleter.deleteWhere(predicate);
+			}
+			System.out.println("Deleted " + deleter.getCustomersDeleted() + " customers and " + deleter.getSalesDeleted() + " sales.");
+		}
+		catch (SQLException ex)
+		{
+			System.out.println(ex.getMessage());
+			System.out.println("The chunk that failed was rolled back.");
+		}
+	}
+	
+	/**
+	 * Shows the tables, columns, keys and indexes of the database, and how long it took to get them.
+	 */
+	private void showMetaData()
+	{
+		MetadataService.Snapshot snapshot;
+		
+		try
+		{
+			snapshot = MetadataService.getShared().getSnapshot(getConnection(), false);
+		}
+		catch (SQLException ex)
+		{
+			System.out.println(ex.getMessage());
+			return;
+		}
+		
+		System.out.println("DBMS: " + snapshot.productName + " v" + snapshot.productVersion);
+		System.out.println();
+		
+		for (MetadataService.Table table : snapshot.tables)
+		{
+			String s = "Table " + table.name;
+			System.out.println(s);
+			System.out.println(StringUtilities.repeat("-", s.length()));
+			
+			for (MetadataService.Column column : table.columns)
+			{
+				System.out.printf("  %-20s %s(%d)%s%s%n", column.name, column.type, column.size,
+						column.nullable ? "" : " NOT NULL",
+						column.autoIncrement ? " AUTO_INCREMENT" : "");
+			}
+			if (!table.primaryKey.isEmpty())
+			{
+				System.out.println("  Primary key: " + table.primaryKey);
+			}
+			for (MetadataService.Index index : table.indexes)
+			{
+				System.out.println("  " + (index.unique ? "Unique index " : "Index ") + index.name + ": " + index.columns);
+			}
+			System.out.println("  (read in " + table.fetchMillis + " ms)");
+			System.out.println();
+		}
+		
+		System.out.println("Metadata for " + snapshot.tables.size() + " tables came from " + snapshot.source + " in " + snapshot.fetchMillis + " ms.");
+	}
+	
+	/**
+	 * Shows the latency percentiles of every statement run so far, along with the
+	 * cache statistics, and optionally writes the statement metrics out as JSON.
+	 */
+	private void showQueryMetrics()
+	{
+		QueryMetrics metrics = QueryMetrics.getShared();
+		
+		metrics.printReport(System.out, DBHandler.MAX_COLUMN_WIDTH);
+		System.out.println();
+		System.out.println("Round trips on this connection: " + getRoundTripCount());
+		System.out.println(statementCache);
+		System.out.println("Movie cache: " + movieCache);
+		System.out.println("Star cache: " + starCache);
+		if (router != null)
+		{
+			System.out.println(router);
+		}
+		System.out.println(SlowQueryLog.getShared());
+		System.out.println();
+		StartupTimeline.getShared().print(System.out);
+		System.out.println();
+		
+		if (metrics.isEmpty())
+		{
+			return;
+		}
+		
+		String fileName = Input.getString("File to write the metrics to as JSON (blank to skip): ").trim();
+		if (fileName.length() > 0)
+		{
+			try
+			{
+				metrics.writeJson(new File(fileName));
+				System.out.println("Metrics written to " + fileName + ".");
+			}
+			catch (IOException ex)
+			{
+				System.out.println("Could not write the metrics: " + ex.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Runs a SQL statement entered by the user.
+	 * Query results are streamed from the DBMS and printed as they arrive, so large
+	 * tables don't have to fit in memory.  Ctrl-C cancels a running statement.
+	 */
+	private void enterValidSQLStatement()
 	{
-		PreparedStatement statement = null;
-		ArrayList<Integer> ids = new ArrayList<Integer>();
+		System.out.println("Enter a SELECT, UPDATE, INSERT or DELETE statement.  Leave it blank to cancel.");
+		System.out.println("Press Ctrl-C to cancel a statement while it's running.\n");
 		
-		// Return null if there is no first or last name.
-		if (fname.length() < 1 && lname.length() < 1)
+		String sql = Input.getString("SQL> ").trim();
+		if (sql.endsWith(";"))
 		{
-			return null;
+			sql = sql.substring(0, sql.length() - 1).trim();
+		}
+		if (sql.length() < 1)
+		{
+			System.out.println("Canceled.");
+			return;
 		}
 		
-		// Look for the ID.
-		try
+		// Queries can be limited to a number of rows.
+		int maxRows = 0;
+		boolean isQuery = DBHandler.isQuery(sql);
+		if (isQuery)
 		{
-			String query;
-			
-			// Both first and last name
-			if (fname.length() > 0 && lname.length() > 0)
+			String limit = Input.getString("Maximum rows to show (leave blank for all): ").trim();
+			try
 			{
-				query = "SELECT id FROM stars WHERE first_name = ? AND last_name = ?";
-				statement = getConnection().prepareStatement(query);				
-				statement.setString(1, fname);
-				statement.setString(2, lname);
+				maxRows = limit.length() > 0 ? Math.max(0, Integer.parseInt(limit)) : 0;
 			}
-			
-			// First name only
-			else if (fname.length() > 0)
+			catch (NumberFormatException ex)
 			{
-				query = "SELECT id FROM stars WHERE first_name = ?";
-				statement = getConnection().prepareStatement(query);
-				statement.setString(1, fname);
+				System.out.println("Invalid number, showing all rows.");
 			}
+		}
+		System.out.println();
+		
+		Statement statement = null;
+		QueryCanceller canceller = null;
+		ResultSet rs = null;
+		long start = System.nanoTime();
+		
+		try
+		{
+			// Forward only, read only, and a fetch size of Integer.MIN_VALUE make the MySQL driver stream rows.
+			statement = getConnection().createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			statement.setFetchSize(Integer.MIN_VALUE);
+			statement.setMaxRows(maxRows);
+			canceller = new QueryCanceller(statement);
 			
-			// Last name only
-			else
+			roundTrips++;
+			if (!statement.execute(sql))
 			{
-				query = "SELECT id FROM stars WHERE last_name = ?";
-				statement = getConnection().prepareStatement(query);
-				statement.setString(1, lname);
+				int count = statement.getUpdateCount();
+				System.out.printf("%d row(s) affected in %.1f ms.%n", count, (System.nanoTime() - start) / 1e6);
+				
+				// We can't tell which movies or stars the statement changed, so forget them all.
+				if (count > 0)
+				{
+					invalidateEntities(sql);
+				}
+				if (SlowQueryLog.isSlow(start))
+				{
+					SlowQueryLog.getShared().log(getConnection(), sql, start, count);
+				}
+				return;
 			}
 			
-			// Execute the query.
-			ResultSet rs = statement.executeQuery();
+			rs = statement.getResultSet();
+			long rows = printResultSet(rs, canceller);
 			
-			// Get the IDs and return them.
-			while (rs.next())
+			if (canceller.isCancelled())
 			{
-				ids.add(rs.getInt("id"));
+				System.out.println("Canceled.");
+			}
+			System.out.printf("%d row(s) in %.1f ms.%n", rows, (System.nanoTime() - start) / 1e6);
+			if (SlowQueryLog.isSlow(start))
+			{
+				SlowQueryLog.getShared().log(getConnection(), sql, start, rows);
 			}
-			return ids;
 		}
-		
-		// Bitch and complain if anything went wrong. :D
 		catch (SQLException ex)
 		{
-			System.out.println(ex.getMessage());
-			return null;
+			if (canceller != null && canceller.isCancelled())
+			{
+				System.out.println("Canceled.");
+			}
+			else
+			{
+				System.out.println(ex.getMessage());
+			}
 		}
-		
-		// Ensure that we close our Statement object.
 		finally
 		{
+			// Closing the canceller puts Ctrl-C back to normal.
+			if (canceller != null)
+			{
+				canceller.close();
+			}
+			JdbcWrapper.closeResultSet(rs);
 			JdbcWrapper.closeStatement(statement);
 		}
 	}
 	
-	private void insertNewStar()
+	/**
+	 * Prints a result set one row at a time, as rows arrive.
+	 * Column widths come from the metadata, so nothing needs to be buffered.
+	 * 
+	 * @param rs The result set.
+	 * @param canceller Stops printing once Ctrl-C has been pressed.
+	 * @return The number of rows printed.
+	 */
+	private long printResultSet(ResultSet rs, QueryCanceller canceller) throws SQLException
 	{
-		MovieStar star = insertMovieStarFromConsole();
+		ResultSetMetaData meta = rs.getMetaData();
+		int columns = meta.getColumnCount();
+		int[] widths = new int[columns];
+		StringBuilder line = new StringBuilder();
 		
-		if (star != null)
+		// Print the header.
+		for (int column = 1; column <= columns; column++)
 		{
-			System.out.println(star.getNameFirstLast() + " added successfully:");
-			System.out.println(star);
+			String label = meta.getColumnLabel(column);
+			widths[column - 1] = Math.max(label.length(), Math.min(DBHandler.MAX_COLUMN_WIDTH, Math.max(4, meta.getColumnDisplaySize(column))));
+			line.append(String.format("%-" + widths[column - 1] + "s ", label));
 		}
-	}
-	
-	private void insertNewCustomer()
-	{
-		Customer cust = insertCustomerFromConsole();
+		System.out.println(line.toString().trim());
+		System.out.println(StringUtilities.repeat("-", line.toString().trim().length()));
 		
-		if (cust != null)
+		// Print each row as soon as it arrives.
+		long rows = 0;
+		while (!canceller.isCancelled() && rs.next())
 		{
-			System.out.println("Customer added successfully.");
+			line.setLength(0);
+			for (int column = 1; column <= columns; column++)
+			{
+				String value = StringUtilities.truncate(String.valueOf(rs.getString(column)), widths[column - 1]);
+				line.append(String.format("%-" + widths[column - 1] + "s ", value));
+			}
+			System.out.println(line.toString().trim());
+			rows++;
 		}
+		System.out.println();
+		return rows;
 	}
 	
-	private void deleteCustomer()
-	{
-		System.out.println("Not yet implemented.");
-	}
-	
-	private void showMetaData()
+	/**
+	 * Checks whether a statement returns rows.
+	 * 
+	 * @param sql The statement.
+	 * @return True if the statement is a query, false otherwise.
+	 */
+	private static boolean isQuery(String sql)
 	{
-		System.out.println("Not yet implemented.");
+		String keyword = sql.split("\\s+", 2)[0].toUpperCase();
+		return keyword.equals("SELECT") || keyword.equals("SHOW") || keyword.equals("DESCRIBE")
+				|| keyword.equals("DESC") || keyword.equals("EXPLAIN") || keyword.startsWith("(");
 	}
 	
-	private void enterValidSQLStatement()
+	/**
+	 * Runs a prepared statement the way every lookup and insert here does: times the
+	 * prepare, execute and mapping steps for the query metrics, arms the watchdog while
+	 * the statement runs, counts the round trip, and writes the statement to the slow
+	 * query log if it ran long.  Create one just before preparing the statement, run the
+	 * statement through it, call finish() once the results are read, and disarm it in a
+	 * finally block.
+	 * 
+	 * @author Austin Cathey
+	 */
+	private class TimedStatement
 	{
-		System.out.println("Not yet implemented.");
+		private final String sql;
+		private final String label;
+		private long start = System.nanoTime();
+		private long executed;
+		private PreparedStatement statement;
+		private QueryMetrics.StatementMetrics stats;
+		private QueryWatchdog.Deadline deadline;
+		
+		/**
+		 * Constructor for a statement whose metrics are kept under its SQL.
+		 * 
+		 * @param sql The statement's SQL.
+		 */
+		public TimedStatement(String sql)
+		{
+			this(sql, sql);
+		}
+		
+		/**
+		 * Constructor for a statement whose text changes from run to run, like one with
+		 * a placeholder for each value in a list.
+		 * 
+		 * @param sql The statement's SQL, for the slow query log.
+		 * @param label What to keep the statement's metrics under.
+		 */
+		public TimedStatement(String sql, String label)
+		{
+			this.sql = sql;
+			this.label = label;
+		}
+		
+		public ResultSet executeQuery(PreparedStatement pstmt, long timeoutMillis) throws SQLException
+		{
+			arm(pstmt, timeoutMillis);
+			ResultSet rs = pstmt.executeQuery();
+			executed();
+			return rs;
+		}
+		
+		public int executeUpdate(PreparedStatement pstmt, long timeoutMillis) throws SQLException
+		{
+			arm(pstmt, timeoutMillis);
+			int rows = pstmt.executeUpdate();
+			executed();
+			return rows;
+		}
+		
+		private void arm(PreparedStatement pstmt, long timeoutMillis) throws SQLException
+		{
+			statement = pstmt;
+			stats = QueryMetrics.getShared().forStatement(label);
+			stats.recordPrepare(System.nanoTime() - start);
+			
+			deadline = QueryWatchdog.arm(pstmt, timeoutMillis);
+			roundTrips++;
+			executed = System.nanoTime();
+		}
+		
+		private void executed()
+		{
+			start = System.nanoTime();
+			stats.recordExecute(start - executed);
+		}
+		
+		/**
+		 * Records the time spent reading the results, and logs the statement if it was slow.
+		 * 
+		 * @param rows The number of rows read or changed.
+		 * @param parameters The statement's parameters, for the slow query log.
+		 */
+		public void finish(long rows, Object... parameters) throws SQLException
+		{
+			stats.recordMapping(System.nanoTime() - start, rows);
+			if (SlowQueryLog.isSlow(executed))
+			{
+				SlowQueryLog.getShared().log(statement.getConnection(), sql, executed, rows, parameters);
+			}
+		}
+		
+		public boolean isTimeout(SQLException ex)
+		{
+			return QueryWatchdog.isTimeout(ex, deadline);
+		}
+		
+		public void disarm()
+		{
+			QueryWatchdog.disarm(deadline);
+		}
 	}
 	
 	private class Movie
@@ -298,34 +1226,77 @@ public class DBHandler implements MenuHandler
 			return sb.toString();
 		}
 		
+		public String toJson()
+		{
+			return "{\"id\":" + getId() +
+					",\"title\":" + DBHandler.quote(getTitle()) +
+					",\"year\":" + getYear() +
+					",\"director\":" + DBHandler.quote(getDirector()) +
+					",\"bannerUrl\":" + DBHandler.quote(getBannerURL()) +
+					",\"trailerUrl\":" + DBHandler.quote(getTrailerURL()) + "}";
+		}
+		
+		/**
+		 * Builds a movie from the current row of a result set.
+		 * 
+		 * @param rs The result set, positioned on the row to read.
+		 * @param columns The column positions, from movieMapper.
+		 */
+		public Movie(ResultSet rs, int[] columns) throws SQLException
+		{
+			read(rs, columns);
+		}
+		
+		/**
+		 * Reads this movie from the current row of a result set.
+		 * 
+		 * @param rs The result set, positioned on the row to read.
+		 * @param columns The positions of id, title, year, director, banner_url and trailer_url.
+		 */
+		private void read(ResultSet rs, int[] columns) throws SQLException
+		{
+			this.id = rs.getInt(columns[0]);
+			this.title = rs.getString(columns[1]);
+			this.year = rs.getInt(columns[2]);
+			this.director = rs.getString(columns[3]);
+			this.bannerURL = rs.getString(columns[4]);
+			this.trailerURL = rs.getString(columns[5]);
+		}
+		
 		public Movie(int movieID)
 		{
 			PreparedStatement pstmt = null;
+			ResultSet rs = null;
 			
-			String query = "SELECT id, title, year, director, banner_url, trailer_url ";
-			query       += "FROM movies WHERE id = ?";
+			String query = DBHandler.SQL_MOVIE_BY_ID;
 			
+			TimedStatement timed = new TimedStatement(query);
 			try
 			{
-				pstmt = getConnection().prepareStatement(query);
+				pstmt = prepareReadStatement(query);
 				pstmt.setInt(1, movieID);
-				
-				ResultSet rs = pstmt.executeQuery();
+				rs = timed.executeQuery(pstmt, DBHandler.LOOKUP_TIMEOUT_MILLIS);
 				
 				if (!rs.next())
 				{
 					throw new IllegalArgumentException("Invalid ID passed.");
 				}
 				
-				this.id = rs.getInt("id");
-				this.title = rs.getString("title");
-				this.year = rs.getInt("year");
-				this.director = rs.getString("director");
-				this.bannerURL = rs.getString("banner_url");
-				this.trailerURL = rs.getString("trailer_url");
+				read(rs, movieMapper.getPositions(query, rs));
+				timed.finish(1, movieID);
 			}
 			catch (SQLException ex)
 			{
+				// Let the caller report a timeout, rather than ending the program.
+				if (timed.isTimeout(ex))
+				{
+					throw new IllegalStateException("Loading movie " + movieID + " timed out after " + DBHandler.LOOKUP_TIMEOUT_MILLIS + " ms.", ex);
+				}
+				else if (reportReadFailure(ex))
+				{
+					throw new IllegalStateException("Loading movie " + movieID + " failed: " + ex.getMessage(), ex);
+				}
+				failIfServing(ex);
 				System.out.println(ex);
 				System.out.println();
 				ex.printStackTrace();
@@ -333,7 +1304,9 @@ public class DBHandler implements MenuHandler
 			}
 			finally
 			{
-				JdbcWrapper.closeStatement(pstmt);
+				timed.disarm();
+				JdbcWrapper.closeResultSet(rs);
+				releaseReadStatement(pstmt);
 			}
 		}
 	}
@@ -420,21 +1393,19 @@ public class DBHandler implements MenuHandler
 				return null;
 			}
 			
-			String insert;
+			String insert = DBHandler.SQL_INSERT_STAR;
 			PreparedStatement pstmt = null;
+			ResultSet generatedKeys = null;
 			
+			TimedStatement timed = new TimedStatement(insert);
 			try
 			{
-				insert  = "INSERT INTO stars (id, first_name, last_name, dob, photo_url) ";
-				insert += "VALUES (NULL, ?, ?, ?, ?)";
-				
-				pstmt = getConnection().prepareStatement(insert, new String[] {"id"});
+				pstmt = prepareStatement(insert, new String[] {"id"});
 				pstmt.setString(1, getFirstName());
 				pstmt.setString(2, getLastName());
-				pstmt.setDate(3, getDOB());
-				pstmt.setString(4, getPhotoURL());
-				
-				int numRows = pstmt.executeUpdate();
+				ParameterBinder.bindDate(pstmt, 3, getDOB());
+				ParameterBinder.bindString(pstmt, 4, getPhotoURL());
+				int numRows = timed.executeUpdate(pstmt, DBHandler.INSERT_TIMEOUT_MILLIS);
 				if (numRows < 1)
 				{
 					return null;
@@ -444,52 +1415,102 @@ public class DBHandler implements MenuHandler
 					throw new SQLException("Too many rows were updated.  This should not happen.");
 				}
 				
-				ResultSet generatedKeys = pstmt.getGeneratedKeys();
+				generatedKeys = pstmt.getGeneratedKeys();
 				if (generatedKeys != null && generatedKeys.next())
 				{
 					this.id = generatedKeys.getInt(1);
+					
+					// Write through, so later lookups see the star we just added.
+					starCache.put(this.id, this);
+					if (starNameIndex != null)
+					{
+						starNameIndex.add(this.id, getFirstName(), getLastName());
+					}
 				}
+				timed.finish(numRows, getFirstName(), getLastName(), getDOB(), getPhotoURL());
 			}
 			
 			catch (SQLException ex)
 			{
+				if (timed.isTimeout(ex))
+				{
+					System.out.println("The insert timed out after " + DBHandler.INSERT_TIMEOUT_MILLIS + " ms; the row may or may not have been added.");
+					return null;
+				}
+				failIfServing(ex);
 				System.out.println(ex);
 				System.exit(1);
 			}
 			
 			finally
 			{
-				JdbcWrapper.closeStatement(pstmt);
+				timed.disarm();
+				JdbcWrapper.closeResultSet(generatedKeys);
+				releaseStatement(pstmt);
 			}
 			
 			return this;
 		}
 		
+		/**
+		 * Builds a star from the current row of a result set.
+		 * 
+		 * @param rs The result set, positioned on the row to read.
+		 * @param columns The column positions, from starMapper.
+		 */
+		public MovieStar(ResultSet rs, int[] columns) throws SQLException
+		{
+			read(rs, columns);
+		}
+		
+		/**
+		 * Reads this star from the current row of a result set.
+		 * 
+		 * @param rs The result set, positioned on the row to read.
+		 * @param columns The positions of id, first_name, last_name, dob and photo_url.
+		 */
+		private void read(ResultSet rs, int[] columns) throws SQLException
+		{
+			this.id = rs.getInt(columns[0]);
+			this.firstName = rs.getString(columns[1]);
+			this.lastName = rs.getString(columns[2]);
+			this.dob = rs.getDate(columns[3]);
+			this.photoURL = rs.getString(columns[4]);
+		}
+		
 		public MovieStar(int id)
 		{
 			PreparedStatement pstmt = null;
-			String query = "SELECT id, first_name, last_name, dob, photo_url FROM stars WHERE id = ?";
+			ResultSet rs = null;
+			String query = DBHandler.SQL_STAR_BY_ID;
 			
+			TimedStatement timed = new TimedStatement(query);
 			try
 			{
-				pstmt = getConnection().prepareStatement(query);
+				pstmt = prepareReadStatement(query);
 				pstmt.setInt(1, id);
-				
-				ResultSet rs = pstmt.executeQuery();
+				rs = timed.executeQuery(pstmt, DBHandler.LOOKUP_TIMEOUT_MILLIS);
 				
 				if (!rs.next())
 				{
 					throw new IllegalArgumentException("Invalid ID passed.");
 				}
 				
-				this.id = rs.getInt("id");
-				this.firstName = rs.getString("first_name");
-				this.lastName = rs.getString("last_name");
-				this.dob = rs.getDate("dob");
-				this.photoURL = rs.getString("photo_url");
+				read(rs, starMapper.getPositions(query, rs));
+				timed.finish(1, id);
 			}
 			catch (SQLException ex)
 			{
+				// Let the caller report a timeout, rather than ending the program.
+				if (timed.isTimeout(ex))
+				{
+					throw new IllegalStateException("Loading star " + id + " timed out after " + DBHandler.LOOKUP_TIMEOUT_MILLIS + " ms.", ex);
+				}
+				else if (reportReadFailure(ex))
+				{
+					throw new IllegalStateException("Loading star " + id + " failed: " + ex.getMessage(), ex);
+				}
+				failIfServing(ex);
 				System.out.println(ex);
 				System.out.println();
 				ex.printStackTrace();
@@ -497,7 +1518,9 @@ public class DBHandler implements MenuHandler
 			}
 			finally
 			{
-				JdbcWrapper.closeStatement(pstmt);
+				timed.disarm();
+				JdbcWrapper.closeResultSet(rs);
+				releaseReadStatement(pstmt);
 			}
 		}
 		
@@ -557,10 +1580,19 @@ public class DBHandler implements MenuHandler
 			return String.format("%10d -> %s", getId(), getNameLastFirst());
 		}
 		
+		/**
+		 * Gets every movie this star appears in.
+		 * The movies are fetched with a single join, so this costs one round trip
+		 * no matter how many movies the star has been in.
+		 * 
+		 * @return The star's movies, or null if the star has no ID or the lookup failed.
+		 *         If the lookup timed out, the movies read before the deadline are returned.
+		 */
 		public ArrayList<Movie> getMovies()
 		{
 			PreparedStatement statementStarsInMovies = null;
-			String queryStarsInMovies;
+			ResultSet rsMovies = null;
+			String queryStarsInMovies = DBHandler.SQL_MOVIES_BY_STAR;
 			
 			ArrayList<Movie> movies = new ArrayList<Movie>();
 			
@@ -569,29 +1601,42 @@ public class DBHandler implements MenuHandler
 				return null;
 			}
 			
+			TimedStatement timed = new TimedStatement(queryStarsInMovies);
 			try
 			{
-				queryStarsInMovies  = "SELECT movie_id FROM stars_in_movies ";
-				queryStarsInMovies += "WHERE star_id = ?";
-				statementStarsInMovies = getConnection().prepareStatement(queryStarsInMovies);
+				statementStarsInMovies = prepareReadStatement(queryStarsInMovies);
 				statementStarsInMovies.setInt(1, getId());
+				rsMovies = timed.executeQuery(statementStarsInMovies, DBHandler.FILMOGRAPHY_TIMEOUT_MILLIS);
 				
-				ResultSet rsMovies = statementStarsInMovies.executeQuery();
-				
+				int[] columns = movieMapper.getPositions(queryStarsInMovies, rsMovies);
 				while (rsMovies.next())
 				{
-					movies.add(new Movie(rsMovies.getInt("movie_id")));
+					Movie movie = movieMapper.map(rsMovies, columns);
+					movies.add(movieCache.intern(movie.getId(), movie));
 				}
+				timed.finish(movies.size(), getId());
 			}
 			
 			catch (SQLException ex)
 			{
-				movies = null;
+				// On a timeout, hand back whatever was read before the deadline.
+				if (timed.isTimeout(ex))
+				{
+					System.out.println("The movie lookup timed out after " + DBHandler.FILMOGRAPHY_TIMEOUT_MILLIS + " ms.");
+					System.out.println("Only the first " + movies.size() + " movies found are shown.\n");
+				}
+				else
+				{
+					reportReadFailure(ex);
+					movies = null;
+				}
 			}
 			
 			finally
 			{
-				JdbcWrapper.closeStatement(statementStarsInMovies);
+				timed.disarm();
+				JdbcWrapper.closeResultSet(rsMovies);
+				releaseReadStatement(statementStarsInMovies);
 			}
 			
 			return movies;
@@ -610,6 +1655,164 @@ public class DBHandler implements MenuHandler
 			
 			return sb.toString();
 		}
+		
+		public String toJson()
+		{
+			return "{\"id\":" + getId() +
+					",\"firstName\":" + DBHandler.quote(getFirstName()) +
+					",\"lastName\":" + DBHandler.quote(getLastName()) +
+					",\"dob\":" + DBHandler.quote(getDOB() == null ? null : getDOB().toString()) +
+					",\"photoUrl\":" + DBHandler.quote(getPhotoURL()) + "}";
+		}
+	}
+	
+	/**
+	 * Sets whether a database error the handler can't recover from ends the program.
+	 * 
+	 * @param exitOnError True to end the program, as the console does, or false to throw
+	 *                    an IllegalStateException from the call instead.
+	 */
+	public void setExitOnError(boolean exitOnError)
+	{
+		this.exitOnError = exitOnError;
+	}
+	
+	/**
+	 * Throws an IllegalStateException for a database error, unless errors end the program.
+	 * 
+	 * @param ex The error.
+	 */
+	private void failIfServing(SQLException ex)
+	{
+		if (!exitOnError)
+		{
+			throw new IllegalStateException(ex.getMessage(), ex);
+		}
+	}
+	
+	/**
+	 * Finds stars by name.  Either name may be blank, but not both.
+	 * 
+	 * @param firstName The first name to match exactly.
+	 * @param lastName The last name to match exactly.
+	 * @return The matching stars, as a JSON array.
+	 * @throws IllegalArgumentException If both names are blank.
+	 * @throws IllegalStateException If the lookup failed.
+	 */
+	public String findStarsAsJson(String firstName, String lastName)
+	{
+		firstName = (firstName == null) ? "" : firstName.trim();
+		lastName = (lastName == null) ? "" : lastName.trim();
+		if (firstName.length() < 1 && lastName.length() < 1)
+		{
+			throw new IllegalArgumentException("A first or last name is required.");
+		}
+		
+		ArrayList<Integer> ids = getStarIDs(firstName, lastName);
+		Map<Integer, MovieStar> stars = (ids == null) ? null : getMovieStars(ids);
+		if (stars == null)
+		{
+			throw new IllegalStateException("The star lookup failed.");
+		}
+		
+		StringBuilder json = new StringBuilder("[");
+		for (MovieStar star : stars.values())
+		{
+			json.append(json.length() > 1 ? "," : "").append(star.toJson());
+		}
+		return json.append("]").toString();
+	}
+	
+	/**
+	 * Gets a star and the movies they've been in.
+	 * 
+	 * @param starId The star's ID.
+	 * @return A JSON object with the star and a "movies" array, or null if there's no such
+	 *         star or loading it timed out.
+	 * @throws IllegalStateException If the movie lookup failed.
+	 */
+	public String getFilmographyAsJson(int starId)
+	{
+		MovieStar star = loadMovieStar(starId);
+		if (star == null)
+		{
+			return null;
+		}
+		
+		ArrayList<Movie> movies = star.getMovies();
+		if (movies == null)
+		{
+			throw new IllegalStateException("Loading the movies for star " + starId + " failed.");
+		}
+		
+		StringBuilder json = new StringBuilder();
+		json.append("{\"star\":").append(star.toJson()).append(",\"movies\":[");
+		for (int index = 0; index < movies.size(); index++)
+		{
+			json.append(index > 0 ? "," : "").append(movies.get(index).toJson());
+		}
+		return json.append("]}").toString();
+	}
+	
+	/**
+	 * Adds a star.
+	 * 
+	 * @param firstName The star's first name.
+	 * @param lastName The star's last name.
+	 * @param dob The star's date of birth, or null.
+	 * @param photoURL The star's photo URL, or null.
+	 * @return The new star, with their ID, as JSON.
+	 * @throws IllegalArgumentException If both names are blank.
+	 * @throws IllegalStateException If the star couldn't be added.
+	 */
+	public String insertStarAsJson(String firstName, String lastName, java.sql.Date dob, String photoURL)
+	{
+		firstName = (firstName == null) ? "" : firstName;
+		lastName = (lastName == null) ? "" : lastName;
+		if (firstName.length() < 1 && lastName.length() < 1)
+		{
+			throw new IllegalArgumentException("A first or last name is required.");
+		}
+		
+		MovieStar star = new MovieStar(firstName, lastName, dob, photoURL == null ? "" : photoURL).insertIntoStarsDatabase();
+		if (star == null)
+		{
+			throw new IllegalStateException("The star may not have been added.");
+		}
+		return star.toJson();
+	}
+	
+	/**
+	 * Adds a customer.  Every field is required, as it is at the console.
+	 * 
+	 * @return The new customer, with their ID, as JSON.
+	 * @throws IllegalArgumentException If a field is blank.
+	 * @throws IllegalStateException If the customer couldn't be added.
+	 */
+	public String insertCustomerAsJson(String firstName, String lastName, String address, String email, String password, String creditCardId)
+	{
+		if (StringUtilities.nullOrEmptyExists(firstName, lastName, address, email, password, creditCardId))
+		{
+			throw new IllegalArgumentException("Every customer field is required.");
+		}
+		
+		Customer customer = new Customer(firstName, lastName, address, email, password, creditCardId).insertIntoCustomersDatabase();
+		if (customer == null)
+		{
+			throw new IllegalStateException("The customer may not have been added.");
+		}
+		return customer.toJson();
+	}
+	
+	/**
+	 * Quotes a string for JSON.
+	 * 
+	 * @param s The string, or null.
+	 * @return The quoted string, or null as a JSON literal.
+	 */
+	private static String quote(String s)
+	{
+		return (s == null) ? "null" : QueryMetrics.quote(s);
 	}
 	
 	/**
@@ -617,6 +1820,10 @@ public class DBHandler implements MenuHandler
 	 */
 	public void kill()
 	{
+		closeReadConnection();
+		statementCache.clear();
+		movieCache.clear();
+		starCache.clear();
 		JdbcWrapper.closeConnection(dbConnection);
 		dbConnection = null;
 	}
@@ -671,6 +1878,12 @@ public class DBHandler implements MenuHandler
 			enterValidSQLStatement();
 		}
 		
+		// Show how long each statement has been taking.
+		else if (choice == Project1.MENU_SHOW_QUERY_METRICS)
+		{
+			showQueryMetrics();
+		}
+		
 		// Otherwise, this is a terminal option.
 		else
 		{
@@ -759,6 +1972,7 @@ public class DBHandler implements MenuHandler
 				throw new IllegalArgumentException("All fields are required.");
 			}
 			
+			this.id = -1;
 			this.firstName = StringUtilities.truncate(firstName, 50);
 			this.lastName = StringUtilities.truncate(lastName, 50);
 			this.address = StringUtilities.truncate(address, 200);
@@ -788,6 +2002,18 @@ public class DBHandler implements MenuHandler
 
 			return sb.toString();
 		}
+		
+		/**
+		 * Gets the customer as JSON.  The password and credit card number are left out.
+		 */
+		public String toJson()
+		{
+			return "{\"id\":" + getId() +
+					",\"firstName\":" + DBHandler.quote(getFirstName()) +
+					",\"lastName\":" + DBHandler.quote(getLastName()) +
+					",\"address\":" + DBHandler.quote(getAddress()) +
+					",\"email\":" + DBHandler.quote(getEmail()) + "}";
+		}
 
 		public String getCreditCardId()
 		{
@@ -824,34 +2050,68 @@ public class DBHandler implements MenuHandler
 			return password;
 		}
 
+		/**
+		 * Builds a customer from the current row of a result set.
+		 * 
+		 * @param rs The result set, positioned on the row to read.
+		 * @param columns The column positions, from customerMapper.
+		 */
+		public Customer(ResultSet rs, int[] columns) throws SQLException
+		{
+			read(rs, columns);
+		}
+		
+		/**
+		 * Reads this customer from the current row of a result set.
+		 * 
+		 * @param rs The result set, positioned on the row to read.
+		 * @param columns The positions of id, first_name, last_name, cc_id, address, email and password.
+		 */
+		private void read(ResultSet rs, int[] columns) throws SQLException
+		{
+			this.id = rs.getInt(columns[0]);
+			this.firstName = rs.getString(columns[1]);
+			this.lastName = rs.getString(columns[2]);
+			this.creditCardId = rs.getString(columns[3]);
+			this.address = rs.getString(columns[4]);
+			this.email = rs.getString(columns[5]);
+			this.password = rs.getString(columns[6]);
+		}
+		
 		public Customer(int customerID)
 		{
 			PreparedStatement pstmt = null;
+			ResultSet rs = null;
 			String query;
-			query  = "SELECT id, first_name, last_name, cc_id, address, email, password ";
-			query += "FROM customers WHERE id = ?";
+			query = DBHandler.SQL_CUSTOMER_BY_ID;
 			
+			TimedStatement timed = new TimedStatement(query);
 			try
 			{
-				pstmt = getConnection().prepareStatement(query);
+				pstmt = prepareReadStatement(query);
 				pstmt.setInt(1, customerID);
-				ResultSet rs = pstmt.executeQuery();
+				rs = timed.executeQuery(pstmt, DBHandler.LOOKUP_TIMEOUT_MILLIS);
 				
 				if (!rs.next())
 				{
 					throw new IllegalArgumentException("Invalid ID passed.");
 				}
 				
-				this.id = rs.getInt("id");
-				this.firstName = rs.getString("first_name");
-				this.lastName = rs.getString("last_name");
-				this.creditCardId = rs.getString("cc_id");
-				this.address = rs.getString("address");
-				this.email = rs.getString("email");
-				this.password = rs.getString("password");
+				read(rs, customerMapper.getPositions(query, rs));
+				timed.finish(1, customerID);
 			}
 			catch (SQLException ex)
 			{
+				// Let the caller report a timeout, rather than ending the program.
+				if (timed.isTimeout(ex))
+				{
+					throw new IllegalStateException("Loading customer " + customerID + " timed out after " + DBHandler.LOOKUP_TIMEOUT_MILLIS + " ms.", ex);
+				}
+				else if (reportReadFailure(ex))
+				{
+					throw new IllegalStateException("Loading customer " + customerID + " failed: " + ex.getMessage(), ex);
+				}
+				failIfServing(ex);
 				System.out.println(ex);
 				System.out.println();
 				ex.printStackTrace();
@@ -859,7 +2119,9 @@ public class DBHandler implements MenuHandler
 			}
 			finally
 			{
-				JdbcWrapper.closeStatement(pstmt);
+				timed.disarm();
+				JdbcWrapper.closeResultSet(rs);
+				releaseReadStatement(pstmt);
 			}
 		}
 		
@@ -871,25 +2133,21 @@ public class DBHandler implements MenuHandler
 				return null;
 			}
 			
-			String insert;
+			String insert = DBHandler.SQL_INSERT_CUSTOMER;
 			PreparedStatement pstmt = null;
+			ResultSet generatedKeys = null;
 			
+			TimedStatement timed = new TimedStatement(insert);
 			try
 			{
-				insert  = "INSERT INTO customers ";
-				insert += "(id, first_name, last_name, cc_id, address, email, password) ";
-				insert += "VALUES ";
-				insert += "(null, ?, ?, ?, ?, ?, ?)";
-				
-				pstmt = getConnection().prepareStatement(insert, new String[] {"id"});
+				pstmt = prepareStatement(insert, new String[] {"id"});
 				pstmt.setString(1, getFirstName());
 				pstmt.setString(2, getLastName());
 				pstmt.setString(3, getCreditCardId());
 				pstmt.setString(4, getAddress());
 				pstmt.setString(5, getEmail());
 				pstmt.setString(6, getPassword());
-				
-				int numRows = pstmt.executeUpdate();
+				int numRows = timed.executeUpdate(pstmt, DBHandler.INSERT_TIMEOUT_MILLIS);
 				if (numRows < 1)
 				{
 					System.out.println("Could not add to database.");
@@ -901,53 +2159,36 @@ public class DBHandler implements MenuHandler
 					throw new SQLException("Too many rows were updated.  This should not happen.");
 				}
 				
-				ResultSet generatedKeys = pstmt.getGeneratedKeys();
+				generatedKeys = pstmt.getGeneratedKeys();
 				if (generatedKeys != null && generatedKeys.next())
 				{
 					this.id = generatedKeys.getInt(1);
 				}
+				
+				// Keep the credit card and password out of the log.
+				timed.finish(numRows, getFirstName(), getLastName(), "****", getAddress(), getEmail(), "****");
 			}
 			
 			catch (SQLException ex)
 			{
+				if (timed.isTimeout(ex))
+				{
+					System.out.println("The insert timed out after " + DBHandler.INSERT_TIMEOUT_MILLIS + " ms; the row may or may not have been added.");
+					return null;
+				}
+				failIfServing(ex);
 				System.out.println(ex);
 				System.exit(1);
 			}
 			
 			finally
 			{
-				JdbcWrapper.closeStatement(pstmt);
+				timed.disarm();
+				JdbcWrapper.closeResultSet(generatedKeys);
+				releaseStatement(pstmt);
 			}
 			
 			return this;
 		}
 	}
-
-	private void _deleteCustomer()
-	{
-		PreparedStatement pstmt = null;
-		String query = "DELETE id, first_name, last_name, address, email, password ";
-		query += "FROM customers WHERE id = ?";
-		try
-		{
-			pstmt = getConnection().prepareStatement(query);
-			// pstmt.setInt(1, customerID);
-			ResultSet rs = pstmt.executeQuery();
-			if (!rs.next())
-			{
-				throw new IllegalArgumentException("Invalid ID passed.");
-			}
-		}
-		catch (SQLException ex)
-		{
-			System.out.println(ex);
-			System.out.println();
-			ex.printStackTrace();
-			System.exit(1);
-		}
-		finally
-		{
-			JdbcWrapper.closeStatement(pstmt);
-		}
-	}
 }
\ No newline at end of file
@@ -0,0 +1,104 @@
+/*
+ * DeferredHandler.java
+ *
+ * A menu handler whose database handler is still being set up.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+// Imports
+import java.util.concurrent.*;
+
+/**
+ * Builds a DBHandler on a background thread, so the menu can be shown while the
+ * program is still connecting.  Choosing a menu option waits for the handler to be
+ * ready and then passes the option on to it.
+ *
+ * @author Austin Cathey
+ */
+public class DeferredHandler implements MenuHandler
+{
+	// Builds the handler.
+	private final FutureTask<DBHandler> task;
+
+	// Whether the connection has been announced to the user yet.
+	private boolean announced;
+
+	/**
+	 * Constructor for a deferred handler.  Starts building the handler right away.
+	 *
+	 * @param startup Connects and returns the handler.
+	 */
+	public DeferredHandler(Callable<DBHandler> startup)
+	{
+		task = new FutureTask<DBHandler>(startup);
+
+		Thread thread = new Thread(task, "Project1-startup");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Gets the handler, waiting for it if it isn't ready.
+	 *
+	 * @return The handler.
+	 * @throws IllegalStateException If the handler couldn't be built.
+	 */
+	public DBHandler get()
+	{
+		boolean interrupted = false;
+		try
+		{
+			while (true)
+			{
+				try
+				{
+					return task.get();
+				}
+				catch (InterruptedException ex)
+				{
+					interrupted = true;
+				}
+				catch (ExecutionException ex)
+				{
+					throw new IllegalStateException("Could not connect to the DBMS: " + ex.getCause(), ex.getCause());
+				}
+			}
+		}
+		finally
+		{
+			if (interrupted)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Checks whether the handler is ready, without waiting.
+	 */
+	public boolean isReady()
+	{
+		return task.isDone();
+	}
+
+	/**
+	 * Required by the MenuHandler interface.
+	 */
+	public boolean executeOption(int option)
+	{
+		if (!task.isDone())
+		{
+			System.out.println("Still connecting to the DBMS...");
+		}
+
+		// Say where we're connected the first time the handler is used, as the eager startup does.
+		DBHandler handler = get();
+		if (!announced)
+		{
+			announced = true;
+			Project1.printConnectionInfo(handler);
+		}
+		return handler.executeOption(option);
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * EntityCache.java
+ *
+ * Bounded identity map for entities loaded from the database.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+// Imports
+import java.util.*;
+
+/**
+ * A least recently used identity map.  Each key maps to at most one entity instance,
+ * and the least recently used entity is dropped once the size cap is reached.
+ * Lookups are counted so the hit rate can be reported.
+ *
+ * @author Austin Cathey
+ */
+public class EntityCache<K, V>
+{
+	// The maximum number of entities to hold on to.
+	private final int capacity;
+
+	// The cached entities, in least recently used order.
+	private final LinkedHashMap<K, V> entries;
+
+	// Hit and miss counters.
+	private long hits;
+	private long misses;
+
+	/**
+	 * Constructor for the entity cache.
+	 *
+	 * @param capacity The maximum number of entities to hold on to.  Zero disables caching.
+	 */
+	public EntityCache(int capacity)
+	{
+		if (capacity < 0)
+		{
+			throw new IllegalArgumentException("The cache capacity cannot be negative.");
+		}
+
+		this.capacity = capacity;
+		this.entries = new LinkedHashMap<K, V>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest)
+			{
+				return size() > EntityCache.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * Looks up an entity, counting the lookup as a hit or a miss.
+	 *
+	 * @param key The entity's key.
+	 * @return The cached entity, or null if it isn't cached.
+	 */
+	public synchronized V get(K key)
+	{
+		V value = entries.get(key);
+		if (value == null)
+		{
+			misses++;
+		}
+		else
+		{
+			hits++;
+		}
+		return value;
+	}
+
+	/**
+	 * Stores an entity, replacing any entity already cached under the same key.
+	 * Use this after writing the entity to the database.
+	 *
+	 * @param key The entity's key.
+	 * @param value The entity.
+	 */
+	public synchronized void put(K key, V value)
+	{
+		if (capacity > 0)
+		{
+			entries.put(key, value);
+		}
+	}
+
+	/**
+	 * Gets the cached instance for a key, storing the given entity if there isn't one yet.
+	 * Lookups made this way aren't counted in the hit rate.
+	 *
+	 * @param key The entity's key.
+	 * @param value The freshly loaded entity.
+	 * @return The canonical instance for the key.
+	 */
+	public synchronized V intern(K key, V value)
+	{
+		V existing = entries.get(key);
+		if (existing != null)
+		{
+			return existing;
+		}
+		put(key, value);
+		return value;
+	}
+
+	/**
+	 * Drops an entity from the cache.
+	 *
+	 * @param key The entity's key.
+	 */
+	public synchronized void remove(K key)
+	{
+		entries.remove(key);
+	}
+
+	/**
+	 * Drops every entity from the cache.
+	 */
+	public synchronized void clear()
+	{
+		entries.clear();
+	}
+
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+
+	/**
+	 * Gets the fraction of counted lookups that were hits.
+	 *
+	 * @return The hit rate, between 0 and 1.  Zero if there haven't been any lookups.
+	 */
+	public synchronized double getHitRate()
+	{
+		long total = hits + misses;
+		return total == 0 ? 0.0 : (double)hits / total;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return String.format("%d/%d entities, %d hits, %d misses (%.1f%% hit rate)",
+				size(), getCapacity(), hits, misses, getHitRate() * 100);
+	}
+}
@@ -0,0 +1,399 @@
+/*
+ * IndexAdvisor.java
+ *
+ * Diagnostic tool that EXPLAINs the queries DBHandler issues and recommends indexes.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+// Imports
+import java.io.*;
+import java.util.*;
+import java.sql.*;
+
+/**
+ * Runs EXPLAIN on every query DBHandler issues, flags the ones that scan a whole
+ * table, and writes a migration script that creates the indexes they need.
+ * Columns that reference another table but have no index are recommended too.
+ * <p>
+ * Usage: java IndexAdvisor [--apply] [--out file] [username [password]]
+ * <p>
+ * With --apply the indexes are created right away, and the queries are explained
+ * again so the estimated rows examined can be compared before and after.
+ *
+ * @author Austin Cathey
+ */
+public class IndexAdvisor
+{
+	// Where the migration script goes unless told otherwise.
+	public static final String DEFAULT_SCRIPT_FILE = "createindexes_14.sql";
+
+	// Columns that reference another table, as declared in createtable_14.sql.
+	private static final Index[] REFERENCE_INDEXES = {
+		new Index("stars_in_movies", "idx_stars_in_movies_star", "star_id", "movie_id"),
+		new Index("stars_in_movies", "idx_stars_in_movies_movie", "movie_id"),
+		new Index("genres_in_movies", "idx_genres_in_movies_genre", "genre_id"),
+		new Index("genres_in_movies", "idx_genres_in_movies_movie", "movie_id"),
+		new Index("customers", "idx_customers_cc", "cc_id"),
+		new Index("sales", "idx_sales_customer", "customer_id"),
+		new Index("sales", "idx_sales_movie", "movie_id"),
+	};
+
+	// The connection to advise on.
+	private final Connection connection;
+
+	// The queries to explain.
+	private final List<AdvisedQuery> queries = new ArrayList<AdvisedQuery>();
+
+	/**
+	 * An index that may be recommended.
+	 */
+	private static class Index
+	{
+		final String table;
+		final String name;
+		final String[] columns;
+
+		Index(String table, String name, String... columns)
+		{
+			this.table = table;
+			this.name = name;
+			this.columns = columns;
+		}
+
+		String toSQL()
+		{
+			return String.format("CREATE INDEX %s ON %s (%s);", name, table, String.join(", ", columns));
+		}
+	}
+
+	/**
+	 * A query DBHandler issues, with sample parameters and the indexes that would help it.
+	 */
+	private static class AdvisedQuery
+	{
+		final String name;
+		final String sql;
+		final Object[] parameters;
+
+		// Index candidates, keyed by the table name or alias that EXPLAIN reports.
+		final Map<String, Index> candidates = new HashMap<String, Index>();
+
+		// Estimated rows examined, before and after applying the indexes.
+		long rowsBefore = -1;
+		long rowsAfter = -1;
+
+		AdvisedQuery(String name, String sql, Object... parameters)
+		{
+			this.name = name;
+			this.sql = sql;
+			this.parameters = parameters;
+		}
+
+		AdvisedQuery candidate(String tableOrAlias, Index index)
+		{
+			candidates.put(tableOrAlias, index);
+			return this;
+		}
+	}
+
+	/**
+	 * The result of explaining one query.
+	 */
+	private static class Explanation
+	{
+		long rowsExamined;
+		final List<String> fullScans = new ArrayList<String>();
+	}
+
+	/**
+	 * Constructor for the index advisor.
+	 *
+	 * @param connection The DBMS connection.
+	 */
+	public IndexAdvisor(Connection connection) throws SQLException
+	{
+		this.connection = connection;
+
+		// Use real values as sample parameters, so the plans reflect actual data.
+		String[] name = sampleRow("SELECT first_name, last_name FROM stars WHERE first_name <> '' LIMIT 1", "", "");
+		int starId = Integer.parseInt(sampleRow("SELECT star_id FROM stars_in_movies LIMIT 1", "0")[0]);
+		int movieId = Integer.parseInt(sampleRow("SELECT id FROM movies LIMIT 1", "0")[0]);
+		int customerId = Integer.parseInt(sampleRow("SELECT id FROM customers LIMIT 1", "0")[0]);
+
+		Index starsByName = new Index("stars", "idx_stars_name", "last_name", "first_name");
+		Index starsByFirstName = new Index("stars", "idx_stars_first_name", "first_name");
+		Index starsInMoviesByStar = REFERENCE_INDEXES[0];
+
+		queries.add(new AdvisedQuery("star IDs by name", DBHandler.SQL_STAR_IDS_BY_NAME, name[0], name[1])
+				.candidate("stars", starsByName));
+		queries.add(new AdvisedQuery("star IDs by first name", DBHandler.SQL_STAR_IDS_BY_FIRST_NAME, name[0])
+				.candidate("stars", starsByFirstName));
+		queries.add(new AdvisedQuery("star IDs by last name", DBHandler.SQL_STAR_IDS_BY_LAST_NAME, name[1])
+				.candidate("stars", starsByName));
+		queries.add(new AdvisedQuery("star by ID", DBHandler.SQL_STAR_BY_ID, starId));
+		queries.add(new AdvisedQuery("stars by IDs", DBHandler.SQL_STARS_BY_IDS + "(?, ?)", starId, starId + 1));
+		queries.add(new AdvisedQuery("movie by ID", DBHandler.SQL_MOVIE_BY_ID, movieId));
+		queries.add(new AdvisedQuery("movies by star", DBHandler.SQL_MOVIES_BY_STAR, starId)
+				.candidate("sim", starsInMoviesByStar));
+		queries.add(new AdvisedQuery("customer by ID", DBHandler.SQL_CUSTOMER_BY_ID, customerId));
+	}
+
+	/**
+	 * Entry point.
+	 *
+	 * @param args [--apply] [--out file] [username [password]]
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		boolean apply = false;
+		String scriptFile = IndexAdvisor.DEFAULT_SCRIPT_FILE;
+		List<String> rest = new ArrayList<String>();
+
+		for (int index = 0; index < args.length; index++)
+		{
+			if (args[index].equals("--apply"))
+			{
+				apply = true;
+			}
+			else if (args[index].equals("--out") && index + 1 < args.length)
+			{
+				scriptFile = args[++index];
+			}
+			else
+			{
+				rest.add(args[index]);
+			}
+		}
+
+		String[] userPass = JdbcWrapper.getUsernameAndPassword(rest.toArray(new String[rest.size()]));
+		Connection connection = JdbcWrapper.getConnection(userPass[0], userPass[1]);
+
+		try
+		{
+			new IndexAdvisor(connection).run(scriptFile, apply);
+		}
+		finally
+		{
+			JdbcWrapper.closeConnection(connection);
+			JdbcWrapper.closeAllPools();
+		}
+	}
+
+	/**
+	 * Explains every query, writes the migration script, and optionally applies it.
+	 *
+	 * @param scriptFile Where to write the migration script.
+	 * @param apply True to create the indexes and explain the queries again.
+	 */
+	public void run(String scriptFile, boolean apply) throws SQLException, IOException
+	{
+		Map<String, Index> recommended = new LinkedHashMap<String, Index>();
+
+		// Explain each query and collect indexes for the tables it scans.
+		System.out.println("Explaining DBHandler queries:\n");
+		for (AdvisedQuery query : queries)
+		{
+			Explanation explanation = explain(query);
+			query.rowsBefore = explanation.rowsExamined;
+
+			System.out.printf("%-24s %10d rows%s%n", query.name, explanation.rowsExamined,
+					explanation.fullScans.isEmpty() ? "" : "  FULL SCAN: " + String.join(", ", explanation.fullScans));
+
+			for (String table : explanation.fullScans)
+			{
+				Index index = query.candidates.get(table);
+				if (index != null && !isIndexed(index))
+				{
+					recommended.put(index.name, index);
+				}
+			}
+		}
+		System.out.println();
+
+		// Reference columns with no index make joins and cascading deletes scan too.
+		for (Index index : REFERENCE_INDEXES)
+		{
+			if (!isIndexed(index))
+			{
+				System.out.printf("Unindexed reference column: %s.%s%n", index.table, index.columns[0]);
+				recommended.put(index.name, index);
+			}
+		}
+
+		if (recommended.isEmpty())
+		{
+			System.out.println("No indexes to recommend.");
+			return;
+		}
+
+		writeScript(scriptFile, recommended.values());
+		System.out.println();
+		System.out.println("Wrote " + recommended.size() + " recommended indexes to " + scriptFile);
+
+		if (apply)
+		{
+			applyIndexes(recommended.values());
+		}
+	}
+
+	/**
+	 * Creates the recommended indexes and shows rows examined before and after.
+	 *
+	 * @param indexes The indexes to create.
+	 */
+	private void applyIndexes(Collection<Index> indexes) throws SQLException
+	{
+		Statement statement = null;
+
+		try
+		{
+			statement = connection.createStatement();
+			for (Index index : indexes)
+			{
+				System.out.println(index.toSQL());
+				statement.executeUpdate(index.toSQL().replace(";", ""));
+			}
+		}
+		finally
+		{
+			JdbcWrapper.closeStatement(statement);
+		}
+
+		System.out.println();
+		System.out.printf("%-24s %12s %12s%n", "Query", "Rows before", "Rows after");
+		for (AdvisedQuery query : queries)
+		{
+			query.rowsAfter = explain(query).rowsExamined;
+			System.out.printf("%-24s %12d %12d%n", query.name, query.rowsBefore, query.rowsAfter);
+		}
+	}
+
+	/**
+	 * Runs EXPLAIN on a query.
+	 *
+	 * @param query The query to explain.
+	 * @return The estimated rows examined, and the tables that are scanned in full.
+	 */
+	private Explanation explain(AdvisedQuery query) throws SQLException
+	{
+		Explanation explanation = new Explanation();
+		PreparedStatement pstmt = null;
+		ResultSet rs = null;
+
+		try
+		{
+			pstmt = connection.prepareStatement("EXPLAIN " + query.sql);
+			for (int index = 0; index < query.parameters.length; index++)
+			{
+				ParameterBinder.bindObject(pstmt, index + 1, query.parameters[index]);
+			}
+
+			rs = pstmt.executeQuery();
+			while (rs.next())
+			{
+				explanation.rowsExamined += rs.getLong("rows");
+				if ("ALL".equalsIgnoreCase(rs.getString("type")))
+				{
+					explanation.fullScans.add(rs.getString("table"));
+				}
+			}
+		}
+		finally
+		{
+			JdbcWrapper.closeResultSet(rs);
+			JdbcWrapper.closeStatement(pstmt);
+		}
+
+		return explanation;
+	}
+
+	/**
+	 * Checks whether a table already has an index whose leading column is the index's leading column.
+	 *
+	 * @param index The index to check for.
+	 * @return True if an equivalent index exists, false otherwise.
+	 */
+	private boolean isIndexed(Index index) throws SQLException
+	{
+		ResultSet rs = null;
+
+		try
+		{
+			rs = connection.getMetaData().getIndexInfo(connection.getCatalog(), null, index.table, false, true);
+			while (rs.next())
+			{
+				if (rs.getShort("ORDINAL_POSITION") == 1 && index.columns[0].equalsIgnoreCase(rs.getString("COLUMN_NAME")))
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+		finally
+		{
+			JdbcWrapper.closeResultSet(rs);
+		}
+	}
+
+	/**
+	 * Writes the migration script.
+	 *
+	 * @param fileName The script file.
+	 * @param indexes The indexes to create.
+	 */
+	private void writeScript(String fileName, Collection<Index> indexes) throws IOException
+	{
+		PrintWriter out = new PrintWriter(new FileWriter(fileName));
+
+		try
+		{
+			out.println("-- Indexes recommended by IndexAdvisor");
+			out.println("USE " + JdbcWrapper.DATABASE_NAME + ";");
+			out.println();
+			for (Index index : indexes)
+			{
+				out.println(index.toSQL());
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads the first row of a query as strings.
+	 *
+	 * @param sql The query.
+	 * @param defaults The values to use if the query returns no rows.
+	 * @return The row's values.
+	 */
+	private String[] sampleRow(String sql, String... defaults) throws SQLException
+	{
+		Statement statement = null;
+		ResultSet rs = null;
+
+		try
+		{
+			statement = connection.createStatement();
+			rs = statement.executeQuery(sql);
+			if (!rs.next())
+			{
+				return defaults;
+			}
+
+			String[] row = new String[defaults.length];
+			for (int index = 0; index < row.length; index++)
+			{
+				row[index] = rs.getString(index + 1);
+			}
+			return row;
+		}
+		finally
+		{
+			JdbcWrapper.closeResultSet(rs);
+			JdbcWrapper.closeStatement(statement);
+		}
+	}
+}
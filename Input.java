@@ -26,6 +26,112 @@ public class Input
 	// Create a bogus NumberFormatException.
 	private static final NumberFormatException dummyNumberFormatException = new NumberFormatException();
 	
+	// Standard input, for when there's no console, like when input is piped in.
+	private static BufferedReader stdin;
+	
+	// Answers to give instead of prompting, while a script is running.  Null when prompting.
+	private static Deque<String> scriptedAnswers;
+	
+	// Whether the input has ended.  Prompting again won't get anything more.
+	private static boolean endOfInput;
+	
+	/**
+	 * Answers the next prompts from a list instead of from the user.  Each prompt takes
+	 * the next answer and echoes it after the prompt.  Once the answers run out, prompts
+	 * throw an IllegalStateException rather than waiting for input that isn't coming.
+	 * 
+	 * @param answers The answers, in order, or null to go back to prompting the user.
+	 */
+	public static void setScriptedAnswers(List<String> answers)
+	{
+		scriptedAnswers = (answers == null) ? null : new ArrayDeque<String>(answers);
+	}
+	
+	/**
+	 * Gets the number of scripted answers that haven't been used.
+	 * 
+	 * @return The number of answers left, or zero if no script is running.
+	 */
+	public static int getScriptedAnswersLeft()
+	{
+		return scriptedAnswers == null ? 0 : scriptedAnswers.size();
+	}
+	
+	/**
+	 * Tells whether the input has ended, like when input piped in runs out or the
+	 * user types the end-of-file key.  Prompts get nothing but blank answers after that.
+	 * 
+	 * @return True if a prompt has reached the end of the input.
+	 */
+	public static boolean isEndOfInput()
+	{
+		return endOfInput;
+	}
+	
+	/**
+	 * Gets the reader that prompts use for standard input when there's no console.
+	 * Anything else that reads standard input has to read it through this reader too:
+	 * a second reader would read ahead and take lines meant for the prompts, or the
+	 * other way around.
+	 * 
+	 * @return The shared reader.
+	 */
+	public static synchronized BufferedReader getStandardInput()
+	{
+		if (stdin == null)
+		{
+			stdin = new BufferedReader(new InputStreamReader(System.in));
+		}
+		return stdin;
+	}
+	
+	/**
+	 * Reads a line of input for a prompt that has already been displayed.
+	 * 
+	 * @param echo Whether to show a scripted answer.  Passwords aren't shown.
+	 * @return The line, or null at the end of the input.
+	 */
+	private static String readLine(boolean echo)
+	{
+		// Take the next answer from the script, if there is one.
+		if (scriptedAnswers != null)
+		{
+			String answer = scriptedAnswers.pollFirst();
+			if (answer == null)
+			{
+				System.out.println();
+				throw new IllegalStateException("The script ran out of answers for this command.");
+			}
+			System.out.println(echo ? answer : "");
+			return answer;
+		}
+		
+		String line;
+		if (console != null)
+		{
+			line = console.readLine();
+		}
+		
+		// There's no console, so read standard input directly.
+		else
+		{
+			try
+			{
+				line = Input.getStandardInput().readLine();
+			}
+			catch (IOException ex)
+			{
+				line = null;
+			}
+		}
+		
+		if (line == null)
+		{
+			endOfInput = true;
+		}
+		return line;
+	}
+	
 	/**
 	 * Gets a string from the console.
 	 * 
@@ -40,7 +146,7 @@ public class Input
 		System.out.print(prompt);
 		
 		// Get the text entered by the user.
-		String text = console.readLine();
+		String text = Input.readLine(true);
 		
 		// If there is a default string, and the user typed nothing,
 		if ( (text == null || text.length() < 1) && theDefault != null )
@@ -66,6 +172,36 @@ public class Input
 		return Input.getString(prompt, null);
 	}
 	
+	/**
+	 * Gets an integer from the console, asking again until a valid one is entered.
+	 * 
+	 * @param prompt The prompt to be displayed to the user.
+	 * @param theDefault The value to use if nothing was entered.
+	 * @return The integer that was entered.
+	 */
+	public static int getInt(String prompt, int theDefault)
+	{
+		while (true)
+		{
+			String text = Input.getString(prompt).trim();
+			
+			// Use the default if nothing was typed.
+			if (text.length() < 1)
+			{
+				return theDefault;
+			}
+			
+			try
+			{
+				return Integer.parseInt(text);
+			}
+			catch (NumberFormatException ex)
+			{
+				System.out.println("Please enter a whole number.");
+			}
+		}
+	}
+	
 	/**
 	 * Gets a password from the user.
 	 * 
@@ -74,6 +210,14 @@ public class Input
 	 */
 	public static String getPassword(String prompt)
 	{
+		// Without a console or with a script, the password can't be masked.
+		if (console == null || scriptedAnswers != null)
+		{
+			System.out.print(prompt);
+			String password = Input.readLine(false);
+			return password != null ? password : "";
+		}
+		
 		// Convert the user's password to a string.
 		return new String(
 				
@@ -91,6 +235,7 @@ public class Input
 	 * @param options The options that the user gets to pick from.
 	 * 
 	 * @return The option that was selected.
+	 * @throws IllegalStateException If the input ends before a valid option is entered.
 	 */
 	public static String getTextOption(boolean caseSensitive, String prompt, String theDefault, Object... options)
 	{
@@ -131,6 +276,13 @@ public class Input
 								userOption.equalsIgnoreCase(s);	// Case insensitive
 					}
 					
+					// There's no point asking again if the input has ended.
+					if (!done && Input.isEndOfInput())
+					{
+						System.out.println();
+						throw new IllegalStateException("The input ended before an option was chosen.");
+					}
+					
 					// Notify the user that their choice was invalid if we aren't done,
 					// since that's the only reason why we'd even still be in here.
 					if (!done)
@@ -162,6 +314,8 @@ public class Input
 	 * @return The absolute value of the return value will equal the option that the
 	 *         user has selected.  If the return value is negative, it is supposed to mean
 	 *         that a "terminal" option was selected.  Zero is returned on error.
+	 *         Once the input has ended, the last option is selected, so it should be
+	 *         the one that quits.
 	 */
 	public static int getMenuOption(MenuHandler mh, String prompt, int theDefault, String... optionStrings)
 	{
@@ -201,6 +355,13 @@ public class Input
 			// Prompt the user for input.
 			String option = Input.getString(prompt, defaultString);
 			
+			// Nobody is left to pick an option, so pick the last one, which quits.
+			if (Input.isEndOfInput() && option.length() < 1)
+			{
+				System.out.println("End of input.");
+				option = String.valueOf(optionStrings.length);
+			}
+			
 			// Process the option.
 			try
 			{
@@ -232,9 +393,23 @@ public class Input
 		// Execute the choice if a MenuHandler was passed.
 		if (mh != null)
 		{
-			if (!mh.executeOption(choice))
+			try
 			{
-				choice = -choice;
+				if (!mh.executeOption(choice))
+				{
+					choice = -choice;
+				}
+			}
+			
+			// The input ended partway through the option.  The next time the
+			// menu comes up, it will pick the last option.
+			catch (IllegalStateException ex)
+			{
+				if (!Input.isEndOfInput())
+				{
+					throw ex;
+				}
+				System.out.println(ex.getMessage());
 			}
 		}
 		
@@ -1,8 +1,10 @@
 import java.sql.*;
+import java.util.*;
 
 /**
  * Wrapper class to handle JDBC interaction.
- * The DBMS driver is registered in this class' static initializer.
+ * The DBMS driver is registered the first time a connection pool is made,
+ * or earlier if registerDriver() is called, rather than when this class is loaded.
  * 
  * @author Austin Cathey
  */
@@ -17,56 +19,76 @@ public class JdbcWrapper
 	// The database URL.
 	public static final String DATABASE_URL = "jdbc:mysql://localhost/" + DATABASE_NAME;
 	
+	// The database URL for bulk loads.  The driver sends each JDBC batch of inserts as
+	// multi-row INSERT statements instead of one round trip per row.
+	public static final String BATCH_DATABASE_URL = DATABASE_URL + "?rewriteBatchedStatements=true";
+	
+	// Connection pools, keyed by username.
+	private static final Map<String, ConnectionPool> pools = new HashMap<String, ConnectionPool>();
+	
+	// The pool that each borrowed connection came from.
+	private static final Map<Connection, ConnectionPool> owners = new IdentityHashMap<Connection, ConnectionPool>();
+	
+	// Read/write routing, keyed by username.
+	private static final Map<String, RoutingDataSource> routers = new HashMap<String, RoutingDataSource>();
+	
+	// Whether the database driver has been registered.
+	private static volatile boolean driverRegistered;
+	
 	/**
-	 * Sets a primitive item or a string in a prepared statement without worrying about exceptions.
+	 * Sets a parameter in a prepared statement without worrying about exceptions.
+	 * 
+	 * @deprecated Use the typed methods in ParameterBinder, or a ParameterFrame for
+	 *             whole rows.  They don't box primitives, and they report errors.
 	 * 
 	 * @param pstmt The PreparedStatement object
-	 * @param parameterIndex
-	 * @param x
-	 * @return True if adding the string succeeded, false otherwise.
+	 * @param parameterIndex The parameter's index, starting at 1.
+	 * @param x The value.  Null is bound as NULL.
+	 * @return True if setting the parameter succeeded, false otherwise.
 	 */
+	@Deprecated
 	public static boolean setBasicItem(PreparedStatement pstmt, int parameterIndex, Object x)
 	{
 		try
 		{
-			if (x == null)
-			{
-				throw new NullPointerException("Cannot pass a null object.");
-			}
-			else if (x instanceof Character)
-			{
-				return setBasicItem(pstmt, parameterIndex, String.valueOf(x));
-			}
-			else if (x instanceof Integer)
-			{
-				pstmt.setInt(parameterIndex, (int)x);
-			}
-			else if (x instanceof Long)
-			{
-				pstmt.setLong(parameterIndex, (long)x);
-			}
-			else if (x instanceof Float)
-			{
-				pstmt.setFloat(parameterIndex, (float)x);
-			}
-			else if (x instanceof Double)
-			{
-				pstmt.setDouble(parameterIndex, (double)x);
-			}
-			else if (x instanceof String)
-			{
-				pstmt.setString(parameterIndex, String.valueOf(x));
-			}
+			ParameterBinder.bindObject(pstmt, parameterIndex, x);
 			return true;
 		}
-		catch (NullPointerException ex)
+		catch (SQLException ex)
 		{
-			throw ex;
+			return false;
 		}
-		catch (Exception ex)
+	}
+	
+	/**
+	 * Registers the database driver, if it hasn't been already.  Loading the driver
+	 * takes a while, so Project1 calls this on a background thread at startup.
+	 * Exits the program if the driver isn't on the class path.
+	 */
+	public static void registerDriver()
+	{
+		if (driverRegistered)
 		{
+			return;
+		}
+		
+		synchronized (JdbcWrapper.class)
+		{
+			if (!driverRegistered)
+			{
+				try
+				{
+					Class.forName(JdbcWrapper.DATABASE_DRIVER);
+					driverRegistered = true;
+				}
+				catch (ClassNotFoundException ex)
+				{
+					System.out.println("Could not register the MySQL database driver.");
+					System.out.println("Maybe it wasn't part of the CLASSPATH?");
+					System.exit(1);
+				}
+			}
 		}
-		return false;
 	}
 	
 	/**
@@ -105,6 +127,8 @@ public class JdbcWrapper
 	
 	/**
 	 * Establishes the connection between our application and the DBMS.
+	 * Connections come from a pool kept for each user, so reconnecting
+	 * as a user we've already seen doesn't open a new connection.
 	 */
 	public static Connection getConnection(String username, String password)
 	{
@@ -113,7 +137,7 @@ public class JdbcWrapper
 		// Attempt to make the connection.
 		try
 		{
-			con = DriverManager.getConnection(JdbcWrapper.DATABASE_URL, username, password);
+			con = JdbcWrapper.borrowConnection(JdbcWrapper.getPool(username, password));
 		}
 		
 		// We got here if there was any error.
@@ -128,13 +152,177 @@ public class JdbcWrapper
 		return con;
 	}
 	
+	/**
+	 * Opens a connection for bulk loads, on which the driver rewrites batched inserts.
+	 * It isn't pooled, so that the menu's connections keep the usual settings.
+	 * Close it with closeConnection() when the load is done.
+	 */
+	public static Connection getBatchConnection(String username, String password)
+	{
+		Connection con = null;
+		
+		JdbcWrapper.registerDriver();
+		try
+		{
+			con = DriverManager.getConnection(JdbcWrapper.BATCH_DATABASE_URL, username, password);
+		}
+		catch (SQLException ex)
+		{
+			System.out.println(ex.getMessage());
+			System.exit(1);
+		}
+		
+		return con;
+	}
+	
+	/**
+	 * Borrows a connection from a pool, remembering where it came from so that
+	 * closeConnection() hands it back.
+	 * 
+	 * @param pool The pool to borrow from.
+	 * @return A connection from the pool.
+	 */
+	public static Connection borrowConnection(ConnectionPool pool) throws SQLException
+	{
+		Connection con = pool.borrow();
+		synchronized (owners)
+		{
+			owners.put(con, pool);
+		}
+		return con;
+	}
+	
+	/**
+	 * Gets the read/write routing for a user, creating it if needed.  The replicas
+	 * come from the project1.replica.urls system property; without it, reads and
+	 * writes both go to DATABASE_URL.
+	 * 
+	 * @param username The DBMS username.
+	 * @param password The DBMS password.
+	 * @return The user's routing data source.
+	 */
+	public static RoutingDataSource getRoutingDataSource(String username, String password)
+	{
+		ConnectionPool primary = JdbcWrapper.getPool(username, password);
+		
+		synchronized (routers)
+		{
+			RoutingDataSource router = routers.get(username);
+			
+			// Start over if the primary pool was replaced, say because the password changed.
+			if (router != null && (router.isClosed() || router.getPrimary() != primary))
+			{
+				router.close();
+				router = null;
+			}
+			
+			if (router == null)
+			{
+				router = RoutingDataSource.fromSystemProperties(primary, username, password);
+				routers.put(username, router);
+			}
+			return router;
+		}
+	}
+	
+	/**
+	 * Gets the connection pool for a user, creating it if needed.
+	 * If the user's password has changed, the old pool is closed and a new one is made,
+	 * so that the DBMS checks the new password.
+	 * 
+	 * @param username The DBMS username.
+	 * @param password The DBMS password.
+	 * @return The user's connection pool.
+	 */
+	public static ConnectionPool getPool(String username, String password)
+	{
+		JdbcWrapper.registerDriver();
+		
+		synchronized (pools)
+		{
+			ConnectionPool pool = pools.get(username);
+			
+			if (pool != null && (pool.isClosed() || !pool.hasPassword(password)))
+			{
+				pool.close();
+				pool = null;
+			}
+			
+			if (pool == null)
+			{
+				pool = new ConnectionPool(JdbcWrapper.DATABASE_URL, username, password,
+						ConnectionPool.DEFAULT_MIN_SIZE,
+						ConnectionPool.DEFAULT_MAX_SIZE,
+						ConnectionPool.DEFAULT_MAX_WAITERS,
+						ConnectionPool.DEFAULT_IDLE_TIMEOUT_MILLIS,
+						ConnectionPool.DEFAULT_BORROW_TIMEOUT_MILLIS);
+				pools.put(username, pool);
+			}
+			return pool;
+		}
+	}
+	
+	/**
+	 * Gets the pool a connection was borrowed from.
+	 * 
+	 * @param connection A connection from getConnection().
+	 * @return The connection's pool, or null if it isn't pooled or has been closed.
+	 */
+	public static ConnectionPool getOwningPool(Connection connection)
+	{
+		synchronized (owners)
+		{
+			return owners.get(connection);
+		}
+	}
+	
+	/**
+	 * Closes every connection pool.  Call this before the program exits.
+	 */
+	public static void closeAllPools()
+	{
+		// Let the slow query log finish its EXPLAINs while the pools are still open.
+		SlowQueryLog.getShared().close(5000);
+		
+		synchronized (routers)
+		{
+			for (RoutingDataSource router : routers.values())
+			{
+				router.close();
+			}
+			routers.clear();
+		}
+		
+		synchronized (pools)
+		{
+			for (ConnectionPool pool : pools.values())
+			{
+				pool.close();
+			}
+			pools.clear();
+		}
+	}
+	
 	/**
 	 * Closes a DBMS connection.
+	 * Pooled connections are handed back to their pool instead of being closed.
 	 * 
 	 * @param connection The connection to close.
 	 */
 	public static void closeConnection(Connection connection)
 	{
+		ConnectionPool pool;
+		synchronized (owners)
+		{
+			pool = owners.remove(connection);
+		}
+		
+		// Give the connection back to its pool if it has one.
+		if (pool != null && pool.release(connection))
+		{
+			return;
+		}
+		
 		// Attempt to close the connection, only if a valid reference was passed.
 		try
 		{
@@ -167,18 +355,24 @@ public class JdbcWrapper
 		}
 	}
 	
-	// Static initializer to register database driver.
-	static
+	/**
+	 * Closes a result set.
+	 * 
+	 * @param rs The result set to close.
+	 */
+	public static void closeResultSet(ResultSet rs)
 	{
+		// Attempt to close the result set, only if a valid reference was passed.
 		try
 		{
-			Class.forName(JdbcWrapper.DATABASE_DRIVER);
+			if (rs != null)
+			{
+				rs.close();
+			}
 		}
-		catch (ClassNotFoundException ex)
+		catch (SQLException ex)
 		{
-			System.out.println("Could not register the MySQL database driver.");
-			System.out.println("Maybe it wasn't part of the CLASSPATH?");
-			System.exit(1);
+			System.out.println("Error closing ResultSet object.");
 		}
-	}	
+	}
 }
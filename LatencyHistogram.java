@@ -0,0 +1,161 @@
+/*
+ * LatencyHistogram.java
+ *
+ * Lock-free histogram of latencies with bounded relative error.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+// Imports
+import java.util.concurrent.atomic.*;
+
+/**
+ * A histogram of latencies in nanoseconds, laid out like an HDR histogram.  Values
+ * below 64 get a bucket each; above that, every power of two is split into 32 linear
+ * sub-buckets, so a recorded value is off by at most about 3%.  Recording is one
+ * array increment plus a few counters, with no locks, so it can sit on the hot path
+ * of every statement.
+ *
+ * @author Austin Cathey
+ */
+public class LatencyHistogram
+{
+	// Each power of two is split into 2^SUB_BUCKET_BITS sub-buckets.
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	// Enough buckets to cover every non-negative long.
+	private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+	// The number of values recorded in each bucket.
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+	// Summary counters.
+	private final LongAdder count = new LongAdder();
+	private final LongAdder total = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records one latency.
+	 *
+	 * @param nanos The latency in nanoseconds.  Negative values are recorded as zero.
+	 */
+	public void record(long nanos)
+	{
+		if (nanos < 0)
+		{
+			nanos = 0;
+		}
+
+		buckets.incrementAndGet(bucketIndex(nanos));
+		count.increment();
+		total.add(nanos);
+
+		// Only loop if this looks like a new maximum.
+		long currentMax = max.get();
+		while (nanos > currentMax && !max.compareAndSet(currentMax, nanos))
+		{
+			currentMax = max.get();
+		}
+	}
+
+	/**
+	 * Gets the value at the given percentile.
+	 *
+	 * @param percentile The percentile, from 0 to 100.
+	 * @return The highest value that falls in the same bucket as the percentile,
+	 *         in nanoseconds, or 0 if nothing has been recorded.
+	 */
+	public long getValueAtPercentile(double percentile)
+	{
+		// Take a copy of the buckets, since other threads may be recording.
+		long[] counts = new long[BUCKET_COUNT];
+		long recorded = 0;
+		for (int index = 0; index < BUCKET_COUNT; index++)
+		{
+			counts[index] = buckets.get(index);
+			recorded += counts[index];
+		}
+		if (recorded == 0)
+		{
+			return 0;
+		}
+
+		// Find the bucket containing the requested rank.
+		double fraction = Math.min(100.0, Math.max(0.0, percentile)) / 100.0;
+		long rank = Math.max(1, (long)Math.ceil(fraction * recorded));
+		long seen = 0;
+		for (int index = 0; index < BUCKET_COUNT; index++)
+		{
+			seen += counts[index];
+			if (seen >= rank)
+			{
+				return Math.min(highestValueInBucket(index), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * Gets the bucket that a value is counted in.
+	 *
+	 * @param value The value, which must not be negative.
+	 * @return The bucket index.
+	 */
+	static int bucketIndex(long value)
+	{
+		if (value < 2 * SUB_BUCKET_COUNT)
+		{
+			return (int)value;
+		}
+
+		// Keep the top SUB_BUCKET_BITS + 1 bits of the value.
+		int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+		return shift * SUB_BUCKET_COUNT + (int)(value >>> shift);
+	}
+
+	/**
+	 * Gets the highest value that is counted in a bucket.
+	 *
+	 * @param index The bucket index.
+	 * @return The highest value in the bucket.
+	 */
+	static long highestValueInBucket(int index)
+	{
+		if (index < 2 * SUB_BUCKET_COUNT)
+		{
+			return index;
+		}
+
+		int shift = index / SUB_BUCKET_COUNT - 1;
+		long subBucket = index - shift * SUB_BUCKET_COUNT;
+		long highest = ((subBucket + 1) << shift) - 1;
+		return highest < 0 ? Long.MAX_VALUE : highest;
+	}
+
+	public long getCount()
+	{
+		return count.sum();
+	}
+
+	public long getTotal()
+	{
+		return total.sum();
+	}
+
+	public long getMax()
+	{
+		return max.get();
+	}
+
+	/**
+	 * Gets the mean latency.
+	 *
+	 * @return The mean in nanoseconds, or 0 if nothing has been recorded.
+	 */
+	public double getMean()
+	{
+		long n = getCount();
+		return n == 0 ? 0.0 : (double)getTotal() / n;
+	}
+}
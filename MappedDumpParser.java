@@ -0,0 +1,858 @@
+/*
+ * MappedDumpParser.java
+ *
+ * Memory-mapped parser for large SQL dump files.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+// Imports
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.sql.*;
+
+/**
+ * Parses SQL dumps in the data.sql format straight out of a memory-mapped file.
+ * Each row of an INSERT ... VALUES statement is handed to a RowSink as a DumpRow,
+ * whose fields are read through primitive getters and CharSequence views over the
+ * mapped bytes, so no String is built for each field.
+ * <p>
+ * Files larger than the mapping window are mapped one window at a time.  A statement
+ * has to fit in a single window, and the window grows if one doesn't.
+ *
+ * @author Austin Cathey
+ */
+public class MappedDumpParser
+{
+	// Default size of each mapped region.
+	public static final int DEFAULT_WINDOW_BYTES = 256 << 20;
+
+	// The dump file.
+	private final File file;
+
+	// The size of each mapped region.
+	private final int windowBytes;
+
+	/**
+	 * Receives what the parser finds.  Views passed to the sink are only valid until it returns.
+	 */
+	public interface RowSink
+	{
+		/**
+		 * Called for each row of an INSERT ... VALUES statement.
+		 *
+		 * @param row The row.
+		 */
+		public void row(DumpRow row) throws SQLException;
+
+		/**
+		 * Called for each statement that isn't an INSERT ... VALUES statement.
+		 *
+		 * @param sql The statement, without its semicolon.
+		 */
+		public void statement(CharSequence sql) throws SQLException;
+	}
+
+	/**
+	 * A character view over a range of the mapped bytes.
+	 * Plain ASCII ranges are read in place.  Anything else is decoded once into a
+	 * reusable character buffer.
+	 */
+	public static final class ByteSlice implements CharSequence
+	{
+		private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+		private ByteBuffer buffer;
+		private int start;
+		private int end;
+
+		// Decoded characters, used when the bytes can't be read in place.
+		private boolean decoded;
+		private char[] chars = new char[64];
+		private int charCount;
+		private byte[] scratch = new byte[64];
+
+		/**
+		 * Points the view at a range of bytes.
+		 *
+		 * @param buffer The mapped bytes.
+		 * @param start The first byte.
+		 * @param end One past the last byte.
+		 * @param plain True if the range is ASCII with no escapes.
+		 * @param quote The quote character whose escapes should be undone, or zero to leave the bytes as they are.
+		 */
+		void set(ByteBuffer buffer, int start, int end, boolean plain, byte quote)
+		{
+			this.buffer = buffer;
+			this.start = start;
+			this.end = end;
+			this.decoded = !plain;
+			if (decoded)
+			{
+				decode(quote);
+			}
+		}
+
+		private void decode(byte quote)
+		{
+			// Copy the bytes, undoing escapes if asked to.
+			int length = 0;
+			if (scratch.length < end - start)
+			{
+				scratch = new byte[Math.max(end - start, scratch.length * 2)];
+			}
+			for (int index = start; index < end; index++)
+			{
+				byte b = buffer.get(index);
+				if (quote != 0 && b == '\\' && index + 1 < end)
+				{
+					b = unescapeByte(buffer.get(++index));
+				}
+				else if (quote != 0 && b == quote && index + 1 < end && buffer.get(index + 1) == quote)
+				{
+					index++;
+				}
+				scratch[length++] = b;
+			}
+
+			// Decode them as UTF-8.
+			if (chars.length < length)
+			{
+				chars = new char[Math.max(length, chars.length * 2)];
+			}
+			CharBuffer out = CharBuffer.wrap(chars);
+			decoder.reset();
+			decoder.decode(ByteBuffer.wrap(scratch, 0, length), out, true);
+			decoder.flush(out);
+			charCount = out.position();
+		}
+
+		private static byte unescapeByte(byte b)
+		{
+			switch (b)
+			{
+				case 'n': return '\n';
+				case 't': return '\t';
+				case 'r': return '\r';
+				case '0': return 0;
+				case 'b': return '\b';
+				case 'Z': return 26;
+				default: return b;
+			}
+		}
+
+		@Override
+		public int length()
+		{
+			return decoded ? charCount : end - start;
+		}
+
+		@Override
+		public char charAt(int index)
+		{
+			return decoded ? chars[index] : (char)(buffer.get(start + index) & 0xFF);
+		}
+
+		@Override
+		public CharSequence subSequence(int from, int to)
+		{
+			return toString().substring(from, to);
+		}
+
+		@Override
+		public String toString()
+		{
+			if (decoded)
+			{
+				return new String(chars, 0, charCount);
+			}
+			StringBuilder sb = new StringBuilder(end - start);
+			sb.append(this);
+			return sb.toString();
+		}
+
+		/**
+		 * Compares the view's characters with another sequence.
+		 */
+		public boolean contentEquals(CharSequence other)
+		{
+			if (other == null || other.length() != length())
+			{
+				return false;
+			}
+			for (int index = 0; index < length(); index++)
+			{
+				if (charAt(index) != other.charAt(index))
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * One row of an INSERT ... VALUES statement.  The same object is reused for every row.
+	 */
+	public static final class DumpRow
+	{
+		private ByteBuffer buffer;
+
+		// The statement head, table name and whole row as SQL.
+		private final ByteSlice head = new ByteSlice();
+		private final ByteSlice table = new ByteSlice();
+		private final ByteSlice sql = new ByteSlice();
+
+		// Field ranges and flags.
+		private int fieldCount;
+		private int[] starts = new int[16];
+		private int[] ends = new int[16];
+		private byte[] quotes = new byte[16];
+		private boolean[] plain = new boolean[16];
+		private ByteSlice[] views = new ByteSlice[16];
+
+		/**
+		 * Gets everything before the VALUES keyword, such as "INSERT INTO movies".
+		 */
+		public ByteSlice getHead()
+		{
+			return head;
+		}
+
+		/**
+		 * Gets the name of the table the row goes in.
+		 */
+		public ByteSlice getTable()
+		{
+			return table;
+		}
+
+		/**
+		 * Gets the whole row as SQL, including its parentheses.
+		 */
+		public ByteSlice getSQL()
+		{
+			return sql;
+		}
+
+		public int getFieldCount()
+		{
+			return fieldCount;
+		}
+
+		/**
+		 * Checks whether a field is an unquoted NULL.
+		 *
+		 * @param field The field index, starting at zero.
+		 */
+		public boolean isNull(int field)
+		{
+			check(field);
+			int start = starts[field];
+			return quotes[field] == 0 && ends[field] - start == 4
+					&& (buffer.get(start) | 0x20) == 'n' && (buffer.get(start + 1) | 0x20) == 'u'
+					&& (buffer.get(start + 2) | 0x20) == 'l' && (buffer.get(start + 3) | 0x20) == 'l';
+		}
+
+		/**
+		 * Reads a field as a long without building a String.
+		 *
+		 * @param field The field index, starting at zero.
+		 * @throws NumberFormatException If the field isn't a whole number.
+		 */
+		public long getLong(int field)
+		{
+			check(field);
+			int index = starts[field], end = ends[field];
+			boolean negative = index < end && buffer.get(index) == '-';
+			if (negative || (index < end && buffer.get(index) == '+'))
+			{
+				index++;
+			}
+			if (index >= end)
+			{
+				throw new NumberFormatException("Field " + field + " is not a number.");
+			}
+
+			long value = 0;
+			for (; index < end; index++)
+			{
+				int digit = buffer.get(index) - '0';
+				if (digit < 0 || digit > 9)
+				{
+					throw new NumberFormatException("Field " + field + " is not a number.");
+				}
+				value = value * 10 + digit;
+			}
+			return negative ? -value : value;
+		}
+
+		/**
+		 * Reads a field as an int without building a String.
+		 *
+		 * @param field The field index, starting at zero.
+		 */
+		public int getInt(int field)
+		{
+			long value = getLong(field);
+			if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+			{
+				throw new NumberFormatException("Field " + field + " is out of range for an int.");
+			}
+			return (int)value;
+		}
+
+		/**
+		 * Reads a field as a double.
+		 *
+		 * @param field The field index, starting at zero.
+		 */
+		public double getDouble(int field)
+		{
+			return Double.parseDouble(getChars(field).toString());
+		}
+
+		/**
+		 * Gets a field's text, without quotes and with escapes undone.
+		 *
+		 * @param field The field index, starting at zero.
+		 * @return A view that is only valid until the sink returns.
+		 */
+		public ByteSlice getChars(int field)
+		{
+			check(field);
+			if (views[field] == null)
+			{
+				views[field] = new ByteSlice();
+			}
+			views[field].set(buffer, starts[field], ends[field], plain[field], quotes[field]);
+			return views[field];
+		}
+
+		private void check(int field)
+		{
+			if (field < 0 || field >= fieldCount)
+			{
+				throw new IndexOutOfBoundsException("No field " + field + " in a row of " + fieldCount + ".");
+			}
+		}
+
+		private void addField(int start, int end, byte quote, boolean isPlain)
+		{
+			if (fieldCount == starts.length)
+			{
+				int length = starts.length * 2;
+				starts = java.util.Arrays.copyOf(starts, length);
+				ends = java.util.Arrays.copyOf(ends, length);
+				quotes = java.util.Arrays.copyOf(quotes, length);
+				plain = java.util.Arrays.copyOf(plain, length);
+				views = java.util.Arrays.copyOf(views, length);
+			}
+			starts[fieldCount] = start;
+			ends[fieldCount] = end;
+			quotes[fieldCount] = quote;
+			plain[fieldCount] = isPlain;
+			fieldCount++;
+		}
+	}
+
+	/**
+	 * Thrown when a statement runs past the end of the mapped window.
+	 */
+	private static class IncompleteStatement extends Exception
+	{
+		private static final long serialVersionUID = 1L;
+	}
+
+	/**
+	 * Constructor for the parser.
+	 *
+	 * @param file The dump file.
+	 */
+	public MappedDumpParser(File file)
+	{
+		this(file, MappedDumpParser.DEFAULT_WINDOW_BYTES);
+	}
+
+	/**
+	 * Constructor for the parser.
+	 *
+	 * @param file The dump file.
+	 * @param windowBytes The size of each mapped region.
+	 */
+	public MappedDumpParser(File file, int windowBytes)
+	{
+		if (windowBytes < 1)
+		{
+			throw new IllegalArgumentException("The window size must be positive.");
+		}
+		this.file = file;
+		this.windowBytes = windowBytes;
+	}
+
+	/**
+	 * Parses the whole file.
+	 *
+	 * @param sink Where to send rows and statements.
+	 */
+	public void parse(RowSink sink) throws IOException, SQLException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		DumpRow row = new DumpRow();
+		ByteSlice statement = new ByteSlice();
+
+		try
+		{
+			FileChannel channel = raf.getChannel();
+			long fileSize = channel.size();
+			long position = 0;
+			long window = windowBytes;
+
+			while (position < fileSize)
+			{
+				long size = Math.min(window, fileSize - position);
+				boolean last = position + size == fileSize;
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+
+				int consumed = parseWindow(buffer, (int)size, last, row, statement, sink);
+				if (consumed == 0 && !last)
+				{
+					// A single statement doesn't fit in the window, so make the window bigger.
+					if (window >= Integer.MAX_VALUE)
+					{
+						throw new IOException("A statement in " + file + " is larger than 2 GB.");
+					}
+					window = Math.min(Integer.MAX_VALUE, window * 2);
+				}
+				position += last ? size : consumed;
+			}
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	/**
+	 * Parses every complete statement in a window.
+	 *
+	 * @return The number of bytes consumed.
+	 */
+	private int parseWindow(ByteBuffer buffer, int limit, boolean last, DumpRow row, ByteSlice statement, RowSink sink) throws SQLException
+	{
+		int position = 0;
+
+		while (true)
+		{
+			int start;
+			try
+			{
+				start = skipComments(buffer, position, limit, last);
+			}
+			catch (IncompleteStatement ex)
+			{
+				// A comment runs past the window, so map the next window from where it starts.
+				return skipSpace(buffer, position, limit);
+			}
+			if (start >= limit)
+			{
+				return limit;
+			}
+
+			int end;
+			try
+			{
+				end = findStatementEnd(buffer, start, limit, last);
+			}
+			catch (IncompleteStatement ex)
+			{
+				return position;
+			}
+
+			// Nothing but a semicolon, such as the one after "/*!40101 SET NAMES utf8 */".
+			if (end == start)
+			{
+				position = start + 1;
+				continue;
+			}
+
+			if (!parseInsert(buffer, start, end, row, sink))
+			{
+				statement.set(buffer, start, trimEnd(buffer, start, end), isAscii(buffer, start, end), (byte)0);
+				sink.statement(statement);
+			}
+			position = Math.min(end + 1, limit);
+		}
+	}
+
+	/**
+	 * Parses an INSERT ... VALUES statement and sends each of its rows to the sink.
+	 *
+	 * @return True if the statement was an INSERT ... VALUES statement, false otherwise.
+	 */
+	private boolean parseInsert(ByteBuffer buffer, int start, int end, DumpRow row, RowSink sink) throws SQLException
+	{
+		if (!matchesKeyword(buffer, start, end, "INSERT"))
+		{
+			return false;
+		}
+
+		int values = findKeyword(buffer, start, end, "VALUES");
+		if (values < 0)
+		{
+			return false;
+		}
+
+		// The head is everything before VALUES, and the table is the word after INTO.
+		row.buffer = buffer;
+		int headEnd = trimEnd(buffer, start, values);
+		row.head.set(buffer, start, headEnd, isAscii(buffer, start, headEnd), (byte)0);
+		int tableStart = findKeyword(buffer, start, headEnd, "INTO");
+		tableStart = skipSpaceAndComments(buffer, tableStart < 0 ? start + 6 : tableStart + 4, headEnd);
+		int tableEnd = tableStart;
+		while (tableEnd < headEnd && !isSpace(buffer.get(tableEnd)) && buffer.get(tableEnd) != '(')
+		{
+			tableEnd++;
+		}
+		boolean backquoted = tableEnd - tableStart > 1 && buffer.get(tableStart) == '`';
+		row.table.set(buffer, backquoted ? tableStart + 1 : tableStart, backquoted ? tableEnd - 1 : tableEnd, true, (byte)0);
+
+		// Walk the rows.
+		int index = values + 6;
+		while (index < end)
+		{
+			index = skipSpaceAndComments(buffer, index, end);
+			if (index >= end || buffer.get(index) != '(')
+			{
+				index++;
+				continue;
+			}
+
+			int rowStart = index;
+			row.fieldCount = 0;
+			index = parseFields(buffer, index + 1, end, row);
+			row.sql.set(buffer, rowStart, index, isAscii(buffer, rowStart, index), (byte)0);
+			sink.row(row);
+		}
+		return true;
+	}
+
+	/**
+	 * Parses the fields of a row, starting just after its opening parenthesis.
+	 *
+	 * @return The position just after the row's closing parenthesis.
+	 */
+	private int parseFields(ByteBuffer buffer, int index, int end, DumpRow row)
+	{
+		while (index < end)
+		{
+			index = skipSpace(buffer, index, end);
+			if (index >= end)
+			{
+				break;
+			}
+			byte b = buffer.get(index);
+
+			if (b == '\'' || b == '"')
+			{
+				// Quoted field.  Doubled quotes and backslashes are escapes.
+				int fieldStart = index + 1;
+				boolean isPlain = true;
+				for (index = fieldStart; index < end; index++)
+				{
+					byte c = buffer.get(index);
+					if (c == '\\')
+					{
+						isPlain = false;
+						index++;
+					}
+					else if (c == b)
+					{
+						if (index + 1 < end && buffer.get(index + 1) == b)
+						{
+							isPlain = false;
+							index++;
+						}
+						else
+						{
+							break;
+						}
+					}
+					else if (c < 0)
+					{
+						isPlain = false;
+					}
+				}
+				row.addField(fieldStart, index, b, isPlain);
+				index = skipSpace(buffer, index + 1, end);
+			}
+			else if (b == ')')
+			{
+				return index + 1;
+			}
+			else
+			{
+				// Unquoted field, such as a number or NULL.
+				int fieldStart = index;
+				int depth = 0;
+				while (index < end)
+				{
+					byte c = buffer.get(index);
+					if (c == '(')
+					{
+						depth++;
+					}
+					else if ((c == ',' || c == ')') && depth == 0)
+					{
+						break;
+					}
+					else if (c == ')')
+					{
+						depth--;
+					}
+					index++;
+				}
+				int fieldEnd = trimEnd(buffer, fieldStart, index);
+				row.addField(fieldStart, fieldEnd, (byte)0, isAscii(buffer, fieldStart, fieldEnd));
+			}
+
+			if (index < end && buffer.get(index) == ',')
+			{
+				index++;
+			}
+			else if (index < end && buffer.get(index) == ')')
+			{
+				return index + 1;
+			}
+		}
+		return end;
+	}
+
+	/**
+	 * Finds the semicolon that ends a statement, skipping quoted text and comments.
+	 *
+	 * @return The position of the semicolon, or the limit if this is the last window.
+	 * @throws IncompleteStatement If the statement continues past the window.
+	 */
+	private static int findStatementEnd(ByteBuffer buffer, int index, int limit, boolean last) throws IncompleteStatement
+	{
+		byte quote = 0;
+		for (; index < limit; index++)
+		{
+			byte b = buffer.get(index);
+			if (quote != 0)
+			{
+				if (b == '\\')
+				{
+					index++;
+				}
+				else if (b == quote)
+				{
+					quote = 0;
+				}
+			}
+			else if (b == '\'' || b == '"' || b == '`')
+			{
+				quote = b;
+			}
+			else if (isCommentStart(buffer, index, limit))
+			{
+				index = skipComment(buffer, index, limit, last) - 1;
+			}
+			else if (b == ';')
+			{
+				return index;
+			}
+		}
+
+		if (!last)
+		{
+			throw new IncompleteStatement();
+		}
+		return limit;
+	}
+
+	/**
+	 * Finds a keyword outside of quotes.
+	 *
+	 * @return Its position, or -1 if it isn't there.
+	 */
+	private static int findKeyword(ByteBuffer buffer, int index, int end, String keyword)
+	{
+		byte quote = 0;
+		for (; index < end; index++)
+		{
+			byte b = buffer.get(index);
+			if (quote != 0)
+			{
+				if (b == quote)
+				{
+					quote = 0;
+				}
+			}
+			else if (b == '\'' || b == '"' || b == '`')
+			{
+				quote = b;
+			}
+			else if (matchesKeyword(buffer, index, end, keyword)
+					&& (index == 0 || !isWordByte(buffer.get(index - 1))))
+			{
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean matchesKeyword(ByteBuffer buffer, int index, int end, String keyword)
+	{
+		int length = keyword.length();
+		if (index + length > end)
+		{
+			return false;
+		}
+		for (int offset = 0; offset < length; offset++)
+		{
+			if (Character.toUpperCase((char)buffer.get(index + offset)) != keyword.charAt(offset))
+			{
+				return false;
+			}
+		}
+		return index + length == end || !isWordByte(buffer.get(index + length));
+	}
+
+	/**
+	 * Skips space and comments inside a statement, where the statement's end is known.
+	 */
+	private static int skipSpaceAndComments(ByteBuffer buffer, int index, int end)
+	{
+		try
+		{
+			return skipComments(buffer, index, end, true);
+		}
+		catch (IncompleteStatement ex)
+		{
+			// Can't happen, since an unfinished comment just runs to the end.
+			return end;
+		}
+	}
+
+	/**
+	 * Skips space and comments.
+	 *
+	 * @param last Whether the end is the end of the file.
+	 * @return The position of the first byte that isn't space or part of a comment.
+	 * @throws IncompleteStatement If a comment continues past the end and it isn't the end of the file.
+	 */
+	private static int skipComments(ByteBuffer buffer, int index, int end, boolean last) throws IncompleteStatement
+	{
+		while (index < end)
+		{
+			if (isSpace(buffer.get(index)))
+			{
+				index++;
+			}
+			else if (isCommentStart(buffer, index, end))
+			{
+				index = skipComment(buffer, index, end, last);
+			}
+			else
+			{
+				break;
+			}
+		}
+		return index;
+	}
+
+	private static boolean isCommentStart(ByteBuffer buffer, int index, int end)
+	{
+		if (index + 1 >= end)
+		{
+			return false;
+		}
+		byte b = buffer.get(index);
+		byte next = buffer.get(index + 1);
+		return (b == '-' && next == '-') || (b == '/' && next == '*');
+	}
+
+	/**
+	 * Skips a "--" comment through its newline, or a block comment through its end.
+	 *
+	 * @param index The position of the comment's first byte.
+	 * @param last Whether the end is the end of the file.
+	 * @return The position just after the comment, or the end if it isn't finished and this is the last window.
+	 * @throws IncompleteStatement If the comment continues past the end and it isn't the end of the file.
+	 */
+	private static int skipComment(ByteBuffer buffer, int index, int end, boolean last) throws IncompleteStatement
+	{
+		if (buffer.get(index) == '-')
+		{
+			for (index += 2; index < end; index++)
+			{
+				if (buffer.get(index) == '\n')
+				{
+					return index + 1;
+				}
+			}
+		}
+		else
+		{
+			for (index += 2; index + 1 < end; index++)
+			{
+				if (buffer.get(index) == '*' && buffer.get(index + 1) == '/')
+				{
+					return index + 2;
+				}
+			}
+		}
+
+		if (!last)
+		{
+			throw new IncompleteStatement();
+		}
+		return end;
+	}
+
+	private static int skipSpace(ByteBuffer buffer, int index, int end)
+	{
+		while (index < end && isSpace(buffer.get(index)))
+		{
+			index++;
+		}
+		return index;
+	}
+
+	private static int trimEnd(ByteBuffer buffer, int start, int end)
+	{
+		while (end > start && isSpace(buffer.get(end - 1)))
+		{
+			end--;
+		}
+		return end;
+	}
+
+	private static boolean isAscii(ByteBuffer buffer, int start, int end)
+	{
+		for (int index = start; index < end; index++)
+		{
+			if (buffer.get(index) < 0)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isSpace(byte b)
+	{
+		return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+	}
+
+	private static boolean isWordByte(byte b)
+	{
+		return b == '_' || (b >= '0' && b <= '9') || ((b | 0x20) >= 'a' && (b | 0x20) <= 'z');
+	}
+}
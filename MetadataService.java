@@ -0,0 +1,444 @@
+/*
+ * MetadataService.java
+ *
+ * Collects and caches schema metadata.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+// Imports
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.sql.*;
+
+/**
+ * Collects the tables, columns, types, primary keys and indexes of a database.
+ * Tables are read concurrently on connections borrowed from the same pool as the
+ * caller's connection.  Snapshots are cached for each database and user along with a
+ * fingerprint of the schema, and can be saved to a directory, so a cached or saved
+ * snapshot only needs one query to check that it's still current.
+ *
+ * @author Austin Cathey
+ */
+public class MetadataService
+{
+	// System property naming a directory to save snapshots in.  Snapshots aren't saved if it isn't set.
+	public static final String CACHE_DIRECTORY_PROPERTY = "project1.metadata.cache";
+
+	// The most tables to read at once.
+	public static final int DEFAULT_THREADS = 4;
+
+	// One query that changes whenever a column or index changes.
+	private static final String FINGERPRINT_QUERY =
+			"SELECT " +
+			"(SELECT CONCAT(COUNT(*), ':', COALESCE(SUM(CRC32(CONCAT_WS(',', table_name, column_name, column_type, is_nullable, column_key, extra))), 0)) " +
+			" FROM information_schema.columns WHERE table_schema = DATABASE()), " +
+			"(SELECT CONCAT(COUNT(*), ':', COALESCE(SUM(CRC32(CONCAT_WS(',', table_name, index_name, column_name, seq_in_index, non_unique))), 0)) " +
+			" FROM information_schema.statistics WHERE table_schema = DATABASE())";
+
+	// The service used by DBHandler.
+	private static final MetadataService shared = new MetadataService(
+			System.getProperty(CACHE_DIRECTORY_PROPERTY) == null ? null : new File(System.getProperty(CACHE_DIRECTORY_PROPERTY)),
+			MetadataService.DEFAULT_THREADS);
+
+	// Where snapshots are saved, or null to not save them.
+	private final File cacheDirectory;
+
+	// The most tables to read at once.
+	private final int threads;
+
+	// Snapshots, keyed by database URL and user.
+	private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<String, Snapshot>();
+
+	/**
+	 * A column of a table.
+	 */
+	public static class Column implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		public String name;
+		public String type;
+		public int size;
+		public boolean nullable;
+		public boolean autoIncrement;
+	}
+
+	/**
+	 * An index of a table.
+	 */
+	public static class Index implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		public String name;
+		public boolean unique;
+		public List<String> columns = new ArrayList<String>();
+	}
+
+	/**
+	 * A table and how long it took to read.
+	 */
+	public static class Table implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		public String name;
+		public List<Column> columns = new ArrayList<Column>();
+		public List<String> primaryKey = new ArrayList<String>();
+		public List<Index> indexes = new ArrayList<Index>();
+		public long fetchMillis;
+	}
+
+	/**
+	 * Everything known about a database at one point in time.
+	 */
+	public static class Snapshot implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		public String productName;
+		public String productVersion;
+		public String fingerprint;
+		public List<Table> tables = new ArrayList<Table>();
+
+		// Where the snapshot came from this time, and how long that took.  The cached
+		// snapshot is shared, so each call gets a copy with its own values.
+		public transient String source;
+		public transient long fetchMillis;
+	}
+
+	/**
+	 * Constructor for the metadata service.
+	 *
+	 * @param cacheDirectory Where to save snapshots, or null to not save them.
+	 * @param threads The most tables to read at once.
+	 */
+	public MetadataService(File cacheDirectory, int threads)
+	{
+		this.cacheDirectory = cacheDirectory;
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Gets the service used by DBHandler.
+	 */
+	public static MetadataService getShared()
+	{
+		return shared;
+	}
+
+	/**
+	 * Gets the metadata for a connection's database, from memory, a saved file, or the DBMS.
+	 * A snapshot is only used from memory or a file if its fingerprint matches the
+	 * schema's current one, so a table altered since it was taken is read again.
+	 *
+	 * @param connection The DBMS connection.
+	 * @param refresh True to read from the DBMS even if a snapshot is cached.
+	 * @return The snapshot, with where it came from and how long that took.
+	 */
+	public Snapshot getSnapshot(Connection connection, boolean refresh) throws SQLException
+	{
+		long start = System.nanoTime();
+		DatabaseMetaData meta = connection.getMetaData();
+		String key = meta.getURL() + "|" + meta.getUserName();
+		String fingerprint = fingerprint(connection);
+		String source;
+
+		// Without a fingerprint there's no telling whether the cached snapshot is current.
+		Snapshot snapshot = refresh ? null : snapshots.get(key);
+		if (snapshot != null && fingerprint != null && fingerprint.equals(snapshot.fingerprint))
+		{
+			source = "memory";
+		}
+		else
+		{
+			snapshot = refresh ? null : load(key, fingerprint);
+			if (snapshot != null)
+			{
+				source = "saved file";
+			}
+			else
+			{
+				snapshot = collect(connection, meta);
+				snapshot.fingerprint = fingerprint;
+				source = "DBMS";
+				save(key, snapshot);
+			}
+			snapshots.put(key, snapshot);
+		}
+
+		return copy(snapshot, source, (System.nanoTime() - start) / 1000000);
+	}
+
+	/**
+	 * Copies a cached snapshot for one caller.  The tables are shared, not copied.
+	 */
+	private static Snapshot copy(Snapshot snapshot, String source, long fetchMillis)
+	{
+		Snapshot copy = new Snapshot();
+		copy.productName = snapshot.productName;
+		copy.productVersion = snapshot.productVersion;
+		copy.fingerprint = snapshot.fingerprint;
+		copy.tables = snapshot.tables;
+		copy.source = source;
+		copy.fetchMillis = fetchMillis;
+		return copy;
+	}
+
+	/**
+	 * Reads every table from the DBMS, several tables at a time.
+	 */
+	private Snapshot collect(final Connection connection, DatabaseMetaData meta) throws SQLException
+	{
+		Snapshot snapshot = new Snapshot();
+		snapshot.productName = meta.getDatabaseProductName();
+		snapshot.productVersion = meta.getDatabaseProductVersion();
+
+		final String catalog = connection.getCatalog();
+		List<String> names = new ArrayList<String>();
+		ResultSet rs = null;
+		try
+		{
+			rs = meta.getTables(catalog, null, "%", new String[] { "TABLE" });
+			while (rs.next())
+			{
+				names.add(rs.getString("TABLE_NAME"));
+			}
+		}
+		finally
+		{
+			JdbcWrapper.closeResultSet(rs);
+		}
+
+		// Without a pool there's only one connection, so read the tables one at a time.
+		final ConnectionPool pool = JdbcWrapper.getOwningPool(connection);
+		if (pool == null || threads == 1 || names.size() < 2)
+		{
+			for (String name : names)
+			{
+				snapshot.tables.add(collectTable(connection.getMetaData(), catalog, name));
+			}
+			return snapshot;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, names.size()));
+		try
+		{
+			List<Future<Table>> futures = new ArrayList<Future<Table>>();
+			for (final String name : names)
+			{
+				futures.add(executor.submit(new Callable<Table>()
+				{
+					@Override
+					public Table call() throws SQLException
+					{
+						Connection sibling = pool.borrow();
+						try
+						{
+							return collectTable(sibling.getMetaData(), catalog, name);
+						}
+						finally
+						{
+							pool.release(sibling);
+						}
+					}
+				}));
+			}
+
+			for (Future<Table> future : futures)
+			{
+				snapshot.tables.add(future.get());
+			}
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while reading metadata.", ex);
+		}
+		catch (ExecutionException ex)
+		{
+			throw (ex.getCause() instanceof SQLException) ? (SQLException)ex.getCause() : new SQLException(ex.getCause());
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Reads one table's columns, primary key and indexes.
+	 */
+	private static Table collectTable(DatabaseMetaData meta, String catalog, String name) throws SQLException
+	{
+		long start = System.nanoTime();
+		Table table = new Table();
+		table.name = name;
+		ResultSet rs = null;
+
+		try
+		{
+			rs = meta.getColumns(catalog, null, name, "%");
+			while (rs.next())
+			{
+				Column column = new Column();
+				column.name = rs.getString("COLUMN_NAME");
+				column.type = rs.getString("TYPE_NAME");
+				column.size = rs.getInt("COLUMN_SIZE");
+				column.nullable = rs.getInt("NULLABLE") == DatabaseMetaData.columnNullable;
+				column.autoIncrement = "YES".equalsIgnoreCase(rs.getString("IS_AUTOINCREMENT"));
+				table.columns.add(column);
+			}
+			JdbcWrapper.closeResultSet(rs);
+
+			// Primary key columns come back in name order, so put them in key order.
+			rs = meta.getPrimaryKeys(catalog, null, name);
+			SortedMap<Short, String> keyColumns = new TreeMap<Short, String>();
+			while (rs.next())
+			{
+				keyColumns.put(rs.getShort("KEY_SEQ"), rs.getString("COLUMN_NAME"));
+			}
+			table.primaryKey.addAll(keyColumns.values());
+			JdbcWrapper.closeResultSet(rs);
+
+			rs = meta.getIndexInfo(catalog, null, name, false, true);
+			Map<String, Index> indexes = new LinkedHashMap<String, Index>();
+			while (rs.next())
+			{
+				String indexName = rs.getString("INDEX_NAME");
+				if (indexName == null)
+				{
+					continue;
+				}
+
+				Index index = indexes.get(indexName);
+				if (index == null)
+				{
+					index = new Index();
+					index.name = indexName;
+					index.unique = !rs.getBoolean("NON_UNIQUE");
+					indexes.put(indexName, index);
+				}
+				index.columns.add(rs.getString("COLUMN_NAME"));
+			}
+			table.indexes.addAll(indexes.values());
+		}
+		finally
+		{
+			JdbcWrapper.closeResultSet(rs);
+		}
+
+		table.fetchMillis = (System.nanoTime() - start) / 1000000;
+		return table;
+	}
+
+	/**
+	 * Gets a fingerprint of the current schema.
+	 *
+	 * @return The fingerprint, or null if it couldn't be computed.
+	 */
+	private static String fingerprint(Connection connection)
+	{
+		Statement statement = null;
+		ResultSet rs = null;
+
+		try
+		{
+			statement = connection.createStatement();
+			rs = statement.executeQuery(FINGERPRINT_QUERY);
+			return rs.next() ? rs.getString(1) + "/" + rs.getString(2) : null;
+		}
+		catch (SQLException ex)
+		{
+			return null;
+		}
+		finally
+		{
+			JdbcWrapper.closeResultSet(rs);
+			JdbcWrapper.closeStatement(statement);
+		}
+	}
+
+	/**
+	 * Loads a saved snapshot if it matches the current fingerprint.
+	 *
+	 * @return The snapshot, or null if there isn't a current one.
+	 */
+	private Snapshot load(String key, String fingerprint)
+	{
+		File file = cacheFile(key);
+		if (file == null || fingerprint == null || !file.isFile())
+		{
+			return null;
+		}
+
+		ObjectInputStream in = null;
+		try
+		{
+			in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+			Snapshot snapshot = (Snapshot)in.readObject();
+			return fingerprint.equals(snapshot.fingerprint) ? snapshot : null;
+		}
+		catch (Exception ex)
+		{
+			return null;
+		}
+		finally
+		{
+			closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Saves a snapshot, if snapshots are being saved.
+	 */
+	private void save(String key, Snapshot snapshot)
+	{
+		File file = cacheFile(key);
+		if (file == null || snapshot.fingerprint == null)
+		{
+			return;
+		}
+
+		ObjectOutputStream out = null;
+		try
+		{
+			cacheDirectory.mkdirs();
+			out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			out.writeObject(snapshot);
+		}
+		catch (IOException ex)
+		{
+			System.out.println("Could not save metadata to " + file + ": " + ex.getMessage());
+		}
+		finally
+		{
+			closeQuietly(out);
+		}
+	}
+
+	private File cacheFile(String key)
+	{
+		if (cacheDirectory == null)
+		{
+			return null;
+		}
+		return new File(cacheDirectory, "metadata-" + Integer.toHexString(key.hashCode()) + ".ser");
+	}
+
+	private static void closeQuietly(Closeable closeable)
+	{
+		try
+		{
+			if (closeable != null)
+			{
+				closeable.close();
+			}
+		}
+		catch (IOException ex)
+		{
+		}
+	}
+}
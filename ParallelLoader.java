@@ -0,0 +1,410 @@
+/*
+ * ParallelLoader.java
+ *
+ * Loads the tables of a SQL dump concurrently, in foreign key order.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+// Imports
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.*;
+import java.sql.*;
+
+/**
+ * Loads a SQL dump with one BulkLoader per table, running tables concurrently on
+ * separate pooled connections.  The REFERENCES clauses in the schema script decide the
+ * order: a table starts loading as soon as every table it references has committed.
+ * <p>
+ * The dump is first split into one spool file per table, so memory use doesn't grow
+ * with the size of the dump.  Statements in the dump that aren't INSERTs are run
+ * before any table is loaded.
+ * <p>
+ * Usage: java ParallelLoader [--threads n] [--chunk rows] [--schema file] [file [username [password]]]
+ *
+ * @author Austin Cathey
+ */
+public class ParallelLoader
+{
+	// The schema script to read table dependencies from unless told otherwise.
+	public static final String DEFAULT_SCHEMA_FILE = "createtable_14.sql";
+
+	// The default number of tables to load at once.
+	public static final int DEFAULT_THREADS = 4;
+
+	// Patterns for reading the schema script.
+	private static final Pattern CREATE_TABLE = Pattern.compile("(?is)^\\s*CREATE\\s+TABLE\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?`?(\\w+)`?");
+	private static final Pattern REFERENCES = Pattern.compile("(?i)\\bREFERENCES\\s+`?(\\w+)`?");
+
+	// Where connections come from.
+	private final ConnectionPool pool;
+
+	// The number of tables to load at once.
+	private final int threads;
+
+	// The number of rows per transaction.
+	private final int chunkRows;
+
+	// The tables each table references.
+	private final Map<String, Set<String>> parents;
+
+	/**
+	 * Constructor for the parallel loader.
+	 *
+	 * @param pool Where to get connections from.
+	 * @param parents The tables each table references.
+	 * @param threads The number of tables to load at once.
+	 * @param chunkRows The number of rows per transaction.
+	 */
+	public ParallelLoader(ConnectionPool pool, Map<String, Set<String>> parents, int threads, int chunkRows)
+	{
+		if (threads < 1)
+		{
+			throw new IllegalArgumentException("At least one thread is needed.");
+		}
+		this.pool = pool;
+		this.parents = parents;
+		this.threads = threads;
+		this.chunkRows = chunkRows;
+	}
+
+	/**
+	 * Entry point.
+	 *
+	 * @param args [--threads n] [--chunk rows] [--schema file] [file [username [password]]]
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		int threads = ParallelLoader.DEFAULT_THREADS;
+		int chunkRows = BulkLoader.DEFAULT_CHUNK_ROWS;
+		String schemaFile = ParallelLoader.DEFAULT_SCHEMA_FILE;
+		List<String> rest = new ArrayList<String>();
+
+		for (int index = 0; index < args.length; index++)
+		{
+			if (args[index].equals("--threads") && index + 1 < args.length)
+			{
+				threads = Integer.parseInt(args[++index]);
+			}
+			else if (args[index].equals("--chunk") && index + 1 < args.length)
+			{
+				chunkRows = Integer.parseInt(args[++index]);
+			}
+			else if (args[index].equals("--schema") && index + 1 < args.length)
+			{
+				schemaFile = args[++index];
+			}
+			else
+			{
+				rest.add(args[index]);
+			}
+		}
+
+		String fileName = rest.isEmpty() ? BulkLoader.DEFAULT_DUMP_FILE : rest.remove(0);
+		String[] userPass = JdbcWrapper.getUsernameAndPassword(rest.toArray(new String[rest.size()]));
+
+		try
+		{
+			ConnectionPool pool = JdbcWrapper.getPool(userPass[0], userPass[1]);
+			ParallelLoader loader = new ParallelLoader(pool, ParallelLoader.readDependencies(new File(schemaFile)), threads, chunkRows);
+			loader.load(new File(fileName));
+		}
+		finally
+		{
+			JdbcWrapper.closeAllPools();
+		}
+	}
+
+	/**
+	 * Reads which tables reference which from a schema script.
+	 *
+	 * @param schemaFile The script of CREATE TABLE statements.
+	 * @return The tables each table references.
+	 */
+	public static Map<String, Set<String>> readDependencies(File schemaFile) throws IOException
+	{
+		Map<String, Set<String>> parents = new LinkedHashMap<String, Set<String>>();
+		SqlDumpReader reader = new SqlDumpReader(new InputStreamReader(new FileInputStream(schemaFile), "UTF-8"));
+
+		try
+		{
+			while (reader.next())
+			{
+				if (reader.isRow())
+				{
+					continue;
+				}
+
+				Matcher create = CREATE_TABLE.matcher(reader.getStatement());
+				if (create.find())
+				{
+					String table = create.group(1).toLowerCase();
+					Set<String> references = new LinkedHashSet<String>();
+					Matcher reference = REFERENCES.matcher(reader.getStatement());
+					while (reference.find())
+					{
+						String parent = reference.group(1).toLowerCase();
+						if (!parent.equals(table))
+						{
+							references.add(parent);
+						}
+					}
+					parents.put(table, references);
+				}
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		return parents;
+	}
+
+	/**
+	 * Loads a dump, running independent tables concurrently.
+	 *
+	 * @param dumpFile The dump to load.
+	 */
+	public void load(File dumpFile) throws Exception
+	{
+		long start = System.nanoTime();
+		File spoolDirectory = createSpoolDirectory();
+
+		try
+		{
+			Map<String, File> spools = spool(dumpFile, spoolDirectory);
+			checkForCycles(spools.keySet());
+
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try
+			{
+				Map<String, CompletableFuture<Void>> loads = new HashMap<String, CompletableFuture<Void>>();
+				for (String table : spools.keySet())
+				{
+					schedule(table, spools, loads, executor);
+				}
+
+				// Wait for everything, reporting the first failure.
+				try
+				{
+					CompletableFuture.allOf(loads.values().toArray(new CompletableFuture<?>[0])).get();
+				}
+				catch (ExecutionException ex)
+				{
+					Throwable cause = ex.getCause() instanceof CompletionException ? ex.getCause().getCause() : ex.getCause();
+					throw (cause instanceof Exception) ? (Exception)cause : ex;
+				}
+			}
+			finally
+			{
+				executor.shutdownNow();
+			}
+		}
+		finally
+		{
+			for (File file : spoolDirectory.listFiles())
+			{
+				file.delete();
+			}
+			spoolDirectory.delete();
+		}
+
+		System.out.printf("Loaded %s in %.3f seconds.%n", dumpFile, (System.nanoTime() - start) / 1e9);
+	}
+
+	/**
+	 * Schedules a table to load once the tables it references have loaded.
+	 *
+	 * @return The table's load.
+	 */
+	private CompletableFuture<Void> schedule(final String table, final Map<String, File> spools,
+			Map<String, CompletableFuture<Void>> loads, final Executor executor)
+	{
+		CompletableFuture<Void> load = loads.get(table);
+		if (load != null)
+		{
+			return load;
+		}
+
+		// Only wait on referenced tables that are part of this dump.
+		List<CompletableFuture<Void>> prerequisites = new ArrayList<CompletableFuture<Void>>();
+		Set<String> references = parents.get(table);
+		if (references != null)
+		{
+			for (String parent : references)
+			{
+				if (spools.containsKey(parent))
+				{
+					prerequisites.add(schedule(parent, spools, loads, executor));
+				}
+			}
+		}
+
+		load = CompletableFuture.allOf(prerequisites.toArray(new CompletableFuture<?>[0])).thenRunAsync(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					loadTable(table, spools.get(table));
+				}
+				catch (Exception ex)
+				{
+					throw new CompletionException(ex);
+				}
+			}
+		}, executor);
+		loads.put(table, load);
+		return load;
+	}
+
+	/**
+	 * Loads one table's spool file on its own connection.
+	 *
+	 * @param table The table.
+	 * @param spool The table's rows.
+	 */
+	private void loadTable(String table, File spool) throws SQLException, IOException
+	{
+		long start = System.nanoTime();
+		ParallelLoader.report("%-20s started", table);
+
+		Connection connection = pool.borrow();
+		try
+		{
+			BulkLoader loader = new BulkLoader(connection, chunkRows, 0);
+			loader.load(new SqlDumpReader(new InputStreamReader(new FileInputStream(spool), "UTF-8")));
+
+			long rows = 0;
+			for (BulkLoader.TableBatch batch : loader.getBatches())
+			{
+				rows += batch.rows;
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			ParallelLoader.report("%-20s %10d rows in %.3f s (%.0f rows/sec)", table, rows, seconds, seconds == 0 ? 0.0 : rows / seconds);
+		}
+		finally
+		{
+			pool.release(connection);
+		}
+	}
+
+	/**
+	 * Splits a dump into one spool file per table, running any other statements right away.
+	 *
+	 * @return The spool file for each table, in the order the tables appear in the dump.
+	 */
+	private Map<String, File> spool(File dumpFile, File directory) throws SQLException, IOException
+	{
+		Map<String, File> spools = new LinkedHashMap<String, File>();
+		Map<String, Writer> writers = new HashMap<String, Writer>();
+		SqlDumpReader reader = new SqlDumpReader(new InputStreamReader(new FileInputStream(dumpFile), "UTF-8"));
+		Connection connection = null;
+		Statement statement = null;
+
+		try
+		{
+			while (reader.next())
+			{
+				if (reader.isRow())
+				{
+					String table = reader.getTable().toLowerCase();
+					Writer out = writers.get(table);
+					if (out == null)
+					{
+						File file = new File(directory, table + ".sql");
+						out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+						spools.put(table, file);
+						writers.put(table, out);
+					}
+					out.write(reader.getHead());
+					out.write(" VALUES ");
+					out.write(reader.getRow());
+					out.write(";\n");
+				}
+				else
+				{
+					if (statement == null)
+					{
+						connection = pool.borrow();
+						statement = connection.createStatement();
+					}
+					statement.execute(reader.getStatement());
+				}
+			}
+		}
+		finally
+		{
+			reader.close();
+			for (Writer out : writers.values())
+			{
+				out.close();
+			}
+			JdbcWrapper.closeStatement(statement);
+			if (connection != null)
+			{
+				pool.release(connection);
+			}
+		}
+		return spools;
+	}
+
+	/**
+	 * Makes sure the tables being loaded don't reference each other in a loop.
+	 */
+	private void checkForCycles(Set<String> tables)
+	{
+		Map<String, Integer> state = new HashMap<String, Integer>();
+		for (String table : tables)
+		{
+			visit(table, tables, state, new ArrayDeque<String>());
+		}
+	}
+
+	private void visit(String table, Set<String> tables, Map<String, Integer> state, Deque<String> path)
+	{
+		Integer current = state.get(table);
+		if (current != null && current == 2)
+		{
+			return;
+		}
+		else if (current != null && current == 1)
+		{
+			throw new IllegalStateException("Tables reference each other in a loop: " + path + " -> " + table);
+		}
+
+		state.put(table, 1);
+		path.addLast(table);
+		Set<String> references = parents.get(table);
+		if (references != null)
+		{
+			for (String parent : references)
+			{
+				if (tables.contains(parent))
+				{
+					visit(parent, tables, state, path);
+				}
+			}
+		}
+		path.removeLast();
+		state.put(table, 2);
+	}
+
+	private static File createSpoolDirectory() throws IOException
+	{
+		File directory = File.createTempFile("parallel-loader", "");
+		if (!directory.delete() || !directory.mkdir())
+		{
+			throw new IOException("Could not create a spool directory.");
+		}
+		return directory;
+	}
+
+	private static synchronized void report(String format, Object... args)
+	{
+		System.out.printf(format + "%n", args);
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * ParameterBinder.java
+ *
+ * Typed helpers for binding prepared statement parameters.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+// Imports
+import java.sql.*;
+
+/**
+ * Binds parameters to prepared statements.  There is one method per type, so
+ * primitives are never boxed, and null references are bound as SQL NULL with the
+ * right type instead of being rejected.  Unlike JdbcWrapper.setBasicItem(), these
+ * methods let SQLExceptions through so the caller can report them.
+ *
+ * @author Austin Cathey
+ */
+public class ParameterBinder
+{
+	// Single character strings for ASCII, so binding a char doesn't allocate.
+	private static final String[] ASCII_STRINGS = new String[128];
+
+	static
+	{
+		for (char c = 0; c < ASCII_STRINGS.length; c++)
+		{
+			ASCII_STRINGS[c] = String.valueOf(c).intern();
+		}
+	}
+
+	private ParameterBinder()
+	{
+	}
+
+	public static void bindInt(PreparedStatement pstmt, int parameterIndex, int x) throws SQLException
+	{
+		pstmt.setInt(parameterIndex, x);
+	}
+
+	public static void bindLong(PreparedStatement pstmt, int parameterIndex, long x) throws SQLException
+	{
+		pstmt.setLong(parameterIndex, x);
+	}
+
+	public static void bindFloat(PreparedStatement pstmt, int parameterIndex, float x) throws SQLException
+	{
+		pstmt.setFloat(parameterIndex, x);
+	}
+
+	public static void bindDouble(PreparedStatement pstmt, int parameterIndex, double x) throws SQLException
+	{
+		pstmt.setDouble(parameterIndex, x);
+	}
+
+	public static void bindBoolean(PreparedStatement pstmt, int parameterIndex, boolean x) throws SQLException
+	{
+		pstmt.setBoolean(parameterIndex, x);
+	}
+
+	/**
+	 * Binds a character as a one character string.
+	 */
+	public static void bindChar(PreparedStatement pstmt, int parameterIndex, char x) throws SQLException
+	{
+		pstmt.setString(parameterIndex, x < ASCII_STRINGS.length ? ASCII_STRINGS[x] : String.valueOf(x));
+	}
+
+	/**
+	 * Binds a string, or NULL if it's null.
+	 */
+	public static void bindString(PreparedStatement pstmt, int parameterIndex, String x) throws SQLException
+	{
+		if (x == null)
+		{
+			pstmt.setNull(parameterIndex, Types.VARCHAR);
+		}
+		else
+		{
+			pstmt.setString(parameterIndex, x);
+		}
+	}
+
+	/**
+	 * Binds a date, or NULL if it's null.
+	 */
+	public static void bindDate(PreparedStatement pstmt, int parameterIndex, java.sql.Date x) throws SQLException
+	{
+		if (x == null)
+		{
+			pstmt.setNull(parameterIndex, Types.DATE);
+		}
+		else
+		{
+			pstmt.setDate(parameterIndex, x);
+		}
+	}
+
+	/**
+	 * Binds a timestamp, or NULL if it's null.
+	 */
+	public static void bindTimestamp(PreparedStatement pstmt, int parameterIndex, Timestamp x) throws SQLException
+	{
+		if (x == null)
+		{
+			pstmt.setNull(parameterIndex, Types.TIMESTAMP);
+		}
+		else
+		{
+			pstmt.setTimestamp(parameterIndex, x);
+		}
+	}
+
+	/**
+	 * Binds NULL.
+	 *
+	 * @param sqlType The parameter's type, from java.sql.Types.
+	 */
+	public static void bindNull(PreparedStatement pstmt, int parameterIndex, int sqlType) throws SQLException
+	{
+		pstmt.setNull(parameterIndex, sqlType);
+	}
+
+	/**
+	 * Binds a value whose type is only known at run time, such as a value read from a file.
+	 * Prefer the typed methods when the type is known, since they don't need the value boxed.
+	 *
+	 * @param x The value.  Null is bound as NULL, and types without a typed method are passed to setObject().
+	 */
+	public static void bindObject(PreparedStatement pstmt, int parameterIndex, Object x) throws SQLException
+	{
+		if (x == null)
+		{
+			pstmt.setNull(parameterIndex, Types.NULL);
+		}
+		else if (x instanceof String)
+		{
+			pstmt.setString(parameterIndex, (String)x);
+		}
+		else if (x instanceof Integer)
+		{
+			pstmt.setInt(parameterIndex, (Integer)x);
+		}
+		else if (x instanceof Long)
+		{
+			pstmt.setLong(parameterIndex, (Long)x);
+		}
+		else if (x instanceof Double)
+		{
+			pstmt.setDouble(parameterIndex, (Double)x);
+		}
+		else if (x instanceof Float)
+		{
+			pstmt.setFloat(parameterIndex, (Float)x);
+		}
+		else if (x instanceof java.sql.Date)
+		{
+			pstmt.setDate(parameterIndex, (java.sql.Date)x);
+		}
+		else if (x instanceof Character)
+		{
+			bindChar(pstmt, parameterIndex, (Character)x);
+		}
+		else
+		{
+			pstmt.setObject(parameterIndex, x);
+		}
+	}
+}
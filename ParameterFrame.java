@@ -0,0 +1,243 @@
+/*
+ * ParameterFrame.java
+ *
+ * A reusable row of prepared statement parameters.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+// Imports
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Holds the parameters for one execution of a prepared statement, so a whole row can
+ * be filled in and then bound at once.  Numbers are kept in primitive arrays rather
+ * than boxed, and the arrays are kept between rows, so a frame that is reused for
+ * every row of a batch doesn't allocate once it has grown to the row's width.
+ * Parameter indexes start at 1, the same as PreparedStatement.
+ *
+ * @author Austin Cathey
+ */
+public class ParameterFrame
+{
+	// The kind of value held by each parameter.
+	private static final byte UNSET = 0;
+	private static final byte NULL = 1;
+	private static final byte INT = 2;
+	private static final byte LONG = 3;
+	private static final byte DOUBLE = 4;
+	private static final byte STRING = 5;
+	private static final byte DATE = 6;
+	private static final byte OBJECT = 7;
+
+	// Parallel arrays, indexed by parameter index minus one.
+	private byte[] kinds;
+	private long[] longs;
+	private double[] doubles;
+	private Object[] objects;
+
+	// The highest parameter index that has been set.
+	private int size;
+
+	/**
+	 * Constructor for a parameter frame.
+	 *
+	 * @param capacity The number of parameters to make room for.  The frame grows if more are set.
+	 */
+	public ParameterFrame(int capacity)
+	{
+		capacity = Math.max(1, capacity);
+		kinds = new byte[capacity];
+		longs = new long[capacity];
+		doubles = new double[capacity];
+		objects = new Object[capacity];
+	}
+
+	public ParameterFrame setInt(int parameterIndex, int x)
+	{
+		int slot = slot(parameterIndex, INT);
+		longs[slot] = x;
+		return this;
+	}
+
+	public ParameterFrame setLong(int parameterIndex, long x)
+	{
+		int slot = slot(parameterIndex, LONG);
+		longs[slot] = x;
+		return this;
+	}
+
+	public ParameterFrame setDouble(int parameterIndex, double x)
+	{
+		int slot = slot(parameterIndex, DOUBLE);
+		doubles[slot] = x;
+		return this;
+	}
+
+	/**
+	 * Sets a string parameter.  Null is bound as NULL.
+	 */
+	public ParameterFrame setString(int parameterIndex, String x)
+	{
+		int slot = slot(parameterIndex, x == null ? NULL : STRING);
+		longs[slot] = Types.VARCHAR;
+		objects[slot] = x;
+		return this;
+	}
+
+	/**
+	 * Sets a date parameter.  Null is bound as NULL.
+	 */
+	public ParameterFrame setDate(int parameterIndex, java.sql.Date x)
+	{
+		int slot = slot(parameterIndex, x == null ? NULL : DATE);
+		longs[slot] = Types.DATE;
+		objects[slot] = x;
+		return this;
+	}
+
+	/**
+	 * Sets a parameter to NULL.
+	 *
+	 * @param sqlType The parameter's type, from java.sql.Types.
+	 */
+	public ParameterFrame setNull(int parameterIndex, int sqlType)
+	{
+		int slot = slot(parameterIndex, NULL);
+		longs[slot] = sqlType;
+		return this;
+	}
+
+	/**
+	 * Sets a parameter whose type is only known at run time.  See ParameterBinder.bindObject().
+	 */
+	public ParameterFrame setObject(int parameterIndex, Object x)
+	{
+		int slot = slot(parameterIndex, x == null ? NULL : OBJECT);
+		longs[slot] = Types.NULL;
+		objects[slot] = x;
+		return this;
+	}
+
+	/**
+	 * Binds every parameter to a statement.
+	 *
+	 * @param pstmt The statement.
+	 * @throws SQLException If a parameter couldn't be bound, or a parameter below the highest one was never set.
+	 */
+	public void bind(PreparedStatement pstmt) throws SQLException
+	{
+		for (int slot = 0; slot < size; slot++)
+		{
+			int parameterIndex = slot + 1;
+			switch (kinds[slot])
+			{
+				case NULL:
+					ParameterBinder.bindNull(pstmt, parameterIndex, (int)longs[slot]);
+					break;
+				case INT:
+					ParameterBinder.bindInt(pstmt, parameterIndex, (int)longs[slot]);
+					break;
+				case LONG:
+					ParameterBinder.bindLong(pstmt, parameterIndex, longs[slot]);
+					break;
+				case DOUBLE:
+					ParameterBinder.bindDouble(pstmt, parameterIndex, doubles[slot]);
+					break;
+				case STRING:
+					ParameterBinder.bindString(pstmt, parameterIndex, (String)objects[slot]);
+					break;
+				case DATE:
+					ParameterBinder.bindDate(pstmt, parameterIndex, (java.sql.Date)objects[slot]);
+					break;
+				case OBJECT:
+					ParameterBinder.bindObject(pstmt, parameterIndex, objects[slot]);
+					break;
+				default:
+					throw new SQLException("Parameter " + parameterIndex + " was never set.");
+			}
+		}
+	}
+
+	/**
+	 * Forgets every parameter, so the frame can be filled in for the next row.
+	 */
+	public ParameterFrame clear()
+	{
+		Arrays.fill(kinds, 0, size, UNSET);
+		Arrays.fill(objects, 0, size, null);
+		size = 0;
+		return this;
+	}
+
+	/**
+	 * Gets the number of parameters, which is the highest index that has been set.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Gets the parameters as objects, for logging.  This boxes, so keep it off the fast path.
+	 *
+	 * @return The parameters, with NULL as null.
+	 */
+	public Object[] toArray()
+	{
+		Object[] values = new Object[size];
+		for (int slot = 0; slot < size; slot++)
+		{
+			switch (kinds[slot])
+			{
+				case INT:
+					values[slot] = (int)longs[slot];
+					break;
+				case LONG:
+					values[slot] = longs[slot];
+					break;
+				case DOUBLE:
+					values[slot] = doubles[slot];
+					break;
+				case STRING:
+				case DATE:
+				case OBJECT:
+					values[slot] = objects[slot];
+					break;
+				default:
+					values[slot] = null;
+					break;
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Marks a parameter as set to a kind of value, growing the frame if needed.
+	 *
+	 * @return The array slot for the parameter.
+	 */
+	private int slot(int parameterIndex, byte kind)
+	{
+		if (parameterIndex < 1)
+		{
+			throw new IllegalArgumentException("Parameter indexes start at 1.");
+		}
+
+		int slot = parameterIndex - 1;
+		if (slot >= kinds.length)
+		{
+			int capacity = Math.max(kinds.length * 2, parameterIndex);
+			kinds = Arrays.copyOf(kinds, capacity);
+			longs = Arrays.copyOf(longs, capacity);
+			doubles = Arrays.copyOf(doubles, capacity);
+			objects = Arrays.copyOf(objects, capacity);
+		}
+
+		kinds[slot] = kind;
+		objects[slot] = null;
+		size = Math.max(size, parameterIndex);
+		return slot;
+	}
+}
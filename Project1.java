@@ -6,6 +6,12 @@
  * by Austin Cathey and Ankit Verma
  */
 
+// Imports
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
 /**
  * 
  * @author thepe_000
@@ -20,6 +26,7 @@ public class Project1
 		"Delete a customer from the database",
 		"Show internal database information",
 		"Enter valid SELECT/UPDATE/INSERT/DELETE SQL command",
+		"Show query metrics",
 		"Switch database user",
 		"Exit the program"
 	};
@@ -31,35 +38,154 @@ public class Project1
 	public static final int MENU_DELETE_CUSTOMER = 4;
 	public static final int MENU_SHOW_METADATA = 5;
 	public static final int MENU_ENTER_VALID_SQL = 6;
-	public static final int MENU_SWITCH_DB_USER = 7;
+	public static final int MENU_SHOW_QUERY_METRICS = 7;
+	public static final int MENU_SWITCH_DB_USER = 8;
 	public static final int MENU_QUIT = Project1.menuOptions.length;
 	
+	// Set this system property to "background" to show the menu while connecting.
+	public static final String STARTUP_PROPERTY = "project1.startup";
+	
+	// Set this system property to true to exit as soon as startup finishes.
+	// The AppCDS archive is built from a run like this.
+	public static final String TRAINING_RUN_PROPERTY = "project1.startup.trainingRun";
+	
 	/**
 	 * Entry point.
 	 * 
-	 * @param args The command line arguments, separated by a space.
+	 * @param args The command line arguments, separated by a space: the username and password,
+	 *             optionally preceded by --script and a script of menu commands to run
+	 *             instead of showing the menu (- reads the script from standard input),
+	 *             or by --serve and a port to serve queries over HTTP instead (see QueryServer).
 	 */
 	public static void main(String[] args) throws Exception
 	{
+		final StartupTimeline timeline = StartupTimeline.getShared();
+		timeline.mark("main() entered");
+		boolean background = "background".equalsIgnoreCase(System.getProperty(Project1.STARTUP_PROPERTY));
+		boolean trainingRun = Boolean.getBoolean(Project1.TRAINING_RUN_PROPERTY);
+		
+		// Load the driver while the user is typing their password.
+		if (background)
+		{
+			Thread driverLoader = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					JdbcWrapper.registerDriver();
+					timeline.mark("driver registered");
+				}
+			}, "Project1-driver");
+			driverLoader.setDaemon(true);
+			driverLoader.start();
+		}
+		
+		// Run a script of menu commands instead of showing the menu, if one was given.
+		ScriptRunner script = null;
+		if (args.length > 0 && args[0].equals("--script"))
+		{
+			if (args.length < 2)
+			{
+				System.out.println("Usage: Project1 [--script file] [username [password]]");
+				return;
+			}
+			script = ScriptRunner.open(args[1], Project1.menuOptions.length);
+			args = Arrays.copyOfRange(args, 2, args.length);
+		}
+		
+		// Serve queries over HTTP instead of showing the menu, if a port was given.
+		if (args.length > 0 && args[0].equals("--serve"))
+		{
+			int port;
+			try
+			{
+				port = Integer.parseInt(args.length > 1 ? args[1] : "");
+			}
+			catch (NumberFormatException ex)
+			{
+				System.out.println("Usage: Project1 --serve port [username [password]]");
+				return;
+			}
+			
+			String[] credentials = JdbcWrapper.getUsernameAndPassword(Arrays.copyOfRange(args, 2, args.length));
+			final QueryServer server = QueryServer.start(credentials[0], credentials[1], port);
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					server.stop(1);
+					JdbcWrapper.closeAllPools();
+					System.out.println(server);
+				}
+			}, "Project1-shutdown"));
+			
+			// The server's own thread keeps the program running until it's stopped.
+			System.out.println("Serving queries on port " + server.getPort() + " with " +
+					(server.usesVirtualThreads() ? "virtual threads" : "platform threads") + ".  Press Ctrl+C to stop.");
+			return;
+		}
+		
 		int choice = Project1.MENU_SWITCH_DB_USER;
 		String[] userPass = JdbcWrapper.getUsernameAndPassword(args);
-		DBHandler dbHandler;
+		timeline.mark("credentials entered");
+		boolean starting = true;
 		
 		// Keep running this loop until the user decides to quit.
 		while (!Project1.isQuitting(choice))
 		{
-			// Connect to the DBMS.
-			dbHandler = new DBHandler(JdbcWrapper.getConnection(userPass[0], userPass[1]));
-			System.out.print("Connected to DBMS: ");
-			System.out.print(dbHandler.getConnection().getMetaData().getDatabaseProductName() + " v");
-			System.out.println(dbHandler.getConnection().getMetaData().getDatabaseProductVersion());
-			System.out.println();
+			// Only the first connection is part of startup.
+			final StartupTimeline marks = starting ? timeline : null;
+			final String[] credentials = userPass;
+			DeferredHandler deferred = null;
+			DBHandler dbHandler = null;
+			MenuHandler handler;
+			
+			// Connect to the DBMS, either now or while the menu is up.
+			if (background)
+			{
+				deferred = new DeferredHandler(new Callable<DBHandler>()
+				{
+					@Override
+					public DBHandler call()
+					{
+						return Project1.connect(credentials[0], credentials[1], marks);
+					}
+				});
+				handler = deferred;
+			}
+			else
+			{
+				dbHandler = Project1.connect(credentials[0], credentials[1], marks);
+				Project1.printConnectionInfo(dbHandler);
+				handler = dbHandler;
+			}
+			
+			// A training run stops here, once the startup classes have all been loaded.
+			if (trainingRun)
+			{
+				(deferred != null ? deferred.get() : dbHandler).kill();
+				break;
+			}
 			
 			// This is where the fun starts.
 			try
 			{
+				if (starting)
+				{
+					timeline.mark("menu shown");
+					starting = false;
+				}
+				
 				// Stay in the main menu if that's what we should be doing.
-				while ((choice = mainMenu(dbHandler)) >= 0) {}
+				if (script != null)
+				{
+					while ((choice = script.runNext(handler, Project1.MENU_QUIT)) >= 0) {}
+				}
+				else
+				{
+					while ((choice = mainMenu(handler)) >= 0) {}
+				}
 			}
 			
 			// Okay, we're out of the main menu, so that means
@@ -68,26 +194,131 @@ public class Project1
 			finally
 			{
 				// Close the connection and allow this object to be eligible for GC.
-				dbHandler.kill();
+				(deferred != null ? deferred.get() : dbHandler).kill();
 				dbHandler = null;
+				deferred = null;
 				
 				// If we need to switch users, then go ahead and do that.
 				if (Math.abs(choice) == Project1.MENU_SWITCH_DB_USER)
 				{
-					userPass = JdbcWrapper.getUsernameAndPassword((String [])null);
+					try
+					{
+						userPass = JdbcWrapper.getUsernameAndPassword((String [])null);
+					}
+					
+					// The script's line didn't say who to switch to.  Count the command
+					// as failed and carry on with the script as the same user.
+					catch (IllegalStateException ex)
+					{
+						if (script == null)
+						{
+							throw ex;
+						}
+						script.failLastCommand(ex.getMessage());
+					}
 				}
 			}
 		}
+		
+		// We're leaving, so close every pooled connection.
+		JdbcWrapper.closeAllPools();
+		
+		if (script != null)
+		{
+			script.printSummary(System.err, Project1.menuOptions);
+			script.close();
+		}
+		
+		if (trainingRun || timeline.isDetailed())
+		{
+			timeline.print(System.out);
+		}
+	}
+	
+	/**
+	 * Connects to the DBMS and gets a handler ready for the menu: registers the driver,
+	 * connects, loads the star name index and prepares the menu's statements.
+	 * 
+	 * @param username The DBMS username.
+	 * @param password The DBMS password.
+	 * @param timeline Where to mark each step as it finishes, or null to not mark them.
+	 * @return The handler.
+	 */
+	static DBHandler connect(String username, String password, StartupTimeline timeline)
+	{
+		return Project1.connect(username, password, timeline, true);
+	}
+	
+	/**
+	 * Connects to the DBMS and gets a handler ready, optionally without the star name index,
+	 * for a handler that will share another one's index.
+	 * 
+	 * @param username The DBMS username.
+	 * @param password The DBMS password.
+	 * @param timeline Where to mark each step as it finishes, or null to not mark them.
+	 * @param loadIndex True to load the star name index.
+	 * @return The handler.
+	 */
+	static DBHandler connect(String username, String password, StartupTimeline timeline, boolean loadIndex)
+	{
+		JdbcWrapper.registerDriver();
+		Project1.mark(timeline, "driver ready");
+		
+		// Reads go to the read replicas, if any are configured.
+		DBHandler handler = new DBHandler(JdbcWrapper.getConnection(username, password),
+				JdbcWrapper.getRoutingDataSource(username, password),
+				DBHandler.DEFAULT_ENTITY_CACHE_SIZE);
+		Project1.mark(timeline, "connected");
+		
+		// Load the star names so that name searches don't need the DBMS.
+		if (loadIndex)
+		{
+			handler.loadStarNameIndex();
+			Project1.mark(timeline, "first query (star name index)");
+		}
+		
+		handler.warmUpStatements();
+		Project1.mark(timeline, "statements prepared");
+		return handler;
+	}
+	
+	/**
+	 * Prints which DBMS a handler is connected to.
+	 * 
+	 * @param handler The handler.
+	 */
+	static void printConnectionInfo(DBHandler handler)
+	{
+		try
+		{
+			DatabaseMetaData meta = handler.getConnection().getMetaData();
+			System.out.print("Connected to DBMS: ");
+			System.out.print(meta.getDatabaseProductName() + " v");
+			System.out.println(meta.getDatabaseProductVersion());
+			System.out.println();
+		}
+		catch (SQLException ex)
+		{
+			System.out.println(ex.getMessage());
+		}
+	}
+	
+	private static void mark(StartupTimeline timeline, String step)
+	{
+		if (timeline != null)
+		{
+			timeline.mark(step);
+		}
 	}
 	
 	/**
 	 * The main menu.  All menu actions are deployed in this method.
 	 * 
-	 * @param connection The DBMS connection.
+	 * @param handler The handler for the menu options.
 	 * 
 	 * @return A positive value if the menu should keep running, otherwise false.
 	 */
-	public static int mainMenu(DBHandler handler)
+	public static int mainMenu(MenuHandler handler)
 	{
 		// Complain if the handler is null.
 		if (handler == null)
@@ -0,0 +1,132 @@
+/*
+ * QueryCanceller.java
+ *
+ * Lets the user cancel a running statement with Ctrl-C.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+// Imports
+import java.lang.reflect.*;
+import java.sql.*;
+
+/**
+ * While armed, Ctrl-C cancels a statement with Statement.cancel() instead of ending the
+ * program.  The previous Ctrl-C behavior comes back when the canceller is closed.
+ * If the JVM doesn't let us handle Ctrl-C, the canceller does nothing.
+ * <p>
+ * sun.misc.Signal is reached through reflection, since it isn't a public API.
+ *
+ * @author Austin Cathey
+ */
+public class QueryCanceller implements AutoCloseable
+{
+	// The statement to cancel.
+	private final Statement statement;
+
+	// The Ctrl-C handler that was in place before we were armed.
+	private Object previous;
+
+	// Set once Ctrl-C has been pressed.
+	private volatile boolean cancelled;
+
+	/**
+	 * Arms Ctrl-C to cancel a statement.
+	 *
+	 * @param statement The statement to cancel.
+	 */
+	public QueryCanceller(Statement statement)
+	{
+		this.statement = statement;
+
+		try
+		{
+			Class<?> handlerClass = Class.forName("sun.misc.SignalHandler");
+			Object handler = Proxy.newProxyInstance(handlerClass.getClassLoader(), new Class<?>[] { handlerClass }, new InvocationHandler()
+			{
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args)
+				{
+					if (method.getName().equals("hashCode"))
+					{
+						return System.identityHashCode(proxy);
+					}
+					else if (method.getName().equals("equals"))
+					{
+						return proxy == args[0];
+					}
+					else if (method.getName().equals("toString"))
+					{
+						return "QueryCanceller";
+					}
+					
+					// This is handle(Signal).
+					cancel();
+					return null;
+				}
+			});
+			previous = setInterruptHandler(handler);
+		}
+		catch (Throwable ex)
+		{
+			previous = null;
+		}
+	}
+
+	/**
+	 * Cancels the statement.
+	 */
+	public void cancel()
+	{
+		cancelled = true;
+		try
+		{
+			statement.cancel();
+		}
+		catch (SQLException ex)
+		{
+			System.out.println("Error canceling statement: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Checks whether the statement was canceled.
+	 */
+	public boolean isCancelled()
+	{
+		return cancelled;
+	}
+
+	/**
+	 * Puts the previous Ctrl-C behavior back.
+	 */
+	@Override
+	public void close()
+	{
+		if (previous != null)
+		{
+			try
+			{
+				setInterruptHandler(previous);
+			}
+			catch (Throwable ex)
+			{
+			}
+			previous = null;
+		}
+	}
+	
+	/**
+	 * Installs a Ctrl-C handler.
+	 *
+	 * @param handler A sun.misc.SignalHandler.
+	 * @return The handler that was replaced.
+	 */
+	private static Object setInterruptHandler(Object handler) throws Exception
+	{
+		Class<?> signalClass = Class.forName("sun.misc.Signal");
+		Class<?> handlerClass = Class.forName("sun.misc.SignalHandler");
+		Object signal = signalClass.getConstructor(String.class).newInstance("INT");
+		return signalClass.getMethod("handle", signalClass, handlerClass).invoke(null, signal, handler);
+	}
+}
@@ -0,0 +1,295 @@
+/*
+ * QueryMetrics.java
+ *
+ * Latency and row counts for each statement DBHandler runs.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+// Imports
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Collects timings for each statement, keyed by its SQL text.  Every statement has
+ * a latency histogram for each phase: preparing it (including binding parameters),
+ * executing it, and mapping its results to objects.  The metrics can be printed as a
+ * table or written as JSON.
+ *
+ * @author Austin Cathey
+ */
+public class QueryMetrics
+{
+	// The percentiles that are reported.
+	private static final double[] PERCENTILES = {50.0, 99.0, 99.9};
+
+	// The metrics used by DBHandler.
+	private static final QueryMetrics shared = new QueryMetrics();
+
+	// Metrics for each statement, sorted by SQL text.
+	private final ConcurrentMap<String, StatementMetrics> statements = new ConcurrentSkipListMap<String, StatementMetrics>();
+
+	/**
+	 * The timings for a single statement.
+	 */
+	public static class StatementMetrics
+	{
+		private final String sql;
+		private final LatencyHistogram prepare = new LatencyHistogram();
+		private final LatencyHistogram execute = new LatencyHistogram();
+		private final LatencyHistogram mapping = new LatencyHistogram();
+		private final LongAdder rows = new LongAdder();
+
+		private StatementMetrics(String sql)
+		{
+			this.sql = sql;
+		}
+
+		/**
+		 * Records the time spent getting the statement ready to run.
+		 *
+		 * @param nanos The time spent preparing and binding, in nanoseconds.
+		 */
+		public void recordPrepare(long nanos)
+		{
+			prepare.record(nanos);
+		}
+
+		/**
+		 * Records the time spent running the statement.
+		 *
+		 * @param nanos The time spent in executeQuery() or executeUpdate(), in nanoseconds.
+		 */
+		public void recordExecute(long nanos)
+		{
+			execute.record(nanos);
+		}
+
+		/**
+		 * Records the time spent turning the results into objects.
+		 *
+		 * @param nanos The time spent reading results, in nanoseconds.
+		 * @param rowCount The number of rows read or updated.
+		 */
+		public void recordMapping(long nanos, long rowCount)
+		{
+			mapping.record(nanos);
+			rows.add(rowCount);
+		}
+
+		public String getSQL()
+		{
+			return sql;
+		}
+
+		public LatencyHistogram getPrepare()
+		{
+			return prepare;
+		}
+
+		public LatencyHistogram getExecute()
+		{
+			return execute;
+		}
+
+		public LatencyHistogram getMapping()
+		{
+			return mapping;
+		}
+
+		/**
+		 * Gets the number of times the statement was executed.
+		 */
+		public long getCalls()
+		{
+			return execute.getCount();
+		}
+
+		public long getRows()
+		{
+			return rows.sum();
+		}
+	}
+
+	/**
+	 * Gets the metrics used by DBHandler.
+	 */
+	public static QueryMetrics getShared()
+	{
+		return shared;
+	}
+
+	/**
+	 * Gets the metrics for a statement, creating them the first time it's seen.
+	 *
+	 * @param sql The statement's SQL text.
+	 * @return The statement's metrics.
+	 */
+	public StatementMetrics forStatement(String sql)
+	{
+		StatementMetrics metrics = statements.get(sql);
+		if (metrics == null)
+		{
+			StatementMetrics created = new StatementMetrics(sql);
+			metrics = statements.putIfAbsent(sql, created);
+			if (metrics == null)
+			{
+				metrics = created;
+			}
+		}
+		return metrics;
+	}
+
+	/**
+	 * Forgets every statement's metrics.
+	 */
+	public void clear()
+	{
+		statements.clear();
+	}
+
+	public boolean isEmpty()
+	{
+		return statements.isEmpty();
+	}
+
+	/**
+	 * Prints a table of every statement's call count, rows, and latency percentiles in milliseconds.
+	 *
+	 * @param out Where to print the table.
+	 * @param sqlWidth The most characters of each statement's SQL to show.
+	 */
+	public void printReport(PrintStream out, int sqlWidth)
+	{
+		if (statements.isEmpty())
+		{
+			out.println("No statements have been run yet.");
+			return;
+		}
+
+		String format = "%-" + sqlWidth + "s  %-8s %8s %9s %10s %10s %10s%n";
+		out.printf(format, "Statement", "Phase", "Calls", "Rows", "p50 ms", "p99 ms", "p99.9 ms");
+		out.println(StringUtilities.repeat("-", sqlWidth + 62));
+
+		for (StatementMetrics metrics : statements.values())
+		{
+			String label = StringUtilities.truncate(metrics.getSQL().replaceAll("\\s+", " ").trim(), sqlWidth);
+			String calls = Long.toString(metrics.getCalls());
+			String rows = Long.toString(metrics.getRows());
+			printPhase(out, format, label, "prepare", calls, rows, metrics.getPrepare());
+			printPhase(out, format, "", "execute", "", "", metrics.getExecute());
+			printPhase(out, format, "", "map", "", "", metrics.getMapping());
+		}
+	}
+
+	/**
+	 * Prints one row of the report.
+	 */
+	private static void printPhase(PrintStream out, String format, String label, String phase,
+			String calls, String rows, LatencyHistogram histogram)
+	{
+		Object[] columns = new Object[4 + PERCENTILES.length];
+		columns[0] = label;
+		columns[1] = phase;
+		columns[2] = calls;
+		columns[3] = rows;
+		for (int index = 0; index < PERCENTILES.length; index++)
+		{
+			columns[4 + index] = String.format("%.3f", histogram.getValueAtPercentile(PERCENTILES[index]) / 1e6);
+		}
+		out.printf(format, columns);
+	}
+
+	/**
+	 * Gets every statement's metrics as JSON.  Latencies are in microseconds.
+	 *
+	 * @return A JSON object with a "statements" array.
+	 */
+	public String toJson()
+	{
+		StringBuilder json = new StringBuilder();
+		json.append("{\"generatedAt\":").append(System.currentTimeMillis()).append(",\"statements\":[");
+
+		boolean first = true;
+		for (StatementMetrics metrics : statements.values())
+		{
+			if (!first)
+			{
+				json.append(',');
+			}
+			first = false;
+
+			json.append("{\"sql\":").append(quote(metrics.getSQL()));
+			json.append(",\"calls\":").append(metrics.getCalls());
+			json.append(",\"rows\":").append(metrics.getRows());
+			appendPhase(json, "prepare", metrics.getPrepare());
+			appendPhase(json, "execute", metrics.getExecute());
+			appendPhase(json, "map", metrics.getMapping());
+			json.append('}');
+		}
+
+		return json.append("]}").toString();
+	}
+
+	/**
+	 * Writes every statement's metrics to a file as JSON.
+	 *
+	 * @param file The file to write.
+	 */
+	public void writeJson(File file) throws IOException
+	{
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try
+		{
+			writer.write(toJson());
+			writer.write(System.lineSeparator());
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	/**
+	 * Appends one phase's histogram summary to a JSON object.
+	 */
+	private static void appendPhase(StringBuilder json, String phase, LatencyHistogram histogram)
+	{
+		json.append(",\"").append(phase).append("\":{");
+		json.append("\"count\":").append(histogram.getCount());
+		json.append(",\"meanMicros\":").append(String.format(Locale.ROOT, "%.1f", histogram.getMean() / 1e3));
+		json.append(",\"p50Micros\":").append(histogram.getValueAtPercentile(50.0) / 1000);
+		json.append(",\"p99Micros\":").append(histogram.getValueAtPercentile(99.0) / 1000);
+		json.append(",\"p999Micros\":").append(histogram.getValueAtPercentile(99.9) / 1000);
+		json.append(",\"maxMicros\":").append(histogram.getMax() / 1000);
+		json.append('}');
+	}
+
+	/**
+	 * Quotes a string for JSON.
+	 */
+	static String quote(String s)
+	{
+		StringBuilder quoted = new StringBuilder(s.length() + 2);
+		quoted.append('"');
+		for (int index = 0; index < s.length(); index++)
+		{
+			char c = s.charAt(index);
+			if (c == '"' || c == '\\')
+			{
+				quoted.append('\\').append(c);
+			}
+			else if (c < 0x20)
+			{
+				quoted.append(String.format("\\u%04x", (int)c));
+			}
+			else
+			{
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+}
@@ -0,0 +1,516 @@
+/*
+ * QueryServer.java
+ *
+ * Serves the star and movie lookups over HTTP as JSON.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+// Imports
+import java.io.*;
+import java.lang.reflect.Method;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import com.sun.net.httpserver.*;
+
+/**
+ * A small HTTP server for the DBHandler operations, so that many clients can use them
+ * at once instead of one user at the console.  The endpoints are:
+ *
+ *   GET  /stars?first=&last=     Stars with that name.  Either name may be left out.
+ *   GET  /stars/{id}/movies      A star and the movies they've been in.
+ *   POST /stars                  Adds a star: first, last, dob (yyyy-mm-dd) and photo.
+ *   POST /customers              Adds a customer: first, last, address, email, password and cc.
+ *   GET  /metrics                Request counts and latencies, and the statement metrics.
+ *
+ * POST bodies are form encoded.  Every response is JSON, and errors are {"error": "..."}.
+ *
+ * Each request runs on its own virtual thread when the JVM has them (Java 21 and up),
+ * and on a cached thread pool otherwise.  DBHandlers aren't thread safe, so the server
+ * keeps a fixed set of them, each with its own connection and statement cache, and a
+ * request borrows one for as long as it needs it.  The handlers share one star name
+ * index, so it's only loaded and kept in memory once.
+ *
+ * Admission control bounds the number of requests in the server at once: past that,
+ * requests are turned away with 503 right away rather than queueing without limit.
+ *
+ * Settings come from system properties:
+ *   project1.http.handlers     The number of DBHandlers (default and most one less than the connection pool size).
+ *   project1.http.maxInFlight  The most requests admitted at once (default 512).
+ *
+ * @author Austin Cathey
+ */
+public class QueryServer
+{
+	// System properties and their defaults.
+	public static final String HANDLERS_PROPERTY = "project1.http.handlers";
+	public static final String MAX_IN_FLIGHT_PROPERTY = "project1.http.maxInFlight";
+	public static final int DEFAULT_HANDLERS = ConnectionPool.DEFAULT_MAX_SIZE - 1;
+	public static final int DEFAULT_MAX_IN_FLIGHT = 512;
+
+	// How long an admitted request waits for a handler before giving up with 503.
+	public static final long HANDLER_WAIT_MILLIS = 5000;
+
+	// The largest request body accepted.
+	private static final int MAX_BODY_BYTES = 64 * 1024;
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final boolean virtualThreads;
+
+	// Handlers that aren't serving a request.
+	private final BlockingQueue<DBHandler> idle;
+	private final List<DBHandler> handlers;
+
+	// Permits for the requests allowed in the server at once.
+	private final Semaphore admission;
+	private final int maxInFlight;
+
+	// Request counts and latencies.
+	private final AtomicLong served = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	/**
+	 * Thrown when an admitted request couldn't get a handler in time.
+	 */
+	private static class BusyException extends Exception
+	{
+		private static final long serialVersionUID = 1L;
+	}
+
+	/**
+	 * Something a request does with a handler.
+	 */
+	private abstract static class Operation
+	{
+		/**
+		 * @return The response body, or null if what was asked for doesn't exist.
+		 */
+		abstract String run(DBHandler handler);
+	}
+
+	/**
+	 * Constructor for the query server.  The server doesn't accept requests until start() is called.
+	 *
+	 * @param port The port to listen on.
+	 * @param handlers The handlers to serve requests with.  The server closes them when it stops.
+	 * @param maxInFlight The most requests admitted at once.
+	 */
+	public QueryServer(int port, List<DBHandler> handlers, int maxInFlight) throws IOException
+	{
+		if (handlers.isEmpty() || maxInFlight < 1)
+		{
+			throw new IllegalArgumentException("The server needs at least one handler and one request permit.");
+		}
+
+		this.handlers = new ArrayList<DBHandler>(handlers);
+		this.idle = new ArrayBlockingQueue<DBHandler>(handlers.size(), false, handlers);
+		this.maxInFlight = maxInFlight;
+		this.admission = new Semaphore(maxInFlight);
+		for (DBHandler handler : handlers)
+		{
+			handler.setExitOnError(false);
+			handler.shareStarNameIndex(handlers.get(0));
+		}
+
+		ExecutorService virtual = QueryServer.newVirtualThreadExecutor();
+		this.virtualThreads = (virtual != null);
+		this.executor = virtualThreads ? virtual : Executors.newCachedThreadPool(new ThreadFactory()
+		{
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "QueryServer-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		server = HttpServer.create(new InetSocketAddress(port), maxInFlight);
+		server.setExecutor(executor);
+		server.createContext("/", new HttpHandler()
+		{
+			@Override
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				serve(exchange);
+			}
+		});
+	}
+
+	/**
+	 * Makes a virtual thread per task executor, if this JVM has virtual threads.
+	 * The build targets Java 17, so they're looked up at run time.
+	 *
+	 * @return The executor, or null if virtual threads aren't available.
+	 */
+	private static ExecutorService newVirtualThreadExecutor()
+	{
+		try
+		{
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)method.invoke(null);
+		}
+		catch (Exception ex)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Connects the handlers for a user and starts serving.  Only the first handler loads the
+	 * star name index; the constructor shares it with the rest.  There can't be more handlers
+	 * than the connection pool has connections to spare, or connecting the last ones would
+	 * wait for a connection that never comes back.
+	 *
+	 * @param username The DBMS username.
+	 * @param password The DBMS password.
+	 * @param port The port to listen on.
+	 * @return The running server.
+	 */
+	public static QueryServer start(String username, String password, int port) throws IOException
+	{
+		int count = Math.max(1, Integer.getInteger(HANDLERS_PROPERTY, DEFAULT_HANDLERS));
+		if (count > DEFAULT_HANDLERS)
+		{
+			System.out.println("Only " + DEFAULT_HANDLERS + " handlers fit in the connection pool, so " + count + " can't be used.");
+			count = DEFAULT_HANDLERS;
+		}
+
+		List<DBHandler> handlers = new ArrayList<DBHandler>();
+		for (int index = 0; index < count; index++)
+		{
+			handlers.add(Project1.connect(username, password, null, index == 0));
+		}
+
+		QueryServer server = new QueryServer(port, handlers, Integer.getInteger(MAX_IN_FLIGHT_PROPERTY, DEFAULT_MAX_IN_FLIGHT));
+		server.start();
+		return server;
+	}
+
+	public void start()
+	{
+		server.start();
+	}
+
+	/**
+	 * Stops accepting requests, waits for the ones being served, and closes the handlers.
+	 *
+	 * @param delaySeconds The longest to wait for requests being served.
+	 */
+	public void stop(int delaySeconds)
+	{
+		server.stop(delaySeconds);
+		executor.shutdown();
+		for (DBHandler handler : handlers)
+		{
+			handler.kill();
+		}
+	}
+
+	public int getPort()
+	{
+		return server.getAddress().getPort();
+	}
+
+	public boolean usesVirtualThreads()
+	{
+		return virtualThreads;
+	}
+
+	/**
+	 * Admits a request, or turns it away if the server is full.
+	 */
+	private void serve(HttpExchange exchange) throws IOException
+	{
+		long start = System.nanoTime();
+		try
+		{
+			if (!admission.tryAcquire())
+			{
+				rejected.incrementAndGet();
+				exchange.getResponseHeaders().set("Retry-After", "1");
+				send(exchange, 503, error("The server is busy."));
+				return;
+			}
+
+			try
+			{
+				route(exchange);
+				served.incrementAndGet();
+			}
+			finally
+			{
+				admission.release();
+			}
+		}
+		catch (BusyException ex)
+		{
+			rejected.incrementAndGet();
+			exchange.getResponseHeaders().set("Retry-After", "1");
+			send(exchange, 503, error("Every handler is busy."));
+		}
+		catch (IllegalArgumentException ex)
+		{
+			failed.incrementAndGet();
+			send(exchange, 400, error(ex.getMessage()));
+		}
+		catch (RuntimeException ex)
+		{
+			failed.incrementAndGet();
+			send(exchange, 500, error(ex.getMessage() != null ? ex.getMessage() : ex.toString()));
+		}
+		finally
+		{
+			latency.record(System.nanoTime() - start);
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Runs the endpoint a request is for.
+	 */
+	private void route(HttpExchange exchange) throws IOException, BusyException
+	{
+		String method = exchange.getRequestMethod();
+		String[] path = exchange.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/");
+
+		if (path[0].equals("stars") && path.length == 1)
+		{
+			if (method.equals("GET"))
+			{
+				final Map<String, String> query = parseForm(exchange.getRequestURI().getRawQuery());
+				respond(exchange, 200, new Operation()
+				{
+					@Override
+					String run(DBHandler handler)
+					{
+						return handler.findStarsAsJson(query.get("first"), query.get("last"));
+					}
+				});
+			}
+			else if (method.equals("POST"))
+			{
+				final Map<String, String> form = parseForm(readBody(exchange));
+				final java.sql.Date dob = parseDate(form.get("dob"));
+				respond(exchange, 201, new Operation()
+				{
+					@Override
+					String run(DBHandler handler)
+					{
+						return handler.insertStarAsJson(form.get("first"), form.get("last"), dob, form.get("photo"));
+					}
+				});
+			}
+			else
+			{
+				send(exchange, 405, error("Use GET or POST."));
+			}
+		}
+		else if (path[0].equals("stars") && path.length == 3 && path[2].equals("movies") && method.equals("GET"))
+		{
+			final int id = parseId(path[1]);
+			respond(exchange, 200, new Operation()
+			{
+				@Override
+				String run(DBHandler handler)
+				{
+					return handler.getFilmographyAsJson(id);
+				}
+			});
+		}
+		else if (path[0].equals("customers") && path.length == 1 && method.equals("POST"))
+		{
+			final Map<String, String> form = parseForm(readBody(exchange));
+			respond(exchange, 201, new Operation()
+			{
+				@Override
+				String run(DBHandler handler)
+				{
+					return handler.insertCustomerAsJson(form.get("first"), form.get("last"), form.get("address"),
+							form.get("email"), form.get("password"), form.get("cc"));
+				}
+			});
+		}
+		else if (path[0].equals("metrics") && path.length == 1 && method.equals("GET"))
+		{
+			send(exchange, 200, toJson());
+		}
+		else
+		{
+			send(exchange, 404, error("No such endpoint."));
+		}
+	}
+
+	/**
+	 * Runs an operation with a handler and sends what it returns.
+	 *
+	 * @param status The status to send if the operation finds what was asked for.
+	 */
+	private void respond(HttpExchange exchange, int status, Operation operation) throws IOException, BusyException
+	{
+		DBHandler handler;
+		try
+		{
+			handler = idle.poll(HANDLER_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new BusyException();
+		}
+		if (handler == null)
+		{
+			throw new BusyException();
+		}
+
+		String body;
+		try
+		{
+			body = operation.run(handler);
+		}
+		finally
+		{
+			idle.add(handler);
+		}
+
+		if (body == null)
+		{
+			send(exchange, 404, error("Not found."));
+		}
+		else
+		{
+			send(exchange, status, body);
+		}
+	}
+
+	/**
+	 * Sends a JSON response.
+	 */
+	private static void send(HttpExchange exchange, int status, String json) throws IOException
+	{
+		byte[] bytes = json.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+	private static String error(String message)
+	{
+		return "{\"error\":" + QueryMetrics.quote(message) + "}";
+	}
+
+	/**
+	 * Reads a request body, up to MAX_BODY_BYTES.
+	 */
+	private static String readBody(HttpExchange exchange) throws IOException
+	{
+		InputStream in = exchange.getRequestBody();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) >= 0)
+		{
+			body.write(buffer, 0, read);
+			if (body.size() > MAX_BODY_BYTES)
+			{
+				throw new IllegalArgumentException("The request body is too large.");
+			}
+		}
+		return body.toString("UTF-8");
+	}
+
+	/**
+	 * Parses a form encoded query string or body.
+	 *
+	 * @param form The form, or null.
+	 * @return The fields.  Repeated fields keep the last value.
+	 */
+	private static Map<String, String> parseForm(String form) throws UnsupportedEncodingException
+	{
+		Map<String, String> fields = new HashMap<String, String>();
+		if (form == null || form.length() < 1)
+		{
+			return fields;
+		}
+
+		for (String pair : form.split("&"))
+		{
+			int equals = pair.indexOf('=');
+			String name = (equals < 0) ? pair : pair.substring(0, equals);
+			String value = (equals < 0) ? "" : pair.substring(equals + 1);
+			fields.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+		}
+		return fields;
+	}
+
+	private static int parseId(String id)
+	{
+		try
+		{
+			return Integer.parseInt(id);
+		}
+		catch (NumberFormatException ex)
+		{
+			throw new IllegalArgumentException("'" + id + "' isn't a valid ID.");
+		}
+	}
+
+	/**
+	 * Parses a yyyy-mm-dd date.
+	 *
+	 * @return The date, or null if it's blank.
+	 */
+	private static java.sql.Date parseDate(String date)
+	{
+		if (date == null || date.trim().length() < 1)
+		{
+			return null;
+		}
+
+		try
+		{
+			return java.sql.Date.valueOf(date.trim());
+		}
+		catch (IllegalArgumentException ex)
+		{
+			throw new IllegalArgumentException("'" + date + "' isn't a yyyy-mm-dd date.");
+		}
+	}
+
+	/**
+	 * Gets the request counts and latencies, and the statement metrics, as JSON.  Latencies are in microseconds.
+	 */
+	public String toJson()
+	{
+		return "{\"server\":{" +
+				"\"virtualThreads\":" + virtualThreads +
+				",\"handlers\":" + handlers.size() +
+				",\"idleHandlers\":" + idle.size() +
+				",\"maxInFlight\":" + maxInFlight +
+				",\"inFlight\":" + (maxInFlight - admission.availablePermits()) +
+				",\"served\":" + served.get() +
+				",\"rejected\":" + rejected.get() +
+				",\"failed\":" + failed.get() +
+				",\"p50\":" + latency.getValueAtPercentile(50.0) / 1000 +
+				",\"p99\":" + latency.getValueAtPercentile(99.0) / 1000 +
+				",\"max\":" + latency.getMax() / 1000 +
+				"},\"queries\":" + QueryMetrics.getShared().toJson() + "}";
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("Query server on port %d (%s): %d served, %d rejected, %d failed",
+				getPort(), virtualThreads ? "virtual threads" : "platform threads",
+				served.get(), rejected.get(), failed.get());
+	}
+}
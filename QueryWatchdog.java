@@ -0,0 +1,146 @@
+/*
+ * QueryWatchdog.java
+ *
+ * Cancels statements that run past their time budget.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+// Imports
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.sql.*;
+
+/**
+ * Enforces a time budget on a statement.  The budget is passed to the driver with
+ * setQueryTimeout(), and a watchdog thread also calls Statement.cancel() once the
+ * deadline passes, in case the driver doesn't notice in time or the time is spent
+ * reading results.
+ *
+ * @author Austin Cathey
+ */
+public class QueryWatchdog
+{
+	// One daemon thread watches every deadline.
+	private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+	{
+		@Override
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, "QueryWatchdog");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	// A deadline's states.  A deadline starts armed and moves to exactly one of the others.
+	private static final int ARMED = 0;
+	private static final int DISARMED = 1;
+	private static final int FIRED = 2;
+
+	/**
+	 * A statement's deadline.
+	 */
+	public static class Deadline
+	{
+		private final long budgetMillis;
+		private final AtomicInteger state = new AtomicInteger(ARMED);
+		private ScheduledFuture<?> future;
+
+		private Deadline(long budgetMillis)
+		{
+			this.budgetMillis = budgetMillis;
+		}
+
+		/**
+		 * Checks whether the watchdog canceled the statement.
+		 */
+		public boolean hasFired()
+		{
+			return state.get() == FIRED;
+		}
+
+		public long getBudgetMillis()
+		{
+			return budgetMillis;
+		}
+	}
+
+	/**
+	 * Starts the clock on a statement.  Call disarm() once the statement and its results are done with.
+	 *
+	 * @param statement The statement to watch.
+	 * @param budgetMillis How long the statement may take.
+	 * @return The statement's deadline.
+	 */
+	public static Deadline arm(final Statement statement, long budgetMillis) throws SQLException
+	{
+		final Deadline deadline = new Deadline(budgetMillis);
+
+		// The driver's timeout is in whole seconds, so round up.
+		statement.setQueryTimeout((int)Math.max(1, (budgetMillis + 999) / 1000));
+		deadline.future = scheduler.schedule(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				// Holding the deadline's lock makes disarm() wait until the cancel is done.
+				synchronized (deadline)
+				{
+					if (!deadline.state.compareAndSet(ARMED, FIRED))
+					{
+						return;
+					}
+					try
+					{
+						statement.cancel();
+					}
+					catch (SQLException ex)
+					{
+					}
+				}
+			}
+		}, budgetMillis, TimeUnit.MILLISECONDS);
+
+		return deadline;
+	}
+
+	/**
+	 * Stops the clock.  Once this returns, the watchdog won't cancel the statement, so
+	 * it's safe to reuse it or its connection.  Cancelling the future alone isn't enough,
+	 * since the watchdog may already be running: a late cancel() would kill whatever
+	 * statement the connection runs next.
+	 *
+	 * @param deadline The deadline from arm().  Null is ignored.
+	 */
+	public static void disarm(Deadline deadline)
+	{
+		if (deadline == null)
+		{
+			return;
+		}
+
+		if (deadline.state.compareAndSet(ARMED, DISARMED))
+		{
+			deadline.future.cancel(false);
+			return;
+		}
+
+		// The watchdog fired first.  Wait for its cancel() to finish.
+		synchronized (deadline)
+		{
+		}
+	}
+
+	/**
+	 * Checks whether an exception means the statement ran out of time.
+	 *
+	 * @param ex The exception.
+	 * @param deadline The statement's deadline, or null.
+	 * @return True if the statement timed out, false otherwise.
+	 */
+	public static boolean isTimeout(SQLException ex, Deadline deadline)
+	{
+		return ex instanceof SQLTimeoutException || (deadline != null && deadline.hasFired());
+	}
+}
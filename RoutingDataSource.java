@@ -0,0 +1,429 @@
+/*
+ * RoutingDataSource.java
+ *
+ * Sends reads to read replicas and writes to the primary database.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+// Imports
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.sql.*;
+
+/**
+ * Routes connections between a primary database and any number of read replicas.
+ * Writes always go to the primary.  Reads are spread over the replicas round robin,
+ * skipping any replica that is down or has fallen too far behind the primary, and
+ * go to the primary when no replica is usable.
+ *
+ * A timer checks every replica in the background: a replica that can't be reached, or
+ * whose lag is over the limit, is taken out of rotation until a later check passes.
+ * A replica whose connection fails while it's being used is taken out right away.
+ *
+ * Connections are borrowed through JdbcWrapper, so they are handed back with
+ * JdbcWrapper.closeConnection() like any other connection.
+ *
+ * Settings come from system properties when JdbcWrapper builds the data source:
+ *   project1.replica.urls     Comma separated replica URLs (default none, so every read goes to the primary).
+ *   project1.replica.maxLag   The most a replica may lag, in seconds, and still serve reads (default 10).
+ *   project1.replica.checkMs  How often replicas are checked, in milliseconds (default 5000).
+ *
+ * @author Austin Cathey
+ */
+public class RoutingDataSource
+{
+	// System properties and their defaults.
+	public static final String REPLICA_URLS_PROPERTY = "project1.replica.urls";
+	public static final String MAX_LAG_PROPERTY = "project1.replica.maxLag";
+	public static final String CHECK_INTERVAL_PROPERTY = "project1.replica.checkMs";
+	public static final long DEFAULT_MAX_LAG_SECONDS = 10;
+	public static final long DEFAULT_CHECK_INTERVAL_MILLIS = 5000;
+
+	// Timer shared by all data sources to check their replicas.
+	private static final Timer healthTimer = new Timer("RoutingDataSource-health", true);
+
+	/**
+	 * Measures how far a replica is behind the primary.
+	 */
+	public interface LagProbe
+	{
+		/**
+		 * Gets a replica's lag.
+		 *
+		 * @param replica A connection to the replica.
+		 * @return The lag in seconds, or a negative number if the replica isn't replicating.
+		 */
+		long getLagSeconds(Connection replica) throws SQLException;
+	}
+
+	/**
+	 * Reads Seconds_Behind_Master from SHOW SLAVE STATUS.  A server with no replication
+	 * configured counts as up to date; one whose replication has stopped counts as not replicating.
+	 */
+	public static final LagProbe MYSQL_LAG_PROBE = new LagProbe()
+	{
+		@Override
+		public long getLagSeconds(Connection replica) throws SQLException
+		{
+			Statement statement = null;
+			ResultSet rs = null;
+			try
+			{
+				statement = replica.createStatement();
+				rs = statement.executeQuery("SHOW SLAVE STATUS");
+				if (!rs.next())
+				{
+					return 0;
+				}
+				long lag = rs.getLong("Seconds_Behind_Master");
+				return rs.wasNull() ? -1 : lag;
+			}
+			finally
+			{
+				JdbcWrapper.closeResultSet(rs);
+				JdbcWrapper.closeStatement(statement);
+			}
+		}
+	};
+
+	/**
+	 * A replica and what the last check found.
+	 */
+	private static class Replica
+	{
+		final ConnectionPool pool;
+		final String url;
+		final AtomicLong reads = new AtomicLong();
+		volatile boolean healthy = true;
+		volatile long lagSeconds;
+		volatile String problem;
+
+		Replica(ConnectionPool pool, String url)
+		{
+			this.pool = pool;
+			this.url = url;
+		}
+	}
+
+	// Where writes go, and where reads go when no replica is usable.
+	private final ConnectionPool primary;
+
+	// The read replicas.
+	private final Replica[] replicas;
+
+	private final LagProbe probe;
+	private final long maxLagSeconds;
+
+	// The replica to try first for the next read.
+	private final AtomicInteger next = new AtomicInteger();
+
+	// Reads that went to the primary.
+	private final AtomicLong primaryReads = new AtomicLong();
+
+	// The health check task, or null if there are no replicas.
+	private final TimerTask healthTask;
+
+	private volatile boolean closed;
+
+	/**
+	 * Constructor for a routing data source.
+	 *
+	 * @param primary The pool for the primary database.  It's shared, so close() leaves it open.
+	 * @param replicaPools One pool per replica.  These belong to the data source, and close() closes them.
+	 * @param replicaUrls The replicas' URLs, for reports.
+	 * @param probe How to measure replica lag.
+	 * @param maxLagSeconds The most a replica may lag and still serve reads.
+	 * @param checkIntervalMillis How often the replicas are checked.
+	 */
+	public RoutingDataSource(ConnectionPool primary, List<ConnectionPool> replicaPools, List<String> replicaUrls,
+			LagProbe probe, long maxLagSeconds, long checkIntervalMillis)
+	{
+		if (primary == null || replicaPools.size() != replicaUrls.size())
+		{
+			throw new IllegalArgumentException("Every replica needs a pool and a URL.");
+		}
+
+		this.primary = primary;
+		this.probe = probe;
+		this.maxLagSeconds = maxLagSeconds;
+		this.replicas = new Replica[replicaPools.size()];
+		for (int index = 0; index < replicas.length; index++)
+		{
+			replicas[index] = new Replica(replicaPools.get(index), replicaUrls.get(index));
+		}
+
+		if (replicas.length > 0)
+		{
+			healthTask = new TimerTask()
+			{
+				@Override
+				public void run()
+				{
+					checkReplicas();
+				}
+			};
+			healthTimer.schedule(healthTask, 0, Math.max(100, checkIntervalMillis));
+		}
+		else
+		{
+			healthTask = null;
+		}
+	}
+
+	/**
+	 * Builds a data source for a user from the system properties.
+	 *
+	 * @param primary The user's pool for the primary database.
+	 * @param username The DBMS username, which is also used for the replicas.
+	 * @param password The DBMS password.
+	 * @return The data source.
+	 */
+	public static RoutingDataSource fromSystemProperties(ConnectionPool primary, String username, String password)
+	{
+		List<ConnectionPool> pools = new ArrayList<ConnectionPool>();
+		List<String> urls = new ArrayList<String>();
+
+		for (String url : System.getProperty(REPLICA_URLS_PROPERTY, "").split(","))
+		{
+			url = url.trim();
+			if (url.length() > 0)
+			{
+				urls.add(url);
+				pools.add(new ConnectionPool(url, username, password,
+						0,
+						ConnectionPool.DEFAULT_MAX_SIZE,
+						ConnectionPool.DEFAULT_MAX_WAITERS,
+						ConnectionPool.DEFAULT_IDLE_TIMEOUT_MILLIS,
+						ConnectionPool.DEFAULT_BORROW_TIMEOUT_MILLIS));
+			}
+		}
+
+		return new RoutingDataSource(primary, pools, urls, RoutingDataSource.MYSQL_LAG_PROBE,
+				Long.getLong(MAX_LAG_PROPERTY, DEFAULT_MAX_LAG_SECONDS),
+				Long.getLong(CHECK_INTERVAL_PROPERTY, DEFAULT_CHECK_INTERVAL_MILLIS));
+	}
+
+	/**
+	 * Gets a connection to the primary, for writes.
+	 *
+	 * @return A connection.  Hand it back with JdbcWrapper.closeConnection().
+	 */
+	public Connection getWriteConnection() throws SQLException
+	{
+		return JdbcWrapper.borrowConnection(primary);
+	}
+
+	/**
+	 * Gets a connection for reads: the next healthy replica's, or the primary's if none are healthy.
+	 * A replica that can't hand out a connection is taken out of rotation and the next one is tried.
+	 *
+	 * @return A connection.  Hand it back with JdbcWrapper.closeConnection().
+	 */
+	public Connection getReadConnection() throws SQLException
+	{
+		int start = next.getAndIncrement() & Integer.MAX_VALUE;
+
+		for (int attempt = 0; attempt < replicas.length; attempt++)
+		{
+			Replica replica = replicas[(start + attempt) % replicas.length];
+			if (!replica.healthy)
+			{
+				continue;
+			}
+
+			try
+			{
+				Connection connection = JdbcWrapper.borrowConnection(replica.pool);
+				replica.reads.incrementAndGet();
+				return connection;
+			}
+			catch (SQLException ex)
+			{
+				markDown(replica, ex.getMessage());
+			}
+		}
+
+		primaryReads.incrementAndGet();
+		return JdbcWrapper.borrowConnection(primary);
+	}
+
+	/**
+	 * Checks whether a connection from getReadConnection() should still be used for reads.
+	 * A replica's connection stops being current when the replica is taken out of rotation,
+	 * and the primary's stops being current when a replica comes back.
+	 *
+	 * @param connection A connection from getReadConnection().
+	 * @return True if reads can stay on the connection, false if a new one should be borrowed.
+	 */
+	public boolean isCurrent(Connection connection)
+	{
+		Replica replica = findReplica(connection);
+		if (replica != null)
+		{
+			return replica.healthy;
+		}
+		return !hasHealthyReplica();
+	}
+
+	/**
+	 * Takes a connection's replica out of rotation after the connection failed.
+	 *
+	 * @param connection A connection from getReadConnection().
+	 * @param ex What went wrong.
+	 * @return True if the connection was a replica's, false if it was the primary's.
+	 */
+	public boolean reportFailure(Connection connection, SQLException ex)
+	{
+		Replica replica = findReplica(connection);
+		if (replica == null)
+		{
+			return false;
+		}
+		markDown(replica, ex.getMessage());
+		return true;
+	}
+
+	/**
+	 * Checks whether a statement failed because its connection was lost,
+	 * rather than because of the statement itself.
+	 *
+	 * @param ex The exception the statement threw.
+	 * @return True if the connection should be given up on, false otherwise.
+	 */
+	public static boolean isConnectionFailure(SQLException ex)
+	{
+		String state = ex.getSQLState();
+		return ex instanceof SQLNonTransientConnectionException
+				|| ex instanceof SQLRecoverableException
+				|| (state != null && state.startsWith("08"));
+	}
+
+	/**
+	 * Checks every replica's lag, taking replicas that are down or too far behind out of rotation
+	 * and putting the rest back in.
+	 */
+	public void checkReplicas()
+	{
+		for (Replica replica : replicas)
+		{
+			if (closed)
+			{
+				return;
+			}
+
+			Connection connection = null;
+			try
+			{
+				connection = replica.pool.borrow();
+				long lag = probe.getLagSeconds(connection);
+				replica.lagSeconds = lag;
+				if (lag < 0)
+				{
+					markDown(replica, "not replicating");
+				}
+				else if (lag > maxLagSeconds)
+				{
+					markDown(replica, lag + " s behind the primary");
+				}
+				else
+				{
+					replica.problem = null;
+					replica.healthy = true;
+				}
+			}
+			catch (SQLException ex)
+			{
+				markDown(replica, ex.getMessage());
+			}
+			finally
+			{
+				if (connection != null)
+				{
+					replica.pool.release(connection);
+				}
+			}
+		}
+	}
+
+	private void markDown(Replica replica, String problem)
+	{
+		replica.problem = problem;
+		replica.healthy = false;
+	}
+
+	/**
+	 * Gets the replica a connection was borrowed from.
+	 *
+	 * @return The replica, or null if the connection is the primary's.
+	 */
+	private Replica findReplica(Connection connection)
+	{
+		ConnectionPool pool = JdbcWrapper.getOwningPool(connection);
+		for (Replica replica : replicas)
+		{
+			if (replica.pool == pool)
+			{
+				return replica;
+			}
+		}
+		return null;
+	}
+
+	public boolean hasReplicas()
+	{
+		return replicas.length > 0;
+	}
+
+	public boolean hasHealthyReplica()
+	{
+		for (Replica replica : replicas)
+		{
+			if (replica.healthy)
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public ConnectionPool getPrimary()
+	{
+		return primary;
+	}
+
+	/**
+	 * Stops checking the replicas and closes their pools.  The primary's pool is left open.
+	 */
+	public void close()
+	{
+		closed = true;
+		if (healthTask != null)
+		{
+			healthTask.cancel();
+		}
+		for (Replica replica : replicas)
+		{
+			replica.pool.close();
+		}
+	}
+
+	public boolean isClosed()
+	{
+		return closed;
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("Read routing: %d replicas, %d reads on the primary", replicas.length, primaryReads.get()));
+		for (Replica replica : replicas)
+		{
+			sb.append(String.format("%n  %s: %s, lag %d s, %d reads", replica.url,
+					replica.healthy ? "in rotation" : "out of rotation (" + replica.problem + ")",
+					replica.lagSeconds, replica.reads.get()));
+		}
+		return sb.toString();
+	}
+}
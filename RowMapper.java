@@ -0,0 +1,135 @@
+/*
+ * RowMapper.java
+ *
+ * Maps result set rows to objects by column position.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+// Imports
+import java.util.*;
+import java.util.concurrent.*;
+import java.sql.*;
+
+/**
+ * Turns result set rows into objects, reading columns by position rather than by
+ * label.  Reading by label makes the driver look the name up for every column of
+ * every row; here the positions are looked up once for each statement, from the
+ * result set metadata, and cached by the statement's SQL text.
+ *
+ * Subclasses list the columns they read in the constructor, and map() is handed the
+ * positions in the same order.
+ *
+ * @author Austin Cathey
+ */
+public abstract class RowMapper<T>
+{
+	// The column labels this mapper reads, in the order map() expects their positions.
+	private final String[] columns;
+
+	// Column positions, keyed by the SQL text of the statement that produced the rows.
+	private final ConcurrentMap<String, int[]> positionsBySql = new ConcurrentHashMap<String, int[]>();
+
+	/**
+	 * Constructor for a row mapper.
+	 *
+	 * @param columns The labels of the columns that map() reads.
+	 */
+	protected RowMapper(String... columns)
+	{
+		this.columns = columns.clone();
+	}
+
+	/**
+	 * Maps the current row.
+	 *
+	 * @param rs The result set, positioned on a row.
+	 * @param positions The 1-based position of each column, in the order given to the constructor.
+	 * @return The mapped object.
+	 */
+	public abstract T map(ResultSet rs, int[] positions) throws SQLException;
+
+	/**
+	 * Gets the positions of this mapper's columns in a statement's results.
+	 * Call this once per result set, not once per row.
+	 *
+	 * @param sql The SQL text of the statement.  Rows from the same SQL always have the same layout.
+	 * @param rs The statement's results.
+	 * @return The 1-based position of each column.
+	 * @throws SQLException If a column isn't in the results.
+	 */
+	public int[] getPositions(String sql, ResultSet rs) throws SQLException
+	{
+		int[] positions = positionsBySql.get(sql);
+		if (positions == null)
+		{
+			positions = RowMapper.resolve(rs.getMetaData(), columns);
+			positionsBySql.put(sql, positions);
+		}
+		return positions;
+	}
+
+	/**
+	 * Maps the current row.
+	 *
+	 * @param sql The SQL text of the statement.
+	 * @param rs The result set, positioned on a row.
+	 * @return The mapped object.
+	 */
+	public T mapRow(String sql, ResultSet rs) throws SQLException
+	{
+		return map(rs, getPositions(sql, rs));
+	}
+
+	/**
+	 * Maps every remaining row.
+	 *
+	 * @param sql The SQL text of the statement.
+	 * @param rs The result set.
+	 * @param into The list to add the objects to.
+	 * @return The number of rows mapped.
+	 */
+	public int mapAll(String sql, ResultSet rs, List<? super T> into) throws SQLException
+	{
+		int[] positions = getPositions(sql, rs);
+		int count = 0;
+		while (rs.next())
+		{
+			into.add(map(rs, positions));
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Finds the positions of columns in a result set.  Labels are matched without regard to case,
+	 * the same way ResultSet.findColumn() matches them.
+	 *
+	 * @param meta The result set's metadata.
+	 * @param columns The column labels.
+	 * @return The 1-based position of each column.
+	 * @throws SQLException If a column isn't in the results.
+	 */
+	public static int[] resolve(ResultSetMetaData meta, String... columns) throws SQLException
+	{
+		int[] positions = new int[columns.length];
+		int count = meta.getColumnCount();
+
+		for (int index = 0; index < columns.length; index++)
+		{
+			for (int column = 1; column <= count && positions[index] == 0; column++)
+			{
+				if (columns[index].equalsIgnoreCase(meta.getColumnLabel(column)))
+				{
+					positions[index] = column;
+				}
+			}
+			if (positions[index] == 0)
+			{
+				throw new SQLException("Column '" + columns[index] + "' not found.");
+			}
+		}
+
+		return positions;
+	}
+}
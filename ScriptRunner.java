@@ -0,0 +1,250 @@
+/*
+ * ScriptRunner.java
+ *
+ * Runs menu commands from a script instead of prompting for them.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+// Imports
+import java.io.*;
+import java.util.*;
+
+/**
+ * Drives the main menu from a script, so the program can run without anyone at the
+ * keyboard.  Each line of the script is a CSV record: the menu option, followed by the
+ * answers to the option's prompts in the order it asks them.  For example,
+ *
+ *   1,Julia,Roberts
+ *   2,Jane,Doe,1970-01-01,
+ *   9
+ *
+ * finds Julia Roberts' movies, adds a star with no photo, and exits.  Lines starting
+ * with # are comments.  A command that asks for more answers than its line has fails,
+ * rather than waiting for input, and the script carries on with the next line.
+ *
+ * Every command is timed.  The time of each one is printed as it finishes, and a
+ * summary of the times for each option is printed at the end.
+ *
+ * @author Austin Cathey
+ */
+public class ScriptRunner implements Closeable
+{
+	// Where the commands come from, and its name for messages.
+	private final CsvReader in;
+	private final String name;
+
+	// Where each command's time is printed, or null to not print them.
+	private final PrintStream timings;
+
+	// Times and failures for each menu option, indexed by option.
+	private final LatencyHistogram[] latencies;
+	private final long[] failures;
+
+	// The option of the command that ran last, and its line.
+	private int lastOption;
+	private int lastLine;
+
+	// When the first command started, and when the last one finished.
+	private long firstStart;
+	private long lastEnd;
+
+	/**
+	 * Constructor for a script runner.
+	 *
+	 * @param in Where to read the script from.
+	 * @param name The script's name, for messages.
+	 * @param optionCount The number of menu options.
+	 * @param timings Where to print each command's time, or null to only keep the summary.
+	 */
+	public ScriptRunner(Reader in, String name, int optionCount, PrintStream timings)
+	{
+		this.in = new CsvReader(in);
+		this.name = name;
+		this.timings = timings;
+		this.latencies = new LatencyHistogram[optionCount + 1];
+		this.failures = new long[optionCount + 1];
+		for (int option = 1; option <= optionCount; option++)
+		{
+			latencies[option] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * Opens a script file.
+	 *
+	 * @param fileName The file, or - for standard input.  Standard input is shared with
+	 *                 Input's prompts, so the username and password can come before the commands.
+	 * @param optionCount The number of menu options.
+	 * @return The runner, which prints each command's time to standard error.
+	 */
+	public static ScriptRunner open(String fileName, int optionCount) throws IOException
+	{
+		if (fileName.equals("-"))
+		{
+			return new ScriptRunner(Input.getStandardInput(), "stdin", optionCount, System.err);
+		}
+		return new ScriptRunner(new InputStreamReader(new FileInputStream(fileName), "UTF-8"), fileName, optionCount, System.err);
+	}
+
+	/**
+	 * Runs the next command in the script.  Works like Input.getMenuOption(), so it can
+	 * take the place of the main menu.
+	 *
+	 * @param handler The handler to run the command with.
+	 * @param quitOption The option to act as though was chosen at the end of the script.
+	 * @return The option that was run, negated if it was a terminal option.
+	 *         At the end of the script, the negated quit option.
+	 */
+	public int runNext(MenuHandler handler, int quitOption)
+	{
+		String[] record;
+		int option;
+
+		// Find the next command, skipping comments and reporting lines that aren't commands.
+		while (true)
+		{
+			try
+			{
+				record = in.readRecord();
+			}
+			catch (IOException ex)
+			{
+				System.out.println(name + ": " + ex.getMessage());
+				record = null;
+			}
+
+			if (record == null)
+			{
+				Input.setScriptedAnswers(null);
+				return -quitOption;
+			}
+
+			String command = record[0].trim();
+			if (command.startsWith("#") || command.length() < 1)
+			{
+				continue;
+			}
+
+			try
+			{
+				option = Integer.parseInt(command);
+			}
+			catch (NumberFormatException ex)
+			{
+				option = 0;
+			}
+			if (option >= 1 && option < latencies.length)
+			{
+				break;
+			}
+			System.out.println(name + ":" + in.getRecordLine() + ": " + command + " isn't a menu option.");
+		}
+
+		// The rest of the line answers the option's prompts.  Whatever a terminal option
+		// leaves is kept for the prompts that follow it, like switching users.
+		Input.setScriptedAnswers(Arrays.asList(record).subList(1, record.length));
+
+		boolean keepGoing = true;
+		String failure = null;
+		long start = System.nanoTime();
+		try
+		{
+			keepGoing = handler.executeOption(option);
+		}
+		catch (RuntimeException ex)
+		{
+			failure = ex.getMessage() != null ? ex.getMessage() : ex.toString();
+			System.out.println();
+		}
+		long elapsed = System.nanoTime() - start;
+
+		if (firstStart == 0)
+		{
+			firstStart = start;
+		}
+		lastEnd = start + elapsed;
+		latencies[option].record(elapsed);
+		lastOption = option;
+		lastLine = in.getRecordLine();
+
+		if (failure != null)
+		{
+			failures[option]++;
+			System.out.println(name + ":" + in.getRecordLine() + ": " + failure);
+		}
+		else if (keepGoing && Input.getScriptedAnswersLeft() > 0)
+		{
+			System.out.println(name + ":" + in.getRecordLine() + ": " + Input.getScriptedAnswersLeft() + " answers weren't used.");
+		}
+
+		if (timings != null)
+		{
+			timings.printf("%s:%d option %d %.3f ms%s%n", name, in.getRecordLine(), option, elapsed / 1e6,
+					failure != null ? " FAILED" : "");
+		}
+		return keepGoing ? option : -option;
+	}
+
+	/**
+	 * Counts the command that ran last as failed, for when something it left to do
+	 * afterwards fails, like asking for the user to switch to.
+	 *
+	 * @param failure Why it failed.
+	 */
+	public void failLastCommand(String failure)
+	{
+		if (lastOption > 0)
+		{
+			failures[lastOption]++;
+			System.out.println(name + ":" + lastLine + ": " + failure);
+		}
+	}
+
+	/**
+	 * Prints the number of times each option was run, how many failed, and how long they took.
+	 *
+	 * @param out Where to print.
+	 * @param optionNames The menu options' names, in order, starting with option 1.
+	 */
+	public void printSummary(PrintStream out, String[] optionNames)
+	{
+		long commands = 0, failed = 0;
+		for (int option = 1; option < latencies.length; option++)
+		{
+			commands += latencies[option].getCount();
+			failed += failures[option];
+		}
+
+		double seconds = (lastEnd - firstStart) / 1e9;
+		out.printf("Script %s: %d commands, %d failed, %.3f s, %.1f commands/s%n", name, commands, failed,
+				seconds, seconds > 0 ? commands / seconds : 0.0);
+		if (commands == 0)
+		{
+			return;
+		}
+
+		String format = "%-50s %8s %8s %10s %10s %10s%n";
+		out.printf(format, "Option", "Runs", "Failed", "p50 ms", "p99 ms", "max ms");
+		out.println(StringUtilities.repeat("-", 101));
+		for (int option = 1; option < latencies.length; option++)
+		{
+			LatencyHistogram histogram = latencies[option];
+			if (histogram.getCount() > 0)
+			{
+				String label = option + ") " + (option <= optionNames.length ? optionNames[option - 1] : "");
+				out.printf(format, StringUtilities.truncate(label, 50), histogram.getCount(), failures[option],
+						String.format("%.3f", histogram.getValueAtPercentile(50.0) / 1e6),
+						String.format("%.3f", histogram.getValueAtPercentile(99.0) / 1e6),
+						String.format("%.3f", histogram.getMax() / 1e6));
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		Input.setScriptedAnswers(null);
+		in.close();
+	}
+}
@@ -0,0 +1,380 @@
+/*
+ * SlowQueryLog.java
+ *
+ * Writes statements that run past a threshold to a rolling log file.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+// Imports
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.sql.*;
+
+/**
+ * A log of slow statements.  Callers time a statement as usual and only call
+ * isSlow() with the start time, so fast statements never build the parameter
+ * list or touch the queue.  Slow statements are put on a bounded queue and a
+ * background thread writes them to the log file, along with the plan from EXPLAIN,
+ * which it runs on another connection from the same pool as the slow statement.
+ * If the queue is full, the entry is dropped and counted rather than blocking the caller.
+ *
+ * Settings come from system properties:
+ *   project1.slowlog.millis  The threshold in milliseconds (default 500; negative disables the log).
+ *   project1.slowlog.file    The log file (default slow-queries.log).
+ *   project1.slowlog.maxKB   The size at which the log is rolled over (default 1024).
+ *
+ * @author Austin Cathey
+ */
+public class SlowQueryLog
+{
+	// System properties and their defaults.
+	public static final String THRESHOLD_PROPERTY = "project1.slowlog.millis";
+	public static final String FILE_PROPERTY = "project1.slowlog.file";
+	public static final String MAX_SIZE_PROPERTY = "project1.slowlog.maxKB";
+	public static final long DEFAULT_THRESHOLD_MILLIS = 500;
+	public static final String DEFAULT_FILE = "slow-queries.log";
+	public static final long DEFAULT_MAX_SIZE_KB = 1024;
+
+	// How many old log files are kept, as file.1, file.2, ...
+	public static final int ROLLED_FILES = 3;
+
+	// The most entries that can wait to be written.
+	public static final int QUEUE_CAPACITY = 256;
+
+	// The threshold in nanoseconds.  Read on every statement, so it's a plain static final.
+	private static final long thresholdNanos = readThresholdNanos();
+
+	// The log used by DBHandler.
+	private static final SlowQueryLog shared = new SlowQueryLog(
+			new File(System.getProperty(FILE_PROPERTY, DEFAULT_FILE)),
+			Long.getLong(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE_KB) * 1024);
+
+	// Where entries are written.
+	private final File file;
+	private final long maxBytes;
+
+	// Entries waiting to be written.
+	private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<Entry>(QUEUE_CAPACITY);
+
+	// Entries dropped because the queue was full, and entries written.
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong written = new AtomicLong();
+
+	// The writer thread, started when the first slow statement is logged.
+	private Thread writer;
+	private volatile boolean closed;
+
+	/**
+	 * A slow statement waiting to be written.
+	 */
+	private static class Entry
+	{
+		final long timestamp;
+		final String sql;
+		final Object[] parameters;
+		final long rows;
+		final long elapsedNanos;
+		final ConnectionPool pool;
+
+		Entry(String sql, Object[] parameters, long rows, long elapsedNanos, ConnectionPool pool)
+		{
+			this.timestamp = System.currentTimeMillis();
+			this.sql = sql;
+			this.parameters = parameters;
+			this.rows = rows;
+			this.elapsedNanos = elapsedNanos;
+			this.pool = pool;
+		}
+	}
+
+	/**
+	 * Constructor for the slow query log.
+	 *
+	 * @param file The log file.
+	 * @param maxBytes The size at which the log file is rolled over.
+	 */
+	public SlowQueryLog(File file, long maxBytes)
+	{
+		this.file = file;
+		this.maxBytes = Math.max(1024, maxBytes);
+	}
+
+	/**
+	 * Gets the log used by DBHandler.
+	 */
+	public static SlowQueryLog getShared()
+	{
+		return shared;
+	}
+
+	/**
+	 * Checks whether a statement took long enough to be logged.
+	 *
+	 * @param startNanos The System.nanoTime() at which the statement started.
+	 * @return True if the statement should be logged, false otherwise.
+	 */
+	public static boolean isSlow(long startNanos)
+	{
+		return thresholdNanos >= 0 && System.nanoTime() - startNanos >= thresholdNanos;
+	}
+
+	/**
+	 * Queues a slow statement to be written.  Never blocks.
+	 *
+	 * @param connection The connection the statement ran on.  EXPLAIN runs on another connection from its pool.
+	 * @param sql The statement's SQL text.
+	 * @param startNanos The System.nanoTime() at which the statement started.
+	 * @param rows The number of rows returned or updated.
+	 * @param parameters The bound parameters, in order.
+	 */
+	public void log(Connection connection, String sql, long startNanos, long rows, Object... parameters)
+	{
+		long elapsed = System.nanoTime() - startNanos;
+		if (closed)
+		{
+			return;
+		}
+
+		Entry entry = new Entry(sql, parameters, rows, elapsed, JdbcWrapper.getOwningPool(connection));
+		if (!queue.offer(entry))
+		{
+			dropped.incrementAndGet();
+			return;
+		}
+		startWriter();
+	}
+
+	/**
+	 * Starts the writer thread if it isn't running.
+	 */
+	private synchronized void startWriter()
+	{
+		if (writer != null || closed)
+		{
+			return;
+		}
+
+		writer = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				writeEntries();
+			}
+		}, "SlowQueryLog-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Writes entries until the log is closed and the queue is empty.
+	 */
+	private void writeEntries()
+	{
+		while (true)
+		{
+			Entry entry;
+			try
+			{
+				entry = queue.poll(1, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException ex)
+			{
+				entry = queue.poll();
+			}
+
+			if (entry == null)
+			{
+				if (closed)
+				{
+					return;
+				}
+				continue;
+			}
+
+			try
+			{
+				write(format(entry, explain(entry)));
+				written.incrementAndGet();
+			}
+			catch (IOException ex)
+			{
+				System.err.println("Could not write to the slow query log: " + ex.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Runs EXPLAIN for an entry on a connection borrowed from the same pool.
+	 *
+	 * @param entry The slow statement.
+	 * @return The plan, one row per line, or a note saying why there isn't one.
+	 */
+	private static String explain(Entry entry)
+	{
+		if (entry.pool == null || entry.pool.isClosed())
+		{
+			return "  (no plan: the connection wasn't pooled)\n";
+		}
+
+		Connection connection = null;
+		PreparedStatement pstmt = null;
+		ResultSet rs = null;
+		StringBuilder plan = new StringBuilder();
+
+		try
+		{
+			connection = entry.pool.borrow();
+			pstmt = connection.prepareStatement("EXPLAIN " + entry.sql);
+			for (int index = 0; index < entry.parameters.length; index++)
+			{
+				ParameterBinder.bindObject(pstmt, index + 1, entry.parameters[index]);
+			}
+
+			rs = pstmt.executeQuery();
+			ResultSetMetaData meta = rs.getMetaData();
+			while (rs.next())
+			{
+				plan.append(" ");
+				for (int column = 1; column <= meta.getColumnCount(); column++)
+				{
+					plan.append(' ').append(meta.getColumnLabel(column)).append('=').append(rs.getString(column));
+				}
+				plan.append('\n');
+			}
+		}
+		catch (SQLException ex)
+		{
+			plan.append("  (no plan: ").append(ex.getMessage()).append(")\n");
+		}
+		finally
+		{
+			JdbcWrapper.closeResultSet(rs);
+			JdbcWrapper.closeStatement(pstmt);
+			if (connection != null)
+			{
+				entry.pool.release(connection);
+			}
+		}
+
+		return plan.toString();
+	}
+
+	/**
+	 * Formats an entry for the log file.
+	 */
+	private static String format(Entry entry, String plan)
+	{
+		StringBuilder text = new StringBuilder();
+		text.append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new java.util.Date(entry.timestamp)));
+		text.append(String.format(" %.1f ms, %d row(s)%n", entry.elapsedNanos / 1e6, entry.rows));
+		text.append("  SQL: ").append(entry.sql.replaceAll("\\s+", " ").trim()).append('\n');
+		text.append("  Parameters: ").append(Arrays.deepToString(entry.parameters)).append('\n');
+		text.append("  Plan:\n").append(plan);
+		text.append('\n');
+		return text.toString();
+	}
+
+	/**
+	 * Appends text to the log file, rolling it over first if it's full.
+	 */
+	private void write(String text) throws IOException
+	{
+		if (file.length() >= maxBytes)
+		{
+			rollOver();
+		}
+
+		Writer out = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+		try
+		{
+			out.write(text);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Moves file to file.1, file.1 to file.2, and so on, dropping the oldest.
+	 */
+	private void rollOver()
+	{
+		File oldest = new File(file.getPath() + "." + ROLLED_FILES);
+		oldest.delete();
+		for (int index = ROLLED_FILES - 1; index >= 1; index--)
+		{
+			File from = new File(file.getPath() + "." + index);
+			if (from.exists())
+			{
+				from.renameTo(new File(file.getPath() + "." + (index + 1)));
+			}
+		}
+		file.renameTo(new File(file.getPath() + ".1"));
+	}
+
+	/**
+	 * Writes any queued entries and stops the writer thread.
+	 * Call this before the connection pools are closed, so the queued plans can still be read.
+	 *
+	 * @param timeoutMillis How long to wait for the queue to drain.
+	 */
+	public void close(long timeoutMillis)
+	{
+		Thread thread;
+		synchronized (this)
+		{
+			closed = true;
+			thread = writer;
+		}
+
+		if (thread != null)
+		{
+			try
+			{
+				thread.join(timeoutMillis);
+			}
+			catch (InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Reads the threshold from the system properties.
+	 */
+	private static long readThresholdNanos()
+	{
+		long millis = Long.getLong(THRESHOLD_PROPERTY, DEFAULT_THRESHOLD_MILLIS);
+		return millis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+	public File getFile()
+	{
+		return file;
+	}
+
+	public long getDroppedCount()
+	{
+		return dropped.get();
+	}
+
+	public long getWrittenCount()
+	{
+		return written.get();
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("Slow query log: %s, %d written, %d dropped, threshold %s",
+				file, getWrittenCount(), getDroppedCount(),
+				thresholdNanos < 0 ? "disabled" : (thresholdNanos / 1000000) + " ms");
+	}
+}
@@ -0,0 +1,344 @@
+/*
+ * SqlDumpReader.java
+ *
+ * Streaming reader for SQL dump files such as data.sql.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+// Imports
+import java.io.*;
+import java.util.*;
+
+/**
+ * Reads a SQL script one statement at a time without loading the whole file.
+ * INSERT ... VALUES statements are split into their rows, so each call to next()
+ * moves to either a single row or a single other statement.
+ * <p>
+ * Quoted strings, backslash escapes, "--" comments and block comments are handled,
+ * so semicolons and parentheses inside them don't confuse the reader.
+ *
+ * @author Austin Cathey
+ */
+public class SqlDumpReader implements Closeable
+{
+	// Where the script comes from.
+	private final Reader in;
+
+	// The statement being read.
+	private final StringBuilder statement = new StringBuilder();
+
+	// Rows of the current INSERT statement that haven't been returned yet.
+	private final ArrayDeque<String> pendingRows = new ArrayDeque<String>();
+
+	// What the reader is currently positioned on.
+	private String head;
+	private String table;
+	private String row;
+	private String other;
+
+	// A character that was read ahead and still needs processing.
+	private int pushback = -1;
+
+	/**
+	 * Constructor for the dump reader.
+	 *
+	 * @param in Where to read the script from.
+	 */
+	public SqlDumpReader(Reader in)
+	{
+		this.in = (in instanceof BufferedReader) ? in : new BufferedReader(in, 1 << 16);
+	}
+
+	/**
+	 * Moves to the next row or statement.
+	 *
+	 * @return True if there was one, false at the end of the script.
+	 */
+	public boolean next() throws IOException
+	{
+		row = null;
+		other = null;
+
+		while (pendingRows.isEmpty())
+		{
+			String sql = readStatement();
+			if (sql == null)
+			{
+				return false;
+			}
+			else if (!splitInsert(sql))
+			{
+				head = null;
+				table = null;
+				other = sql;
+				return true;
+			}
+		}
+
+		row = pendingRows.pollFirst();
+		return true;
+	}
+
+	/**
+	 * Checks whether the reader is positioned on a row of an INSERT statement.
+	 */
+	public boolean isRow()
+	{
+		return row != null;
+	}
+
+	/**
+	 * Gets everything before the VALUES keyword of the current row's INSERT statement,
+	 * such as "INSERT INTO movies".  Rows with the same head can be inserted together.
+	 */
+	public String getHead()
+	{
+		return head;
+	}
+
+	/**
+	 * Gets the table the current row belongs to.
+	 */
+	public String getTable()
+	{
+		return table;
+	}
+
+	/**
+	 * Gets the current row as SQL, including its parentheses.
+	 */
+	public String getRow()
+	{
+		return row;
+	}
+
+	/**
+	 * Gets the current statement if it isn't an INSERT ... VALUES statement.
+	 */
+	public String getStatement()
+	{
+		return other;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		in.close();
+	}
+
+	/**
+	 * Reads up to the next semicolon that isn't quoted or commented out.
+	 *
+	 * @return The statement without its semicolon, or null at the end of the script.
+	 */
+	private String readStatement() throws IOException
+	{
+		char quote = 0;
+		boolean escaped = false;
+		int c;
+
+		statement.setLength(0);
+		while ((c = read()) >= 0)
+		{
+			if (quote != 0)
+			{
+				statement.append((char)c);
+				if (escaped)
+				{
+					escaped = false;
+				}
+				else if (c == '\\')
+				{
+					escaped = true;
+				}
+				else if (c == quote)
+				{
+					quote = 0;
+				}
+			}
+			else if (c == '\'' || c == '"' || c == '`')
+			{
+				quote = (char)c;
+				statement.append((char)c);
+			}
+			else if (c == '-' && peek() == '-')
+			{
+				skipLine();
+			}
+			else if (c == '/' && peek() == '*')
+			{
+				skipBlockComment();
+			}
+			else if (c == ';')
+			{
+				String sql = statement.toString().trim();
+				if (sql.length() > 0)
+				{
+					return sql;
+				}
+			}
+			else
+			{
+				statement.append((char)c);
+			}
+		}
+
+		// A final statement doesn't need a semicolon.
+		String sql = statement.toString().trim();
+		return sql.length() > 0 ? sql : null;
+	}
+
+	/**
+	 * Splits an INSERT ... VALUES statement into its rows.
+	 *
+	 * @param sql The statement.
+	 * @return True if the statement was an INSERT ... VALUES statement, false otherwise.
+	 */
+	private boolean splitInsert(String sql)
+	{
+		if (!sql.regionMatches(true, 0, "INSERT", 0, 6))
+		{
+			return false;
+		}
+
+		int values = findValuesKeyword(sql);
+		if (values < 0)
+		{
+			return false;
+		}
+
+		head = sql.substring(0, values).trim().replaceAll("\\s+", " ");
+		table = tableName(head);
+
+		// Walk the rows, tracking quotes and nesting.
+		char quote = 0;
+		boolean escaped = false;
+		int depth = 0, start = -1;
+		for (int index = values + 6; index < sql.length(); index++)
+		{
+			char c = sql.charAt(index);
+			if (quote != 0)
+			{
+				if (escaped)
+				{
+					escaped = false;
+				}
+				else if (c == '\\')
+				{
+					escaped = true;
+				}
+				else if (c == quote)
+				{
+					quote = 0;
+				}
+			}
+			else if (c == '\'' || c == '"')
+			{
+				quote = c;
+			}
+			else if (c == '(')
+			{
+				if (depth++ == 0)
+				{
+					start = index;
+				}
+			}
+			else if (c == ')' && --depth == 0)
+			{
+				pendingRows.addLast(sql.substring(start, index + 1));
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Finds the VALUES keyword outside of any quotes.
+	 *
+	 * @return Its position, or -1 if there isn't one.
+	 */
+	private static int findValuesKeyword(String sql)
+	{
+		char quote = 0;
+		for (int index = 0; index + 6 <= sql.length(); index++)
+		{
+			char c = sql.charAt(index);
+			if (quote != 0)
+			{
+				if (c == quote)
+				{
+					quote = 0;
+				}
+			}
+			else if (c == '\'' || c == '"' || c == '`')
+			{
+				quote = c;
+			}
+			else if (sql.regionMatches(true, index, "VALUES", 0, 6)
+					&& (index == 0 || !Character.isLetterOrDigit(sql.charAt(index - 1)))
+					&& (index + 6 == sql.length() || !Character.isLetterOrDigit(sql.charAt(index + 6))))
+			{
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets the table name from an INSERT statement head, such as "INSERT INTO movies (id, title)".
+	 */
+	static String tableName(String head)
+	{
+		String[] words = head.replace("(", " (").split("\\s+");
+		for (int index = 1; index < words.length; index++)
+		{
+			if (!words[index].equalsIgnoreCase("INTO") && !words[index].equalsIgnoreCase("IGNORE"))
+			{
+				return words[index].replace("`", "");
+			}
+		}
+		return head;
+	}
+
+	private int read() throws IOException
+	{
+		if (pushback >= 0)
+		{
+			int c = pushback;
+			pushback = -1;
+			return c;
+		}
+		return in.read();
+	}
+
+	private int peek() throws IOException
+	{
+		if (pushback < 0)
+		{
+			pushback = in.read();
+		}
+		return pushback;
+	}
+
+	private void skipLine() throws IOException
+	{
+		int c;
+		while ((c = read()) >= 0 && c != '\n')
+		{
+		}
+		statement.append('\n');
+	}
+
+	private void skipBlockComment() throws IOException
+	{
+		int previous = 0, c;
+		
+		// Skip the '*' after the '/'.
+		read();
+		while ((c = read()) >= 0 && !(previous == '*' && c == '/'))
+		{
+			previous = c;
+		}
+		statement.append(' ');
+	}
+}
@@ -0,0 +1,286 @@
+/*
+ * StarImporter.java
+ *
+ * Imports stars in bulk from a CSV file.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+// Imports
+import java.io.*;
+import java.util.*;
+import java.sql.*;
+
+/**
+ * Imports stars from a CSV file of first_name,last_name,dob,photo_url records.
+ * Stars are inserted in JDBC batches, and the generated IDs of each batch are read
+ * back in one go and written to a mapping file of input line number and new star ID.
+ * The connection rewrites each batch as multi-row INSERTs, and the driver still returns
+ * one generated ID per row for them.
+ * A header record starting with "first_name" is skipped.
+ * <p>
+ * Usage: java StarImporter [--batch n] [--map file] csvfile [username [password]]
+ *
+ * @author Austin Cathey
+ */
+public class StarImporter
+{
+	// The default number of stars per batch.
+	public static final int DEFAULT_BATCH_SIZE = 500;
+
+	// The connection to import through.
+	private final Connection connection;
+
+	// The number of stars per batch.
+	private final int batchSize;
+
+	// The parameters for the star being bound, reused for every row.
+	private final ParameterFrame row = new ParameterFrame(4);
+
+	// Statistics.
+	private long imported;
+	private long rejected;
+	private long batches;
+	private long nanos;
+
+	/**
+	 * Constructor for the star importer.
+	 *
+	 * @param connection The DBMS connection.
+	 * @param batchSize The number of stars per batch.
+	 */
+	public StarImporter(Connection connection, int batchSize)
+	{
+		if (batchSize < 1)
+		{
+			throw new IllegalArgumentException("The batch size must be positive.");
+		}
+		this.connection = connection;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Entry point.
+	 *
+	 * @param args [--batch n] [--map file] csvfile [username [password]]
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		int batchSize = StarImporter.DEFAULT_BATCH_SIZE;
+		String mapFile = null;
+		List<String> rest = new ArrayList<String>();
+
+		for (int index = 0; index < args.length; index++)
+		{
+			if (args[index].equals("--batch") && index + 1 < args.length)
+			{
+				batchSize = Integer.parseInt(args[++index]);
+			}
+			else if (args[index].equals("--map") && index + 1 < args.length)
+			{
+				mapFile = args[++index];
+			}
+			else
+			{
+				rest.add(args[index]);
+			}
+		}
+
+		if (rest.isEmpty())
+		{
+			System.out.println("Usage: java StarImporter [--batch n] [--map file] csvfile [username [password]]");
+			return;
+		}
+
+		String csvFile = rest.remove(0);
+		if (mapFile == null)
+		{
+			mapFile = csvFile + ".ids";
+		}
+
+		String[] userPass = JdbcWrapper.getUsernameAndPassword(rest.toArray(new String[rest.size()]));
+		Connection connection = JdbcWrapper.getBatchConnection(userPass[0], userPass[1]);
+		CsvReader in = new CsvReader(new InputStreamReader(new FileInputStream(csvFile), "UTF-8"));
+		PrintWriter map = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mapFile), "UTF-8")));
+
+		try
+		{
+			StarImporter importer = new StarImporter(connection, batchSize);
+			importer.importStars(in, map);
+			importer.printReport(System.out);
+			System.out.println("Wrote line to ID mapping to " + mapFile);
+		}
+		finally
+		{
+			in.close();
+			map.close();
+			JdbcWrapper.closeConnection(connection);
+			JdbcWrapper.closeAllPools();
+		}
+	}
+
+	/**
+	 * Imports every star in a CSV file.
+	 *
+	 * @param in The CSV records.
+	 * @param map Where to write "line,id" for each star that was inserted.
+	 */
+	public void importStars(CsvReader in, PrintWriter map) throws SQLException, IOException
+	{
+		PreparedStatement pstmt = null;
+		int[] lines = new int[batchSize];
+		int pending = 0;
+		boolean first = true;
+		long start = System.nanoTime();
+
+		connection.setAutoCommit(false);
+		try
+		{
+			pstmt = connection.prepareStatement(DBHandler.SQL_INSERT_STAR, new String[] {"id"});
+
+			String[] record;
+			while ((record = in.readRecord()) != null)
+			{
+				// Skip a header record.
+				if (first && record[0].trim().equalsIgnoreCase("first_name"))
+				{
+					first = false;
+					continue;
+				}
+				first = false;
+
+				if (!bindStar(pstmt, record, in.getRecordLine()))
+				{
+					rejected++;
+					continue;
+				}
+
+				pstmt.addBatch();
+				lines[pending++] = in.getRecordLine();
+				if (pending == batchSize)
+				{
+					executeBatch(pstmt, lines, pending, map);
+					pending = 0;
+				}
+			}
+
+			executeBatch(pstmt, lines, pending, map);
+		}
+		catch (SQLException ex)
+		{
+			connection.rollback();
+			throw ex;
+		}
+		finally
+		{
+			JdbcWrapper.closeStatement(pstmt);
+			connection.setAutoCommit(true);
+			nanos += System.nanoTime() - start;
+		}
+	}
+
+	/**
+	 * Binds one CSV record to the insert statement, using the same rules as entering a star by hand.
+	 *
+	 * @return True if the record was valid, false otherwise.
+	 */
+	private boolean bindStar(PreparedStatement pstmt, String[] record, int line) throws SQLException
+	{
+		String firstName = StringUtilities.truncate(field(record, 0), 50);
+		String lastName = StringUtilities.truncate(field(record, 1), 50);
+		String dob = field(record, 2);
+		String photoURL = StringUtilities.truncate(field(record, 3), 200);
+		java.sql.Date date = null;
+
+		if (firstName.length() < 1 && lastName.length() < 1)
+		{
+			System.out.println("Line " + line + ": no name given, skipped.");
+			return false;
+		}
+
+		// If there is no last name, make the first name the last name.
+		if (lastName.length() < 1)
+		{
+			lastName = firstName;
+			firstName = "";
+		}
+
+		if (dob.length() > 0)
+		{
+			try
+			{
+				date = java.sql.Date.valueOf(dob);
+			}
+			catch (IllegalArgumentException ex)
+			{
+				System.out.println("Line " + line + ": invalid DOB \"" + dob + "\", skipped.");
+				return false;
+			}
+		}
+
+		row.clear()
+				.setString(1, firstName)
+				.setString(2, lastName)
+				.setDate(3, date)
+				.setString(4, photoURL)
+				.bind(pstmt);
+		return true;
+	}
+
+	/**
+	 * Sends a batch, commits it, and writes the generated IDs to the mapping file.
+	 * The IDs are only written once the commit succeeds, so a batch that's rolled
+	 * back doesn't leave IDs in the file for stars that were never added.
+	 */
+	private void executeBatch(PreparedStatement pstmt, int[] lines, int count, PrintWriter map) throws SQLException
+	{
+		if (count == 0)
+		{
+			return;
+		}
+
+		pstmt.executeBatch();
+
+		// The generated keys come back in the same order as the batch.
+		StringBuilder mapped = new StringBuilder();
+		ResultSet keys = pstmt.getGeneratedKeys();
+		try
+		{
+			int index = 0;
+			while (keys != null && keys.next() && index < count)
+			{
+				mapped.append(lines[index++]).append(',').append(keys.getInt(1)).append(System.lineSeparator());
+			}
+			if (index < count)
+			{
+				System.out.println("Warning: only " + index + " of " + count + " generated IDs were returned.");
+			}
+		}
+		finally
+		{
+			JdbcWrapper.closeResultSet(keys);
+		}
+
+		connection.commit();
+		map.print(mapped);
+		imported += count;
+		batches++;
+	}
+
+	/**
+	 * Prints how many stars were imported, and how fast.
+	 *
+	 * @param out Where to print the report.
+	 */
+	public void printReport(PrintStream out)
+	{
+		double seconds = nanos / 1e9;
+		out.printf("Imported %d stars in %d batches (%d rejected) in %.3f s, %.0f stars/sec%n",
+				imported, batches, rejected, seconds, seconds == 0 ? 0.0 : imported / seconds);
+	}
+
+	private static String field(String[] record, int index)
+	{
+		return index < record.length ? record[index].trim() : "";
+	}
+}
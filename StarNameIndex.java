@@ -0,0 +1,314 @@
+/*
+ * StarNameIndex.java
+ *
+ * In-memory index of star names for fast prefix searches.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+// Imports
+import java.util.*;
+import java.sql.*;
+
+/**
+ * An in-memory index over the first and last names in the stars table.
+ * Names are kept lower cased in sorted arrays, so prefix lookups are
+ * binary searches that never touch the database.
+ * <p>
+ * The index only knows about stars that existed when it was loaded, plus the
+ * ones added through add().  Changes made by other clients aren't seen until
+ * the index is loaded again.
+ *
+ * @author Austin Cathey
+ */
+public class StarNameIndex
+{
+	// Match quality for a single name part.
+	private static final int SCORE_EXACT = 2;
+	private static final int SCORE_PREFIX = 1;
+
+	// Sorted first names and last names.
+	private final SortedNames firstNames = new SortedNames();
+	private final SortedNames lastNames = new SortedNames();
+
+	// The lower cased {first, last} name of every indexed star.
+	private final Map<Integer, String[]> names = new HashMap<Integer, String[]>();
+
+	/**
+	 * Lower cased names and their star IDs, sorted by name and then by ID.
+	 */
+	private static class SortedNames
+	{
+		private String[] keys = new String[16];
+		private int[] ids = new int[16];
+		private int size;
+
+		/**
+		 * Appends an entry without keeping the arrays sorted.  Call sort() when done.
+		 */
+		void append(String key, int id)
+		{
+			ensureCapacity(size + 1);
+			keys[size] = key;
+			ids[size] = id;
+			size++;
+		}
+
+		/**
+		 * Sorts the entries after a series of append() calls.
+		 */
+		void sort()
+		{
+			Integer[] order = new Integer[size];
+			for (int index = 0; index < size; index++)
+			{
+				order[index] = index;
+			}
+			Arrays.sort(order, new Comparator<Integer>()
+			{
+				@Override
+				public int compare(Integer a, Integer b)
+				{
+					int result = keys[a].compareTo(keys[b]);
+					return result != 0 ? result : Integer.compare(ids[a], ids[b]);
+				}
+			});
+
+			String[] sortedKeys = new String[keys.length];
+			int[] sortedIds = new int[ids.length];
+			for (int index = 0; index < size; index++)
+			{
+				sortedKeys[index] = keys[order[index]];
+				sortedIds[index] = ids[order[index]];
+			}
+			keys = sortedKeys;
+			ids = sortedIds;
+		}
+
+		/**
+		 * Inserts an entry, keeping the arrays sorted.
+		 */
+		void insert(String key, int id)
+		{
+			ensureCapacity(size + 1);
+			int position = lowerBound(key);
+			while (position < size && keys[position].equals(key) && ids[position] < id)
+			{
+				position++;
+			}
+			System.arraycopy(keys, position, keys, position + 1, size - position);
+			System.arraycopy(ids, position, ids, position + 1, size - position);
+			keys[position] = key;
+			ids[position] = id;
+			size++;
+		}
+
+		/**
+		 * Adds the ID of every entry starting with the prefix to a set.
+		 */
+		void collectPrefix(String prefix, Set<Integer> result)
+		{
+			for (int index = lowerBound(prefix); index < size && keys[index].startsWith(prefix); index++)
+			{
+				result.add(ids[index]);
+			}
+		}
+
+		/**
+		 * Finds the first position whose key is not less than the given key.
+		 */
+		private int lowerBound(String key)
+		{
+			int low = 0, high = size;
+			while (low < high)
+			{
+				int middle = (low + high) >>> 1;
+				if (keys[middle].compareTo(key) < 0)
+				{
+					low = middle + 1;
+				}
+				else
+				{
+					high = middle;
+				}
+			}
+			return low;
+		}
+
+		private void ensureCapacity(int capacity)
+		{
+			if (capacity > keys.length)
+			{
+				int newLength = Math.max(capacity, keys.length * 2);
+				keys = Arrays.copyOf(keys, newLength);
+				ids = Arrays.copyOf(ids, newLength);
+			}
+		}
+	}
+
+	/**
+	 * Builds an index of every star in the database.
+	 *
+	 * @param connection The DBMS connection.
+	 * @return The loaded index.
+	 */
+	public static StarNameIndex load(Connection connection) throws SQLException
+	{
+		StarNameIndex index = new StarNameIndex();
+		Statement statement = null;
+		ResultSet rs = null;
+
+		try
+		{
+			statement = connection.createStatement();
+			rs = statement.executeQuery("SELECT id, first_name, last_name FROM stars");
+
+			while (rs.next())
+			{
+				index.append(rs.getInt(1), rs.getString(2), rs.getString(3));
+			}
+		}
+		finally
+		{
+			JdbcWrapper.closeResultSet(rs);
+			JdbcWrapper.closeStatement(statement);
+		}
+
+		index.firstNames.sort();
+		index.lastNames.sort();
+		return index;
+	}
+
+	/**
+	 * Adds a star to the index, such as one that was just inserted.
+	 *
+	 * @param id The star's ID.
+	 * @param firstName The star's first name.
+	 * @param lastName The star's last name.
+	 */
+	public synchronized void add(int id, String firstName, String lastName)
+	{
+		String first = normalize(firstName);
+		String last = normalize(lastName);
+
+		if (names.put(id, new String[] { first, last }) == null)
+		{
+			firstNames.insert(first, id);
+			lastNames.insert(last, id);
+		}
+	}
+
+	/**
+	 * Adds a star while loading, before the arrays are sorted.
+	 */
+	private void append(int id, String firstName, String lastName)
+	{
+		String first = normalize(firstName);
+		String last = normalize(lastName);
+
+		names.put(id, new String[] { first, last });
+		firstNames.append(first, id);
+		lastNames.append(last, id);
+	}
+
+	/**
+	 * Finds stars whose names start with the given prefixes, ignoring case.
+	 * A blank name part matches anything.  Exact matches are ranked ahead of prefix
+	 * matches, and shorter names ahead of longer ones.
+	 *
+	 * @param firstName The first name prefix, or blank.
+	 * @param lastName The last name prefix, or blank.
+	 * @param limit The maximum number of IDs to return.
+	 * @return The IDs of the matching stars, best match first.
+	 */
+	public synchronized ArrayList<Integer> search(String firstName, String lastName, int limit)
+	{
+		final String first = normalize(firstName);
+		final String last = normalize(lastName);
+		Set<Integer> matches = new HashSet<Integer>();
+
+		// Start from the more selective name part, then filter by the other.
+		if (last.length() > 0)
+		{
+			lastNames.collectPrefix(last, matches);
+			if (first.length() > 0)
+			{
+				retainMatching(matches, first, 0);
+			}
+		}
+		else if (first.length() > 0)
+		{
+			firstNames.collectPrefix(first, matches);
+		}
+
+		List<Integer> ranked = new ArrayList<Integer>(matches);
+		Collections.sort(ranked, new Comparator<Integer>()
+		{
+			@Override
+			public int compare(Integer a, Integer b)
+			{
+				String[] nameA = names.get(a);
+				String[] nameB = names.get(b);
+
+				int result = Integer.compare(score(nameB, first, last), score(nameA, first, last));
+				if (result == 0)
+				{
+					result = Integer.compare(nameA[0].length() + nameA[1].length(), nameB[0].length() + nameB[1].length());
+				}
+				return result != 0 ? result : Integer.compare(a, b);
+			}
+		});
+
+		return new ArrayList<Integer>(ranked.subList(0, Math.min(Math.max(limit, 0), ranked.size())));
+	}
+
+	/**
+	 * Gets the number of indexed stars.
+	 */
+	public synchronized int size()
+	{
+		return names.size();
+	}
+
+	/**
+	 * Removes IDs whose name part doesn't start with the key.
+	 *
+	 * @param ids The IDs to filter.
+	 * @param key The lower cased name part to match.
+	 * @param part 0 for the first name, 1 for the last name.
+	 */
+	private void retainMatching(Set<Integer> ids, String key, int part)
+	{
+		Iterator<Integer> iterator = ids.iterator();
+		while (iterator.hasNext())
+		{
+			String name = names.get(iterator.next())[part];
+			if (!name.startsWith(key))
+			{
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Scores how well a name matches the search terms.
+	 */
+	private static int score(String[] name, String first, String last)
+	{
+		return scorePart(name[0], first) + scorePart(name[1], last);
+	}
+
+	private static int scorePart(String name, String key)
+	{
+		if (key.length() < 1)
+		{
+			return 0;
+		}
+		return name.equals(key) ? SCORE_EXACT : SCORE_PREFIX;
+	}
+
+	private static String normalize(String name)
+	{
+		return StringUtilities.nullToEmpty(name).trim().toLowerCase();
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * StartupTimeline.java
+ *
+ * Records how long each step of starting the program took.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+// Imports
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+
+/**
+ * A timeline of the steps from the JVM starting to the first menu: loading classes,
+ * registering the driver, connecting, and the first query.  Each step is marked as it
+ * finishes, from whichever thread ran it, with the time since the JVM started and the
+ * number of classes loaded so far.
+ *
+ * Counting classes and finding the JVM's start time go through java.lang.management,
+ * which loads classes of its own, so they're only recorded when the
+ * project1.startup.timeline system property is true.  Otherwise only the time since
+ * this class was loaded is kept.
+ *
+ * @author Austin Cathey
+ */
+public class StartupTimeline
+{
+	// Set this system property to true to record class counts and print the timeline at exit.
+	public static final String DETAIL_PROPERTY = "project1.startup.timeline";
+
+	// The timeline used by Project1.
+	private static final StartupTimeline shared = new StartupTimeline(Boolean.getBoolean(DETAIL_PROPERTY));
+
+	/**
+	 * One finished step.
+	 */
+	private static class Mark
+	{
+		final String step;
+		final String thread;
+		final long nanos;
+		final int loadedClasses;
+
+		Mark(String step, String thread, long nanos, int loadedClasses)
+		{
+			this.step = step;
+			this.thread = thread;
+			this.nanos = nanos;
+			this.loadedClasses = loadedClasses;
+		}
+	}
+
+	// Whether class counts and the JVM's start time are recorded.
+	private final boolean detailed;
+
+	// When the timeline started, and how long the JVM had been running by then.
+	private final long baseNanos;
+	private final long baseUptimeMillis;
+
+	private final List<Mark> marks = new ArrayList<Mark>();
+
+	/**
+	 * Constructor for a startup timeline.  The timeline starts now.
+	 *
+	 * @param detailed True to record class counts and the time since the JVM started.
+	 */
+	public StartupTimeline(boolean detailed)
+	{
+		this.detailed = detailed;
+		this.baseNanos = System.nanoTime();
+		this.baseUptimeMillis = detailed ? ManagementFactory.getRuntimeMXBean().getUptime() : 0;
+	}
+
+	/**
+	 * Gets the timeline used by Project1.
+	 */
+	public static StartupTimeline getShared()
+	{
+		return shared;
+	}
+
+	/**
+	 * Marks a step as finished.
+	 *
+	 * @param step What finished.
+	 */
+	public void mark(String step)
+	{
+		long now = System.nanoTime();
+		int loadedClasses = detailed ? ManagementFactory.getClassLoadingMXBean().getLoadedClassCount() : -1;
+
+		synchronized (marks)
+		{
+			marks.add(new Mark(step, Thread.currentThread().getName(), now, loadedClasses));
+		}
+	}
+
+	public boolean isDetailed()
+	{
+		return detailed;
+	}
+
+	/**
+	 * Prints the steps in the order they finished.
+	 *
+	 * @param out Where to print.
+	 */
+	public void print(PrintStream out)
+	{
+		List<Mark> copy;
+		synchronized (marks)
+		{
+			copy = new ArrayList<Mark>(marks);
+		}
+
+		if (detailed)
+		{
+			out.printf("Startup timeline (JVM had been up %d ms when it started):%n", baseUptimeMillis);
+			out.printf("  %9s %9s %8s  %-16s %s%n", "ms", "+ms", "classes", "thread", "step");
+		}
+		else
+		{
+			out.println("Startup timeline:");
+			out.printf("  %9s %9s  %-16s %s%n", "ms", "+ms", "thread", "step");
+		}
+
+		long previous = baseNanos;
+		for (Mark mark : copy)
+		{
+			double at = (mark.nanos - baseNanos) / 1e6;
+			double delta = (mark.nanos - previous) / 1e6;
+			String thread = StringUtilities.truncate(mark.thread, 16);
+			if (detailed)
+			{
+				out.printf("  %9.1f %9.1f %8d  %-16s %s%n", at, delta, mark.loadedClasses, thread, mark.step);
+			}
+			else
+			{
+				out.printf("  %9.1f %9.1f  %-16s %s%n", at, delta, thread, mark.step);
+			}
+			previous = mark.nanos;
+		}
+	}
+}
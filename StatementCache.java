@@ -0,0 +1,222 @@
+/*
+ * StatementCache.java
+ *
+ * Bounded cache of prepared statements for a single connection.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+// Imports
+import java.util.*;
+import java.sql.*;
+
+/**
+ * A least recently used cache of PreparedStatement objects belonging to one connection.
+ * Statements are keyed by their SQL text and generated-key mode, so asking for the same
+ * statement twice only prepares it once.  Callers hand statements back with release()
+ * instead of closing them.
+ *
+ * @author Austin Cathey
+ */
+public class StatementCache
+{
+	// The default number of statements to hold on to.
+	public static final int DEFAULT_CAPACITY = 32;
+
+	// The connection that the statements belong to.
+	private final Connection connection;
+
+	// The maximum number of statements to hold on to.
+	private final int capacity;
+
+	// The cached statements, in least recently used order.
+	private final LinkedHashMap<String, PreparedStatement> statements;
+
+	// Statements that have been handed out and not released yet.
+	private final Set<PreparedStatement> inUse = Collections.newSetFromMap(new IdentityHashMap<PreparedStatement, Boolean>());
+
+	// Statements that were evicted while in use, and need to be closed once released.
+	private final Set<PreparedStatement> evicted = Collections.newSetFromMap(new IdentityHashMap<PreparedStatement, Boolean>());
+
+	// Hit and miss counters.
+	private long hits;
+	private long misses;
+
+	/**
+	 * Constructor for the statement cache.
+	 *
+	 * @param connection The connection to prepare statements on.
+	 * @param capacity The maximum number of statements to keep prepared.
+	 */
+	public StatementCache(Connection connection, int capacity)
+	{
+		if (connection == null)
+		{
+			throw new IllegalArgumentException("DBMS connection reference cannot be null.");
+		}
+		else if (capacity < 1)
+		{
+			throw new IllegalArgumentException("The cache capacity must be positive.");
+		}
+
+		this.connection = connection;
+		this.capacity = capacity;
+		this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest)
+			{
+				if (size() > StatementCache.this.capacity)
+				{
+					discard(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Gets a prepared statement for the given SQL.
+	 *
+	 * @param sql The SQL text.
+	 * @return A prepared statement, which must be handed back with release().
+	 */
+	public PreparedStatement prepare(String sql) throws SQLException
+	{
+		return prepare(sql, null);
+	}
+
+	/**
+	 * Gets a prepared statement for the given SQL that returns generated keys.
+	 *
+	 * @param sql The SQL text.
+	 * @param keyColumns The generated key columns, or null if no keys should be returned.
+	 * @return A prepared statement, which must be handed back with release().
+	 */
+	public PreparedStatement prepare(String sql, String[] keyColumns) throws SQLException
+	{
+		String key = (keyColumns == null ? "-" : Arrays.toString(keyColumns)) + ":" + sql;
+		PreparedStatement pstmt = statements.get(key);
+
+		// Prepare the statement if we haven't seen it, or if it's busy or no longer usable.
+		if (pstmt == null || inUse.contains(pstmt) || pstmt.isClosed())
+		{
+			misses++;
+			pstmt = (keyColumns == null) ? connection.prepareStatement(sql) : connection.prepareStatement(sql, keyColumns);
+
+			// Only cache the statement if there isn't already a busy one under the same key.
+			if (!statements.containsKey(key) || !inUse.contains(statements.get(key)))
+			{
+				PreparedStatement old = statements.put(key, pstmt);
+				if (old != null && old != pstmt)
+				{
+					discard(old);
+				}
+			}
+			else
+			{
+				evicted.add(pstmt);
+			}
+		}
+		else
+		{
+			hits++;
+		}
+
+		inUse.add(pstmt);
+		return pstmt;
+	}
+
+	/**
+	 * Hands a statement back to the cache so it can be reused.
+	 *
+	 * @param pstmt The statement obtained from prepare().  Null is ignored.
+	 */
+	public void release(PreparedStatement pstmt)
+	{
+		if (pstmt == null)
+		{
+			return;
+		}
+
+		inUse.remove(pstmt);
+		if (evicted.remove(pstmt))
+		{
+			JdbcWrapper.closeStatement(pstmt);
+			return;
+		}
+
+		try
+		{
+			pstmt.clearParameters();
+		}
+		catch (SQLException ex)
+		{
+			System.out.println("Error clearing PreparedStatement parameters.");
+		}
+	}
+
+	/**
+	 * Closes every cached statement and empties the cache.
+	 */
+	public void clear()
+	{
+		for (PreparedStatement pstmt : statements.values())
+		{
+			JdbcWrapper.closeStatement(pstmt);
+		}
+		for (PreparedStatement pstmt : evicted)
+		{
+			JdbcWrapper.closeStatement(pstmt);
+		}
+		statements.clear();
+		evicted.clear();
+		inUse.clear();
+	}
+
+	/**
+	 * Closes a statement that is leaving the cache, or defers it if it's still in use.
+	 *
+	 * @param pstmt The statement leaving the cache.
+	 */
+	private void discard(PreparedStatement pstmt)
+	{
+		if (inUse.contains(pstmt))
+		{
+			evicted.add(pstmt);
+		}
+		else
+		{
+			JdbcWrapper.closeStatement(pstmt);
+		}
+	}
+
+	public long getHits()
+	{
+		return hits;
+	}
+
+	public long getMisses()
+	{
+		return misses;
+	}
+
+	public int size()
+	{
+		return statements.size();
+	}
+
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("Statement cache: %d/%d statements, %d hits, %d misses", size(), getCapacity(), getHits(), getMisses());
+	}
+}
@@ -0,0 +1,48 @@
+#!/bin/sh
+#
+# appcds.sh
+#
+# Builds an AppCDS archive for Project1, so later runs map the classes that startup
+# needs from the archive instead of loading and verifying them again.
+#
+# The archive is dumped at the end of a training run: Project1 started with
+# -Dproject1.startup.trainingRun=true connects, loads the star name index, prepares
+# the menu's statements and exits, so every class on the way to the first menu is in it.
+# The training run needs a reachable DBMS, the same as a normal run.
+#
+# Usage:   app/appcds.sh username password
+# Then:    java -XX:SharedArchiveFile=app/target/project1.jsa -cp <printed class path> Project1
+#
+# Set PROJECT1_CLASSPATH to skip the build and use that class path instead.
+#
+# by Austin Cathey and Ankit Verma
+#
+
+set -e
+cd "$(dirname "$0")/.."
+
+if [ $# -lt 2 ]; then
+	echo "Usage: $0 username password" >&2
+	exit 1
+fi
+
+ARCHIVE=app/target/project1.jsa
+
+if [ -z "$PROJECT1_CLASSPATH" ]; then
+	mvn -B -q -pl app -am package -DskipTests
+	mvn -B -q -pl app dependency:build-classpath -Dmdep.outputFile=target/runtime.classpath
+	PROJECT1_CLASSPATH="app/target/project1-1.0-SNAPSHOT.jar:$(cat app/target/runtime.classpath)"
+fi
+
+mkdir -p app/target
+rm -f "$ARCHIVE"
+
+# The class path has to match at run time, so print it for the run command.
+java -XX:ArchiveClassesAtExit="$ARCHIVE" \
+	-Dproject1.startup.trainingRun=true \
+	-Dproject1.startup="${PROJECT1_STARTUP:-eager}" \
+	-cp "$PROJECT1_CLASSPATH" Project1 "$1" "$2"
+
+echo
+echo "Wrote $ARCHIVE.  Run with:"
+echo "  java -XX:SharedArchiveFile=$ARCHIVE -cp $PROJECT1_CLASSPATH Project1"
@@ -0,0 +1,62 @@
+/*
+ * BenchmarkMain.java
+ *
+ * Entry point for the benchmarks.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+package project1.bench;
+
+// Imports
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.*;
+
+/**
+ * Runs the benchmarks with the usual JMH command line options, but writes the
+ * results as JSON to jmh-results.json unless -rf or -rff say otherwise, so runs
+ * from different releases can be diffed.
+ *
+ * @author Austin Cathey
+ */
+public class BenchmarkMain
+{
+	// Where results go if no file is given.
+	public static final String DEFAULT_RESULT_FILE = "jmh-results.json";
+
+	/**
+	 * Entry point.
+	 *
+	 * @param args JMH command line options, for example a benchmark name pattern or "-p cached=true".
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		if (commandLine.shouldHelp())
+		{
+			commandLine.showHelp();
+			return;
+		}
+
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+		if (!commandLine.getResultFormat().hasValue())
+		{
+			options.resultFormat(ResultFormatType.JSON);
+		}
+		if (!commandLine.getResult().hasValue())
+		{
+			options.result(DEFAULT_RESULT_FILE);
+		}
+
+		Runner runner = new Runner(options.build());
+		if (commandLine.shouldList())
+		{
+			runner.list();
+		}
+		else
+		{
+			runner.run();
+		}
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * DataAccessBenchmark.java
+ *
+ * Benchmarks for the DBHandler lookups and inserts.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+package project1.bench;
+
+// Imports
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks the DBHandler paths behind the first three menu options: looking up a
+ * star by name, listing a star's movies, and inserting a customer.  Each thread gets
+ * its own seeded database and DBHandler, the same as each user of the program has
+ * their own connection.
+ *
+ * With cached=true the handler keeps its entity caches and star name index, as the
+ * program does; with cached=false every lookup goes to the database.
+ *
+ * @author Austin Cathey
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DataAccessBenchmark
+{
+	@Param({"true", "false"})
+	public boolean cached;
+
+	// The database and the handler being measured.
+	private Connection connection;
+	private Object handler;
+
+	// Names and IDs of stars that have movies, so every lookup finds something.
+	private String[][] starNames;
+	private int[] starIds;
+
+	// A credit card that exists, for the customer inserts.
+	private String creditCardId;
+
+	// Which star the next call uses.
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Throwable
+	{
+		connection = EmbeddedMovieDatabase.open();
+		handler = (Object)Project1Access.NEW_DB_HANDLER.invokeExact(connection, cached ? 1000 : 0);
+		if (cached)
+		{
+			boolean loaded = (boolean)Project1Access.LOAD_STAR_NAME_INDEX.invokeExact(handler);
+			if (!loaded)
+			{
+				throw new IllegalStateException("Could not load the star name index.");
+			}
+		}
+
+		List<String[]> names = new ArrayList<String[]>();
+		List<Integer> ids = new ArrayList<Integer>();
+		Statement statement = connection.createStatement();
+		try
+		{
+			ResultSet rs = statement.executeQuery(
+					"SELECT DISTINCT s.id, s.first_name, s.last_name FROM stars s " +
+					"JOIN stars_in_movies sim ON sim.star_id = s.id ORDER BY s.id");
+			while (rs.next())
+			{
+				ids.add(rs.getInt(1));
+				names.add(new String[] {rs.getString(2), rs.getString(3)});
+			}
+			rs.close();
+
+			rs = statement.executeQuery("SELECT MIN(id) FROM creditcards");
+			rs.next();
+			creditCardId = rs.getString(1);
+			rs.close();
+		}
+		finally
+		{
+			statement.close();
+		}
+
+		starNames = names.toArray(new String[names.size()][]);
+		starIds = new int[ids.size()];
+		for (int index = 0; index < starIds.length; index++)
+		{
+			starIds[index] = ids.get(index);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Throwable
+	{
+		Project1Access.KILL.invokeExact(handler);
+		EmbeddedMovieDatabase.close(connection);
+	}
+
+	/**
+	 * Looks up a star's IDs by name, then loads the first one, as option 1 does.
+	 */
+	@Benchmark
+	public Object starLookup() throws Throwable
+	{
+		String[] name = starNames[nextIndex(starNames.length)];
+		ArrayList<?> ids = (ArrayList<?>)Project1Access.GET_STAR_IDS.invokeExact(handler, name[0], name[1]);
+		return (Object)Project1Access.LOAD_MOVIE_STAR.invokeExact(handler, (int)(Integer)ids.get(0));
+	}
+
+	/**
+	 * Loads a star and lists their movies.
+	 */
+	@Benchmark
+	public ArrayList<?> starFilmography() throws Throwable
+	{
+		Object star = (Object)Project1Access.LOAD_MOVIE_STAR.invokeExact(handler, starIds[nextIndex(starIds.length)]);
+		return (ArrayList<?>)Project1Access.GET_MOVIES.invokeExact(star);
+	}
+
+	/**
+	 * Inserts a new customer and reads back the generated ID.
+	 */
+	@Benchmark
+	public Object customerInsert() throws Throwable
+	{
+		int n = next++;
+		Object customer = (Object)Project1Access.NEW_CUSTOMER.invokeExact(handler, "Bench", "Customer" + n,
+				n + " Benchmark Way", "bench" + n + "@example.com", "secret", creditCardId);
+		Object inserted = (Object)Project1Access.INSERT_CUSTOMER.invokeExact(customer);
+		if (inserted == null)
+		{
+			throw new IllegalStateException("The customer wasn't inserted.");
+		}
+		return inserted;
+	}
+
+	/**
+	 * Gets the next index to use, cycling through the stars.
+	 */
+	private int nextIndex(int length)
+	{
+		int index = next++ % length;
+		return index < 0 ? index + length : index;
+	}
+}
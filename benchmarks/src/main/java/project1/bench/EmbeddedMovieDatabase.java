@@ -0,0 +1,262 @@
+/*
+ * EmbeddedMovieDatabase.java
+ *
+ * An in-memory copy of moviedb for the benchmarks.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+package project1.bench;
+
+// Imports
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.sql.*;
+
+/**
+ * Creates an in-memory H2 database in MySQL mode, and seeds it from the
+ * createtable_14.sql and data.sql scripts bundled with the benchmarks.
+ *
+ * Two things in the scripts need help to run on H2.  Tables refer to tables that
+ * are created after them, so failed CREATE TABLE statements are retried until they
+ * all succeed.  Dates are written as '2005/01/05', which MySQL accepts but H2
+ * doesn't, so they're rewritten as '2005-01-05'.  The movies table also has a
+ * column named year, which is a keyword in H2 unless it's told otherwise.
+ *
+ * @author Austin Cathey
+ */
+public class EmbeddedMovieDatabase
+{
+	// The scripts, as classpath resources.
+	public static final String SCHEMA_SCRIPT = "/createtable_14.sql";
+	public static final String DATA_SCRIPT = "/data.sql";
+
+	// Tables whose IDs are generated, so the next ID can be moved past the seeded rows.
+	private static final String[] GENERATED_ID_TABLES = {"movies", "stars", "genres", "customers", "sales"};
+
+	// Dates in the form MySQL accepts but H2 doesn't.
+	private static final Pattern SLASHED_DATE = Pattern.compile("'(\\d{4})/(\\d{1,2})/(\\d{1,2})'");
+
+	// Gives each database a different name, so benchmarks don't share data by accident.
+	private static final AtomicInteger databaseCount = new AtomicInteger();
+
+	/**
+	 * Creates and seeds a new database.
+	 *
+	 * @return A connection to the database.  Close it with close().
+	 */
+	public static Connection open() throws SQLException, IOException
+	{
+		String url = "jdbc:h2:mem:moviedb" + databaseCount.incrementAndGet() +
+				";MODE=MySQL;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=YEAR;DB_CLOSE_DELAY=-1";
+		Connection connection = DriverManager.getConnection(url, "sa", "");
+
+		try
+		{
+			createTables(connection, readStatements(SCHEMA_SCRIPT));
+			loadData(connection, readStatements(DATA_SCRIPT));
+		}
+		catch (SQLException | IOException ex)
+		{
+			connection.close();
+			throw ex;
+		}
+		return connection;
+	}
+
+	/**
+	 * Drops a database created by open() and closes the connection.
+	 *
+	 * @param connection The connection returned by open().
+	 */
+	public static void close(Connection connection)
+	{
+		if (connection == null)
+		{
+			return;
+		}
+
+		try
+		{
+			Statement statement = connection.createStatement();
+			statement.execute("SHUTDOWN");
+			statement.close();
+		}
+		catch (SQLException ex)
+		{
+			// The database is going away either way.
+		}
+
+		try
+		{
+			connection.close();
+		}
+		catch (SQLException ex)
+		{
+		}
+	}
+
+	/**
+	 * Runs the CREATE TABLE statements, retrying the ones that refer to tables that don't exist yet.
+	 */
+	private static void createTables(Connection connection, List<String> statements) throws SQLException
+	{
+		List<String> remaining = new ArrayList<String>();
+		for (String sql : statements)
+		{
+			// The scripts drop and recreate the whole database, which the in-memory database doesn't need.
+			String upper = sql.toUpperCase(Locale.ROOT);
+			if (!upper.startsWith("DROP DATABASE") && !upper.startsWith("CREATE DATABASE") && !upper.startsWith("USE "))
+			{
+				remaining.add(sql);
+			}
+		}
+
+		Statement statement = connection.createStatement();
+		try
+		{
+			while (!remaining.isEmpty())
+			{
+				List<String> failed = new ArrayList<String>();
+				SQLException lastError = null;
+				for (String sql : remaining)
+				{
+					try
+					{
+						statement.execute(sql);
+					}
+					catch (SQLException ex)
+					{
+						failed.add(sql);
+						lastError = ex;
+					}
+				}
+
+				// Give up once a pass makes no progress.
+				if (failed.size() == remaining.size())
+				{
+					throw lastError;
+				}
+				remaining = failed;
+			}
+		}
+		finally
+		{
+			statement.close();
+		}
+	}
+
+	/**
+	 * Runs the INSERT statements in one transaction, then moves each table's next ID past its rows.
+	 */
+	private static void loadData(Connection connection, List<String> statements) throws SQLException
+	{
+		Statement statement = connection.createStatement();
+		try
+		{
+			// The data isn't in foreign key order.
+			statement.execute("SET REFERENTIAL_INTEGRITY FALSE");
+			connection.setAutoCommit(false);
+			for (String sql : statements)
+			{
+				statement.addBatch(SLASHED_DATE.matcher(sql).replaceAll("'$1-$2-$3'"));
+			}
+			statement.executeBatch();
+			connection.commit();
+			connection.setAutoCommit(true);
+			statement.execute("SET REFERENTIAL_INTEGRITY TRUE");
+
+			for (String table : GENERATED_ID_TABLES)
+			{
+				ResultSet rs = statement.executeQuery("SELECT COALESCE(MAX(id), 0) + 1 FROM " + table);
+				rs.next();
+				long next = rs.getLong(1);
+				rs.close();
+				statement.execute("ALTER TABLE " + table + " ALTER COLUMN id RESTART WITH " + next);
+			}
+		}
+		finally
+		{
+			statement.close();
+		}
+	}
+
+	/**
+	 * Splits a script into statements, dropping comments.
+	 *
+	 * @param resource The script's resource name.
+	 * @return The statements, without their semicolons.
+	 */
+	static List<String> readStatements(String resource) throws IOException
+	{
+		InputStream in = EmbeddedMovieDatabase.class.getResourceAsStream(resource);
+		if (in == null)
+		{
+			throw new FileNotFoundException("The benchmarks were built without " + resource + ".");
+		}
+
+		StringBuilder script = new StringBuilder();
+		Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+		try
+		{
+			char[] buffer = new char[8192];
+			int count;
+			while ((count = reader.read(buffer)) > 0)
+			{
+				script.append(buffer, 0, count);
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+
+		List<String> statements = new ArrayList<String>();
+		StringBuilder current = new StringBuilder();
+		boolean quoted = false;
+		for (int index = 0; index < script.length(); index++)
+		{
+			char c = script.charAt(index);
+
+			// A doubled quote inside a string toggles twice, so it needs no special case.
+			if (c == '\'')
+			{
+				quoted = !quoted;
+			}
+			else if (!quoted && c == '-' && index + 1 < script.length() && script.charAt(index + 1) == '-')
+			{
+				while (index < script.length() && script.charAt(index) != '\n')
+				{
+					index++;
+				}
+				current.append('\n');
+				continue;
+			}
+			else if (!quoted && c == ';')
+			{
+				addStatement(statements, current);
+				continue;
+			}
+			current.append(c);
+		}
+		addStatement(statements, current);
+
+		return statements;
+	}
+
+	/**
+	 * Adds a statement to the list if it isn't blank, and empties the buffer.
+	 */
+	private static void addStatement(List<String> statements, StringBuilder current)
+	{
+		String sql = current.toString().trim();
+		if (sql.length() > 0)
+		{
+			statements.add(sql);
+		}
+		current.setLength(0);
+	}
+}
@@ -0,0 +1,226 @@
+/*
+ * Project1Access.java
+ *
+ * Method handles into the application classes for the benchmarks.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+package project1.bench;
+
+// Imports
+import java.lang.invoke.*;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Gives the benchmarks access to the application.  The application classes are in
+ * the default package, which can't be imported, and JMH won't generate benchmarks
+ * in the default package, so the benchmarks reach them through method handles.
+ * The handles are static final, so the JIT treats them as constants and calls
+ * through them cost about the same as direct calls.
+ *
+ * The handles are typed with Object in place of the application classes, and must
+ * be called with invokeExact() using exactly the types shown next to each one.
+ *
+ * @author Austin Cathey
+ */
+public final class Project1Access
+{
+	// (Connection, int) -> DBHandler
+	static final MethodHandle NEW_DB_HANDLER;
+
+	// (DBHandler) -> boolean
+	static final MethodHandle LOAD_STAR_NAME_INDEX;
+
+	// (DBHandler, String firstName, String lastName) -> ArrayList of star IDs
+	static final MethodHandle GET_STAR_IDS;
+
+	// (DBHandler, int id) -> MovieStar
+	static final MethodHandle LOAD_MOVIE_STAR;
+
+	// (MovieStar) -> ArrayList of Movies
+	static final MethodHandle GET_MOVIES;
+
+	// (DBHandler, first, last, address, email, password, credit card) -> Customer
+	static final MethodHandle NEW_CUSTOMER;
+
+	// (Customer) -> Customer, or null if it wasn't added
+	static final MethodHandle INSERT_CUSTOMER;
+
+	// (DBHandler) -> void
+	static final MethodHandle KILL;
+
+	// (PreparedStatement, int, Object) -> boolean
+	static final MethodHandle SET_BASIC_ITEM;
+
+	// (PreparedStatement, int, int) -> void
+	static final MethodHandle BIND_INT;
+
+	// (PreparedStatement, int, String) -> void
+	static final MethodHandle BIND_STRING;
+
+	// (int capacity) -> ParameterFrame
+	static final MethodHandle NEW_PARAMETER_FRAME;
+
+	// (ParameterFrame, int, int) -> ParameterFrame
+	static final MethodHandle FRAME_SET_INT;
+
+	// (ParameterFrame, int, String) -> ParameterFrame
+	static final MethodHandle FRAME_SET_STRING;
+
+	// (ParameterFrame, PreparedStatement) -> void
+	static final MethodHandle FRAME_BIND;
+
+	// (ResultSetMetaData, String[] columns) -> int[] positions
+	static final MethodHandle RESOLVE_COLUMNS;
+
+	// (String, int) -> String
+	static final MethodHandle TRUNCATE;
+
+	// (String, int) -> String
+	static final MethodHandle REPEAT;
+
+	// (String[]) -> boolean
+	static final MethodHandle NULL_OR_EMPTY_EXISTS;
+
+	// RoutingDataSource.LagProbe, for building probes with java.lang.reflect.Proxy.
+	static final Class<?> LAG_PROBE;
+
+	// (url, username, password, min size, max size, max waiters, idle timeout, borrow timeout) -> ConnectionPool
+	static final MethodHandle NEW_CONNECTION_POOL;
+
+	// (ConnectionPool) -> void
+	static final MethodHandle CLOSE_POOL;
+
+	// (ConnectionPool primary, List of replica pools, List of replica URLs, LagProbe, long max lag, long check interval) -> RoutingDataSource
+	static final MethodHandle NEW_ROUTING_DATA_SOURCE;
+
+	// (RoutingDataSource) -> Connection
+	static final MethodHandle GET_READ_CONNECTION;
+
+	// (RoutingDataSource, Connection, SQLException) -> boolean
+	static final MethodHandle REPORT_FAILURE;
+
+	// (RoutingDataSource) -> void
+	static final MethodHandle CHECK_REPLICAS;
+
+	// (RoutingDataSource) -> void
+	static final MethodHandle CLOSE_ROUTING;
+
+	// (Connection) -> void
+	static final MethodHandle CLOSE_CONNECTION;
+
+	static
+	{
+		try
+		{
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			Class<?> dbHandler = Class.forName("DBHandler");
+			Class<?> movieStar = Class.forName("DBHandler$MovieStar");
+			Class<?> customer = Class.forName("DBHandler$Customer");
+			Class<?> jdbcWrapper = Class.forName("JdbcWrapper");
+			Class<?> parameterBinder = Class.forName("ParameterBinder");
+			Class<?> parameterFrame = Class.forName("ParameterFrame");
+			Class<?> stringUtilities = Class.forName("StringUtilities");
+			Class<?> rowMapper = Class.forName("RowMapper");
+			Class<?> connectionPool = Class.forName("ConnectionPool");
+			Class<?> routingDataSource = Class.forName("RoutingDataSource");
+
+			MethodHandles.Lookup inHandler = MethodHandles.privateLookupIn(dbHandler, lookup);
+			MethodHandles.Lookup inMovieStar = MethodHandles.privateLookupIn(movieStar, lookup);
+			MethodHandles.Lookup inCustomer = MethodHandles.privateLookupIn(customer, lookup);
+
+			NEW_DB_HANDLER = erase(inHandler.findConstructor(dbHandler,
+					MethodType.methodType(void.class, Connection.class, int.class)));
+			LOAD_STAR_NAME_INDEX = erase(inHandler.findVirtual(dbHandler, "loadStarNameIndex",
+					MethodType.methodType(boolean.class)));
+			GET_STAR_IDS = erase(inHandler.findVirtual(dbHandler, "getStarIDs",
+					MethodType.methodType(ArrayList.class, String.class, String.class)));
+			LOAD_MOVIE_STAR = erase(inHandler.findVirtual(dbHandler, "loadMovieStar",
+					MethodType.methodType(movieStar, int.class)));
+			GET_MOVIES = erase(inMovieStar.findVirtual(movieStar, "getMovies",
+					MethodType.methodType(ArrayList.class)));
+			NEW_CUSTOMER = erase(inCustomer.findConstructor(customer,
+					MethodType.methodType(void.class, dbHandler, String.class, String.class, String.class, String.class, String.class, String.class)));
+			INSERT_CUSTOMER = erase(inCustomer.findVirtual(customer, "insertIntoCustomersDatabase",
+					MethodType.methodType(customer)));
+			KILL = erase(inHandler.findVirtual(dbHandler, "kill", MethodType.methodType(void.class)));
+
+			SET_BASIC_ITEM = lookup.findStatic(jdbcWrapper, "setBasicItem",
+					MethodType.methodType(boolean.class, PreparedStatement.class, int.class, Object.class));
+			BIND_INT = lookup.findStatic(parameterBinder, "bindInt",
+					MethodType.methodType(void.class, PreparedStatement.class, int.class, int.class));
+			BIND_STRING = lookup.findStatic(parameterBinder, "bindString",
+					MethodType.methodType(void.class, PreparedStatement.class, int.class, String.class));
+			NEW_PARAMETER_FRAME = erase(lookup.findConstructor(parameterFrame,
+					MethodType.methodType(void.class, int.class)));
+			FRAME_SET_INT = erase(lookup.findVirtual(parameterFrame, "setInt",
+					MethodType.methodType(parameterFrame, int.class, int.class)));
+			FRAME_SET_STRING = erase(lookup.findVirtual(parameterFrame, "setString",
+					MethodType.methodType(parameterFrame, int.class, String.class)));
+			FRAME_BIND = erase(lookup.findVirtual(parameterFrame, "bind",
+					MethodType.methodType(void.class, PreparedStatement.class)));
+			RESOLVE_COLUMNS = lookup.findStatic(rowMapper, "resolve",
+					MethodType.methodType(int[].class, ResultSetMetaData.class, String[].class));
+			TRUNCATE = lookup.findStatic(stringUtilities, "truncate",
+					MethodType.methodType(String.class, String.class, int.class));
+			REPEAT = lookup.findStatic(stringUtilities, "repeat",
+					MethodType.methodType(String.class, String.class, int.class));
+			NULL_OR_EMPTY_EXISTS = lookup.findStatic(stringUtilities, "nullOrEmptyExists",
+					MethodType.methodType(boolean.class, String[].class));
+
+			LAG_PROBE = Class.forName("RoutingDataSource$LagProbe");
+			NEW_CONNECTION_POOL = erase(lookup.findConstructor(connectionPool,
+					MethodType.methodType(void.class, String.class, String.class, String.class,
+							int.class, int.class, int.class, long.class, long.class)));
+			CLOSE_POOL = erase(lookup.findVirtual(connectionPool, "close", MethodType.methodType(void.class)));
+			NEW_ROUTING_DATA_SOURCE = erase(lookup.findConstructor(routingDataSource,
+					MethodType.methodType(void.class, connectionPool, List.class, List.class, LAG_PROBE, long.class, long.class)));
+			GET_READ_CONNECTION = erase(lookup.findVirtual(routingDataSource, "getReadConnection",
+					MethodType.methodType(Connection.class)));
+			REPORT_FAILURE = erase(lookup.findVirtual(routingDataSource, "reportFailure",
+					MethodType.methodType(boolean.class, Connection.class, SQLException.class)));
+			CHECK_REPLICAS = erase(lookup.findVirtual(routingDataSource, "checkReplicas", MethodType.methodType(void.class)));
+			CLOSE_ROUTING = erase(lookup.findVirtual(routingDataSource, "close", MethodType.methodType(void.class)));
+			CLOSE_CONNECTION = lookup.findStatic(jdbcWrapper, "closeConnection",
+					MethodType.methodType(void.class, Connection.class));
+		}
+		catch (ReflectiveOperationException ex)
+		{
+			throw new ExceptionInInitializerError(ex);
+		}
+	}
+
+	private Project1Access()
+	{
+	}
+
+	/**
+	 * Replaces the application classes in a handle's type with Object.
+	 */
+	private static MethodHandle erase(MethodHandle handle)
+	{
+		MethodType type = handle.type();
+		for (int index = 0; index < type.parameterCount(); index++)
+		{
+			if (isApplicationClass(type.parameterType(index)))
+			{
+				type = type.changeParameterType(index, Object.class);
+			}
+		}
+		if (isApplicationClass(type.returnType()))
+		{
+			type = type.changeReturnType(Object.class);
+		}
+		return handle.asType(type);
+	}
+
+	/**
+	 * Checks whether a class is one of the application's, which are all in the default package.
+	 */
+	private static boolean isApplicationClass(Class<?> type)
+	{
+		return !type.isPrimitive() && !type.isArray() && type.getPackageName().isEmpty();
+	}
+}
@@ -0,0 +1,302 @@
+/*
+ * ReadRoutingScenario.java
+ *
+ * Checks read routing and replica failover against embedded databases.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+package project1.bench;
+
+// Imports
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Runs RoutingDataSource against three embedded databases, a primary and two
+ * replicas, and checks where reads go as the replicas fall behind, go down and
+ * come back.  Each replica has a replica_status table holding its lag, which a
+ * LagProbe reads in place of SHOW SLAVE STATUS, so the scenario can set a replica's
+ * lag or take it down by dropping the table.
+ *
+ * The steps are:
+ *   1. Both replicas are current, so reads alternate between them.
+ *   2. Replica 1 is past the lag limit, so every read goes to replica 2.
+ *   3. Replica 2 is down as well, so reads fall back to the primary.
+ *   4. Both replicas recover, so reads alternate between them again.
+ *   5. A read fails with a connection error, so its replica is skipped right away.
+ *
+ * Run it with "java -cp benchmarks/target/benchmarks.jar project1.bench.ReadRoutingScenario".
+ * It prints each step and exits with status 1 if any step failed.
+ *
+ * @author Austin Cathey
+ */
+public class ReadRoutingScenario
+{
+	// The most a replica may lag and still serve reads.
+	private static final long MAX_LAG_SECONDS = 10;
+
+	// Reads per step.  Even, so that two replicas in rotation get the same number.
+	private static final int READS = 8;
+
+	// The databases, and their URLs.  The connections also keep the in-memory databases alive.
+	private final Connection primary;
+	private final Connection[] replicas;
+	private final Map<String, String> names = new HashMap<String, String>();
+
+	// The pools and the data source being checked.
+	private Object primaryPool;
+	private Object router;
+
+	private int failures;
+
+	/**
+	 * Entry point.
+	 *
+	 * @param args Not used.
+	 */
+	public static void main(String[] args) throws Throwable
+	{
+		ReadRoutingScenario scenario = new ReadRoutingScenario();
+		try
+		{
+			scenario.run();
+		}
+		finally
+		{
+			scenario.close();
+		}
+
+		System.out.println(scenario.failures == 0 ? "All steps passed." : scenario.failures + " step(s) failed.");
+		System.exit(scenario.failures == 0 ? 0 : 1);
+	}
+
+	/**
+	 * Creates and seeds the databases.
+	 */
+	public ReadRoutingScenario() throws Exception
+	{
+		primary = EmbeddedMovieDatabase.open();
+		replicas = new Connection[] {EmbeddedMovieDatabase.open(), EmbeddedMovieDatabase.open()};
+
+		names.put(primary.getMetaData().getURL(), "primary");
+		for (int index = 0; index < replicas.length; index++)
+		{
+			names.put(replicas[index].getMetaData().getURL(), "replica " + (index + 1));
+			setLag(index, 0);
+		}
+	}
+
+	/**
+	 * Runs every step.
+	 */
+	public void run() throws Throwable
+	{
+		List<Object> pools = new ArrayList<Object>();
+		List<String> urls = new ArrayList<String>();
+		primaryPool = newPool(primary.getMetaData().getURL());
+		for (Connection replica : replicas)
+		{
+			urls.add(replica.getMetaData().getURL());
+			pools.add(newPool(replica.getMetaData().getURL()));
+		}
+
+		// The timer checks the replicas once straight away and then not for an hour.  Wait out
+		// that first check, so that from then on they're only checked when a step asks.
+		router = (Object)Project1Access.NEW_ROUTING_DATA_SOURCE.invokeExact(primaryPool, pools, urls, newLagProbe(),
+				MAX_LAG_SECONDS, 60L * 60 * 1000);
+		Thread.sleep(500);
+
+		checkReplicas();
+		expect("1. both replicas current", readAll(), "replica 1", "replica 2");
+
+		setLag(0, MAX_LAG_SECONDS * 6);
+		checkReplicas();
+		expect("2. replica 1 lagging", readAll(), "replica 2");
+
+		takeDown(1);
+		checkReplicas();
+		expect("3. replica 2 down too", readAll(), "primary");
+
+		setLag(0, 0);
+		setLag(1, 0);
+		checkReplicas();
+		expect("4. both replicas back", readAll(), "replica 1", "replica 2");
+
+		// A connection error takes the replica out without waiting for the next check.
+		Connection connection = (Connection)Project1Access.GET_READ_CONNECTION.invokeExact(router);
+		String failed = nameOf(connection);
+		boolean reported = (boolean)Project1Access.REPORT_FAILURE.invokeExact(router, connection,
+				(SQLException)new SQLNonTransientConnectionException("Communications link failure", "08S01"));
+		Project1Access.CLOSE_CONNECTION.invokeExact(connection);
+		if (!reported)
+		{
+			fail("5. connection error", "the failure on " + failed + " wasn't counted against a replica");
+		}
+		else
+		{
+			expect("5. connection error on " + failed, readAll(), failed.equals("replica 1") ? "replica 2" : "replica 1");
+		}
+	}
+
+	/**
+	 * Reads as many times as a step does.
+	 *
+	 * @return The number of reads that went to each database, by name.
+	 */
+	private Map<String, Integer> readAll() throws Throwable
+	{
+		Map<String, Integer> counts = new TreeMap<String, Integer>();
+		for (int read = 0; read < READS; read++)
+		{
+			Connection connection = (Connection)Project1Access.GET_READ_CONNECTION.invokeExact(router);
+			try
+			{
+				String name = nameOf(connection);
+				Integer count = counts.get(name);
+				counts.put(name, count == null ? 1 : count + 1);
+			}
+			finally
+			{
+				Project1Access.CLOSE_CONNECTION.invokeExact(connection);
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Checks that a step's reads were spread evenly over the expected databases and went nowhere else.
+	 */
+	private void expect(String step, Map<String, Integer> counts, String... expected)
+	{
+		boolean passed = counts.keySet().equals(new TreeSet<String>(Arrays.asList(expected)));
+		for (int count : counts.values())
+		{
+			passed &= (count == READS / expected.length);
+		}
+
+		if (passed)
+		{
+			System.out.println("PASS " + step + ": " + counts);
+		}
+		else
+		{
+			fail(step, "expected reads spread over " + Arrays.toString(expected) + ", got " + counts);
+		}
+	}
+
+	private void fail(String step, String problem)
+	{
+		failures++;
+		System.out.println("FAIL " + step + ": " + problem);
+	}
+
+	private String nameOf(Connection connection) throws SQLException
+	{
+		String url = connection.getMetaData().getURL();
+		return names.containsKey(url) ? names.get(url) : url;
+	}
+
+	private void checkReplicas() throws Throwable
+	{
+		Project1Access.CHECK_REPLICAS.invokeExact(router);
+	}
+
+	/**
+	 * Sets a replica's lag, bringing it back up if it was taken down.
+	 */
+	private void setLag(int replica, long seconds) throws SQLException
+	{
+		Statement statement = replicas[replica].createStatement();
+		try
+		{
+			statement.execute("CREATE TABLE IF NOT EXISTS replica_status (lag_seconds BIGINT)");
+			statement.execute("DELETE FROM replica_status");
+			statement.execute("INSERT INTO replica_status VALUES (" + seconds + ")");
+		}
+		finally
+		{
+			statement.close();
+		}
+	}
+
+	/**
+	 * Makes a replica look unreachable to the lag probe.
+	 */
+	private void takeDown(int replica) throws SQLException
+	{
+		Statement statement = replicas[replica].createStatement();
+		try
+		{
+			statement.execute("DROP TABLE replica_status");
+		}
+		finally
+		{
+			statement.close();
+		}
+	}
+
+	private static Object newPool(String url) throws Throwable
+	{
+		return (Object)Project1Access.NEW_CONNECTION_POOL.invokeExact(url, "sa", "", 0, 4, 4, 60L * 1000, 5L * 1000);
+	}
+
+	/**
+	 * Makes a LagProbe that reads a replica's lag from its replica_status table.
+	 * A replica without the table fails the probe, as an unreachable one would.
+	 */
+	private static Object newLagProbe()
+	{
+		InvocationHandler probe = new InvocationHandler()
+		{
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+			{
+				if (method.getName().equals("getLagSeconds"))
+				{
+					Statement statement = ((Connection)args[0]).createStatement();
+					try
+					{
+						ResultSet rs = statement.executeQuery("SELECT lag_seconds FROM replica_status");
+						return rs.next() ? rs.getLong(1) : -1L;
+					}
+					finally
+					{
+						statement.close();
+					}
+				}
+				else if (method.getName().equals("equals"))
+				{
+					return proxy == args[0];
+				}
+				else if (method.getName().equals("hashCode"))
+				{
+					return System.identityHashCode(proxy);
+				}
+				return "replica_status lag probe";
+			}
+		};
+		return Proxy.newProxyInstance(ReadRoutingScenario.class.getClassLoader(), new Class<?>[] {Project1Access.LAG_PROBE}, probe);
+	}
+
+	/**
+	 * Closes the data source, its pools and the databases.
+	 */
+	public void close() throws Throwable
+	{
+		if (router != null)
+		{
+			Project1Access.CLOSE_ROUTING.invokeExact(router);
+		}
+		if (primaryPool != null)
+		{
+			Project1Access.CLOSE_POOL.invokeExact(primaryPool);
+		}
+		EmbeddedMovieDatabase.close(primary);
+		for (Connection replica : replicas)
+		{
+			EmbeddedMovieDatabase.close(replica);
+		}
+	}
+}
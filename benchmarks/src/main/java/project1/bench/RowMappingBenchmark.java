@@ -0,0 +1,153 @@
+/*
+ * RowMappingBenchmark.java
+ *
+ * Benchmarks for reading rows by column label and by column position.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+package project1.bench;
+
+// Imports
+import java.sql.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Scans every movie and every star, reading the columns the way DBHandler's entities
+ * do.  With access=label each column is read by name, as the entities used to; with
+ * access=position the positions are looked up once with RowMapper.resolve(), the way
+ * RowMapper caches them for each statement.  Each operation is one full scan, so the
+ * difference between the two divided by the number of rows is the saving per row.
+ *
+ * @author Austin Cathey
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RowMappingBenchmark
+{
+	private static final String MOVIES_SQL = "SELECT id, title, year, director, banner_url, trailer_url FROM movies";
+	private static final String STARS_SQL = "SELECT id, first_name, last_name, dob, photo_url FROM stars";
+
+	private static final String[] MOVIE_COLUMNS = {"id", "title", "year", "director", "banner_url", "trailer_url"};
+	private static final String[] STAR_COLUMNS = {"id", "first_name", "last_name", "dob", "photo_url"};
+
+	@Param({"label", "position"})
+	public String access;
+
+	private Connection connection;
+	private PreparedStatement movies;
+	private PreparedStatement stars;
+	private int[] moviePositions;
+	private int[] starPositions;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Throwable
+	{
+		connection = EmbeddedMovieDatabase.open();
+		movies = connection.prepareStatement(MOVIES_SQL);
+		stars = connection.prepareStatement(STARS_SQL);
+
+		ResultSet rs = movies.executeQuery();
+		moviePositions = (int[])Project1Access.RESOLVE_COLUMNS.invokeExact(rs.getMetaData(), MOVIE_COLUMNS);
+		rs.close();
+		rs = stars.executeQuery();
+		starPositions = (int[])Project1Access.RESOLVE_COLUMNS.invokeExact(rs.getMetaData(), STAR_COLUMNS);
+		rs.close();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws SQLException
+	{
+		movies.close();
+		stars.close();
+		EmbeddedMovieDatabase.close(connection);
+	}
+
+	@Benchmark
+	public int movieScan(Blackhole blackhole) throws SQLException
+	{
+		int rows = 0;
+		ResultSet rs = movies.executeQuery();
+		try
+		{
+			if (access.equals("label"))
+			{
+				while (rs.next())
+				{
+					blackhole.consume(rs.getInt("id"));
+					blackhole.consume(rs.getString("title"));
+					blackhole.consume(rs.getInt("year"));
+					blackhole.consume(rs.getString("director"));
+					blackhole.consume(rs.getString("banner_url"));
+					blackhole.consume(rs.getString("trailer_url"));
+					rows++;
+				}
+			}
+			else
+			{
+				int[] columns = moviePositions;
+				while (rs.next())
+				{
+					blackhole.consume(rs.getInt(columns[0]));
+					blackhole.consume(rs.getString(columns[1]));
+					blackhole.consume(rs.getInt(columns[2]));
+					blackhole.consume(rs.getString(columns[3]));
+					blackhole.consume(rs.getString(columns[4]));
+					blackhole.consume(rs.getString(columns[5]));
+					rows++;
+				}
+			}
+		}
+		finally
+		{
+			rs.close();
+		}
+		return rows;
+	}
+
+	@Benchmark
+	public int starScan(Blackhole blackhole) throws SQLException
+	{
+		int rows = 0;
+		ResultSet rs = stars.executeQuery();
+		try
+		{
+			if (access.equals("label"))
+			{
+				while (rs.next())
+				{
+					blackhole.consume(rs.getInt("id"));
+					blackhole.consume(rs.getString("first_name"));
+					blackhole.consume(rs.getString("last_name"));
+					blackhole.consume(rs.getDate("dob"));
+					blackhole.consume(rs.getString("photo_url"));
+					rows++;
+				}
+			}
+			else
+			{
+				int[] columns = starPositions;
+				while (rs.next())
+				{
+					blackhole.consume(rs.getInt(columns[0]));
+					blackhole.consume(rs.getString(columns[1]));
+					blackhole.consume(rs.getString(columns[2]));
+					blackhole.consume(rs.getDate(columns[3]));
+					blackhole.consume(rs.getString(columns[4]));
+					rows++;
+				}
+			}
+		}
+		finally
+		{
+			rs.close();
+		}
+		return rows;
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * UtilityBenchmark.java
+ *
+ * Benchmarks for the JdbcWrapper and StringUtilities helpers.
+ *
+ * by Austin Cathey and Ankit Verma
+ */
+
+package project1.bench;
+
+// Imports
+import java.sql.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks the small helpers that run on every statement and every line of output:
+ * binding parameters, with JdbcWrapper.setBasicItem() and with ParameterBinder and
+ * ParameterFrame, and the StringUtilities methods.
+ *
+ * @author Austin Cathey
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UtilityBenchmark
+{
+	// A short name and a long URL, like the values the program binds and prints.
+	private static final String NAME = "Julia Roberts";
+	private static final String URL = "http://ia.imdb.com/media/imdb/01/I/35/30/91m.gif?size=large&format=original";
+
+	private Connection connection;
+	private PreparedStatement pstmt;
+	private PreparedStatement rowStatement;
+	private Object frame;
+	private int next;
+
+	// Boxed once, so the benchmarks measure binding rather than boxing.
+	private Object intValue = Integer.valueOf(490012);
+	private Object doubleValue = Double.valueOf(9.99);
+	private Object stringValue = NAME;
+
+	private String[] names = {"Julia", "Roberts", "julia@example.com"};
+
+	@Setup(Level.Trial)
+	public void setUp() throws SQLException
+	{
+		// Binding doesn't need any tables, so skip seeding.
+		connection = DriverManager.getConnection("jdbc:h2:mem:;MODE=MySQL", "sa", "");
+		pstmt = connection.prepareStatement("SELECT ?");
+		rowStatement = connection.prepareStatement("SELECT ?, ?, ?, ?");
+		try
+		{
+			frame = (Object)Project1Access.NEW_PARAMETER_FRAME.invokeExact(4);
+		}
+		catch (Throwable ex)
+		{
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws SQLException
+	{
+		pstmt.close();
+		rowStatement.close();
+		connection.close();
+	}
+
+	@Benchmark
+	public boolean setBasicItemInt() throws Throwable
+	{
+		return (boolean)Project1Access.SET_BASIC_ITEM.invokeExact(pstmt, 1, intValue);
+	}
+
+	@Benchmark
+	public boolean setBasicItemDouble() throws Throwable
+	{
+		return (boolean)Project1Access.SET_BASIC_ITEM.invokeExact(pstmt, 1, doubleValue);
+	}
+
+	@Benchmark
+	public boolean setBasicItemString() throws Throwable
+	{
+		return (boolean)Project1Access.SET_BASIC_ITEM.invokeExact(pstmt, 1, stringValue);
+	}
+
+	@Benchmark
+	public void bindInt() throws Throwable
+	{
+		Project1Access.BIND_INT.invokeExact(pstmt, 1, next++);
+	}
+
+	@Benchmark
+	public void bindString() throws Throwable
+	{
+		Project1Access.BIND_STRING.invokeExact(pstmt, 1, NAME);
+	}
+
+	/**
+	 * Fills in and binds a star-sized row with a reused frame.
+	 */
+	@Benchmark
+	public void bindFrameRow() throws Throwable
+	{
+		frame = (Object)Project1Access.FRAME_SET_INT.invokeExact(frame, 1, next++);
+		frame = (Object)Project1Access.FRAME_SET_STRING.invokeExact(frame, 2, NAME);
+		frame = (Object)Project1Access.FRAME_SET_STRING.invokeExact(frame, 3, NAME);
+		frame = (Object)Project1Access.FRAME_SET_STRING.invokeExact(frame, 4, URL);
+		Project1Access.FRAME_BIND.invokeExact(frame, rowStatement);
+	}
+
+	@Benchmark
+	public String truncate() throws Throwable
+	{
+		return (String)Project1Access.TRUNCATE.invokeExact(URL, 30);
+	}
+
+	@Benchmark
+	public String repeat() throws Throwable
+	{
+		return (String)Project1Access.REPEAT.invokeExact("-", NAME.length() + 20);
+	}
+
+	@Benchmark
+	public boolean nullOrEmptyExists() throws Throwable
+	{
+		return (boolean)Project1Access.NULL_OR_EMPTY_EXISTS.invokeExact(names);
+	}
+}